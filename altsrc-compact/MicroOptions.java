@@ -15,81 +15,1161 @@ public class MicroOptions {
     public static class OptionException extends RuntimeException {
         public OptionException(String message) { super(message); } }
     public static class UnsupportedOptionException extends OptionException {
+        private final String o;
+        private final transient Schema s;
+        private java.util.List<String> suggestions;
         public UnsupportedOptionException(String o) {
-            super("Unsupported option '" + o + "'"); } }
+            this(o, java.util.Collections.<String>emptyList()); }
+        public UnsupportedOptionException(String o,
+                java.util.List<String> suggestions) {
+            this(o, suggestions, null); }
+        private UnsupportedOptionException(String o,
+                java.util.List<String> suggestions, Schema s) {
+            super(Diagnostic.describe(Diagnostic.Kind.UNSUPPORTED_OPTION, o,
+                    null, null));
+            this.o = o; this.suggestions = suggestions; this.s = s; }
+        public java.util.List<String> getSuggestions() {
+            java.util.List<String> l = suggestions;
+            if (l == null) suggestions = l = s == null
+                    ? java.util.Collections.<String>emptyList() : s.suggest(o);
+            return l;
+        }
+    }
+    public static class UnsupportedCommandException extends OptionException {
+        public UnsupportedCommandException(String c) {
+            super(Diagnostic.describe(Diagnostic.Kind.UNSUPPORTED_COMMAND, c,
+                    null, null)); } }
     public static class MissingArgException extends OptionException {
         public MissingArgException(String o) {
-            super("Missing argument for option '" + o + "'"); } }
+            super(Diagnostic.describe(Diagnostic.Kind.MISSING_ARG, o,
+                    null, null)); } }
     public static class RequiredOptionException extends OptionException {
         public RequiredOptionException(String o) {
-            super("Missing required option '" + o + "'"); } }
+            super(Diagnostic.describe(Diagnostic.Kind.REQUIRED_OPTION, o,
+                    null, null)); } }
+    public static class ConversionException extends OptionException {
+        public ConversionException(String o, String value, String type) {
+            super(Diagnostic.describe(Diagnostic.Kind.CONVERSION, o,
+                    value, type)); } }
+    public static final class Diagnostic {
+        public enum Kind { UNSUPPORTED_OPTION, MISSING_ARG, REQUIRED_OPTION,
+                CONVERSION, UNSUPPORTED_COMMAND }
+        private final Kind k;
+        private final String o, v, t;
+        private final Schema s;
+        private java.util.List<String> suggestions;
+        private Diagnostic(Kind k, String o, String v, String t, Schema s) {
+            this.k = k; this.o = o; this.v = v; this.t = t; this.s = s; }
+        public Kind getKind() { return k; }
+        public String getOption() { return o; }
+        public java.util.List<String> getSuggestions() {
+            java.util.List<String> l = suggestions;
+            if (l == null) suggestions = l = s == null
+                    ? java.util.Collections.<String>emptyList() : s.suggest(o);
+            return l;
+        }
+        public String getMessage() { return describe(k, o, v, t); }
+        public OptionException toException() {
+            switch (k) {
+            case UNSUPPORTED_OPTION:
+                return new UnsupportedOptionException(o, suggestions, s);
+            case MISSING_ARG: return new MissingArgException(o);
+            case REQUIRED_OPTION: return new RequiredOptionException(o);
+            case UNSUPPORTED_COMMAND: return new UnsupportedCommandException(o);
+            default: return new ConversionException(o, v, t);
+            }
+        }
+        public String toString() { return getMessage(); }
+        private static java.util.List<String> list(String[] s) {
+            if (s == null) return java.util.Collections.emptyList();
+            return java.util.Collections.unmodifiableList(
+                    java.util.Arrays.asList(s));
+        }
+        private static String describe(Kind k, String o, String v, String t) {
+            switch (k) {
+            case UNSUPPORTED_OPTION: return "Unsupported option '" + o + "'";
+            case MISSING_ARG: return "Missing argument for option '" + o + "'";
+            case REQUIRED_OPTION: return "Missing required option '" + o + "'";
+            case UNSUPPORTED_COMMAND: return "Unsupported command '" + o + "'";
+            default:
+                return "Invalid " + t + " '" + v + "' for option '" + o + "'";
+            }
+        }
+    }
+    public enum Source { COMMAND_LINE, ENVIRONMENT, SYSTEM_PROPERTY, DEFAULT }
+    public static abstract class Listener {
+        public void parseStarted() {}
+        public void problemFound(Diagnostic problem) {}
+        public void parseFinished(int tokens, long nanos, boolean failed) {}
+        public void lookedUp(String option, boolean found) {}
+    }
     public class Option{
         private String n,d;
-        private boolean u,r;
+        private boolean u,r,m;
+        private byte t;
+        private Enum<?>[] e;
+        private String ev,sp,dv;
+        private volatile Slot slot;
         private Option(String n) { this.n = n; }
-        public Option describedAs(String d) { this.d = d; return this; }
-        public Option isRequired() { this.r = true; return this; }
-        public Option isUnary() { this.u = true; return this; }
+        public Option describedAs(String d) {
+            this.d = d; schema = null; return this; }
+        public Option isRequired() {
+            this.r = true; schema = null; return this; }
+        public Option isUnary() {
+            this.u = true; schema = null; return this; }
+        public Option isRepeatable() {
+            this.m = true; schema = null; return this; }
+        public Option isInt() { return typed(Schema.INT, null); }
+        public Option isLong() { return typed(Schema.LONG, null); }
+        public Option isDouble() { return typed(Schema.DOUBLE, null); }
+        public Option isBoolean() { return typed(Schema.BOOLEAN, null); }
+        public Option isEnum(Class<? extends Enum<?>> type) {
+            return typed(Schema.ENUM, type.getEnumConstants()); }
+        public Option isByteSize() { return typed(Schema.BYTES, null); }
+        public Option isDuration() { return typed(Schema.DURATION, null); }
+        public Option fromEnv(String variable) {
+            this.ev = variable; schema = null; return this; }
+        public Option fromProperty(String key) {
+            this.sp = key; schema = null; return this; }
+        public Option defaultsTo(String value) {
+            this.dv = value; schema = null; return this; }
+        private Option typed(byte t, Enum<?>[] e) {
+            this.t = t; this.e = e; schema = null; return this; }
+        public boolean isPresent() { return isPresent(current()); }
+        public boolean isPresent(Result result) {
+            return result.found(n, indexIn(result.s)); }
+        public String value() { return value(current()); }
+        public String value(Result result) {
+            int x = indexIn(result.s);
+            if ((result.s.f[x] & Schema.UNARY) != 0) throw new OptionException(
+                    "Option takes no arguments: " + n);
+            return result.found(n, x) ? result.v[x] : null;
+        }
+        private int indexIn(Schema schema) {
+            Slot slot = this.slot;
+            return slot != null && slot.s == schema ? slot.x
+                    : schema.indexOf(n);
+        }
+    }
+    private static final class Slot {
+        private final Schema s;
+        private final int x;
+        private Slot(Schema s, int x) { this.s = s; this.x = x; }
+    }
+    public interface Configurer {
+        void configure(MicroOptions options);
+    }
+    public class Command {
+        private String n,d;
+        private Object c;
+        private Command(String n) { this.n = n; }
+        public Command describedAs(String d) {
+            this.d = d; schema = null; return this; }
+        public Command configuredBy(Configurer configurer) {
+            this.c = configurer; schema = null; return this; }
+        public Command configuredBy(String className) {
+            this.c = className; schema = null; return this; }
+    }
+    public static final class Schema {
+        private static final byte UNARY = 1, REQUIRED = 2, REPEATABLE = 4;
+        private static final int CHUNK = 256;
+        private static final int WINDOW = 1 << 26;
+        private static final String SPACES = "                ";
+        private static final NumberFormatException INVALID =
+                new NumberFormatException();
+        private static final String MAX_INT = "" + Integer.MAX_VALUE,
+                MAX_LONG = "" + Long.MAX_VALUE;
+        private static final byte STRING = 0, INT = 1, LONG = 2, DOUBLE = 3,
+                BOOLEAN = 4, ENUM = 5, BYTES = 6, DURATION = 7;
+        private static final String[] TYPES = { "string", "int", "long",
+                "double", "boolean", "enum", "byte size", "duration" };
+        private static final String[] BYTE_UNITS = { "", "b", "k", "kb", "m",
+                "mb", "g", "gb", "t", "tb", "p", "pb" };
+        private static final long[] BYTE_SCALES = { 1L, 1L, 1L << 10,
+                1L << 10, 1L << 20, 1L << 20, 1L << 30, 1L << 30, 1L << 40,
+                1L << 40, 1L << 50, 1L << 50 };
+        private static final String[] TIME_UNITS = { "", "ns", "us", "ms",
+                "s", "m", "h", "d" };
+        private static final long[] TIME_SCALES = { 1000000L, 1L, 1000L,
+                1000000L, 1000000000L, 60000000000L, 3600000000000L,
+                86400000000000L };
+        private final String[] n, d;
+        private final byte[] f;
+        private final Enum<?>[][] e;
+        private final boolean typed;
+        private final int[] req;
+        private final int[] lay;
+        private final String[][] src;
+        private final int[] h;
+        private final boolean abbrev;
+        private final boolean argFiles;
+        private final boolean pos;
+        private final Listener listener;
+        private final String[] cn, cd;
+        private final Object[] cc;
+        private final Schema[] cs;
+        private final int w;
+        private String usage;
+        private Grams grams;
+        private Schema(MicroOptions m) {
+            java.util.Collection<Option> options = m.opts.values();
+            int size = options.size(), x = 0, required = 0;
+            n = new String[size]; d = new String[size]; f = new byte[size];
+            e = new Enum<?>[size][];
+            src = new String[size][];
+            boolean typed = false;
+            int layered = 0;
+            for (Option o : options) {
+                if (o.u && o.t != STRING) throw new OptionException(
+                        "Unary option can't have a type: " + o.n);
+                n[x] = o.n; d[x] = o.d; e[x] = o.e;
+                f[x] = (byte) ((o.u ? UNARY : 0) | (o.r ? REQUIRED : 0)
+                        | (o.m ? REPEATABLE : 0) | o.t << 3);
+                typed |= o.t != STRING;
+                if (o.r) required++;
+                if (o.ev != null || o.sp != null || o.dv != null) {
+                    src[x] = new String[] { o.ev, o.sp, o.dv };
+                    layered++;
+                }
+                x++;
+            }
+            lay = new int[layered];
+            for (x = 0, layered = 0; x < size; x++)
+                if (src[x] != null) lay[layered++] = x;
+            this.typed = typed; abbrev = m.abbrev; argFiles = m.argFiles;
+            pos = m.positionals; listener = m.listener;
+            int commands = m.cmds.size();
+            cn = new String[commands]; cd = new String[commands];
+            cc = new Object[commands]; cs = new Schema[commands];
+            x = 0;
+            for (Command c : m.cmds.values()) {
+                cn[x] = c.n; cd[x] = c.d; cc[x++] = c.c; }
+            int max = 0;
+            for (String s : n) max = Math.max(s.length(), max);
+            for (String s : cn) max = Math.max(s.length(), max);
+            w = max;
+            req = new int[required];
+            for (x = 0, required = 0; x < size; x++)
+                if ((f[x] & REQUIRED) != 0) req[required++] = x;
+            h = new int[Integer.highestOneBit(size * 2 + 1) * 2];
+            for (x = 0; x < size; x++) {
+                int slot = n[x].hashCode() & (h.length - 1);
+                while (h[slot] != 0) slot = (slot + 1) & (h.length - 1);
+                h[slot] = x + 1;
+            }
+        }
+        public String usageString() {
+            if (usage == null) {
+                StringBuilder b = new StringBuilder(n.length * (w + 40));
+                try { appendUsage(b, 0); }
+                catch (java.io.IOException e) { throw new AssertionError(e); }
+                usage = b.toString();
+            }
+            return usage;
+        }
+        public void appendUsage(Appendable out, int width)
+                throws java.io.IOException {
+            int indent = w + 12;
+            for (int x = 0; x < n.length; x++) {
+                out.append(n[x].length() == 1 ? " -" : "--").append(n[x]);
+                pad(out, w - n[x].length());
+                out.append((f[x] & UNARY) != 0 ? "          " : " [ARG]    ");
+                String tail =
+                        (f[x] & REQUIRED) != 0 ? "(required)" : "(optional)";
+                if (width <= 0) {
+                    if (d[x] != null) out.append(d[x]).append(' ');
+                    out.append(tail);
+                } else {
+                    wrap(out, d[x] == null ? tail : d[x] + ' ' + tail,
+                            indent, width);
+                }
+                if (x + 1 < n.length + cn.length) out.append('\n');
+            }
+            for (int x = 0; x < cn.length; x++) {
+                out.append("  ").append(cn[x]);
+                pad(out, indent - 2 - cn[x].length());
+                if (width <= 0) {
+                    if (cd[x] != null) out.append(cd[x]).append(' ');
+                    out.append("(command)");
+                } else {
+                    wrap(out, cd[x] == null ? "(command)"
+                            : cd[x] + " (command)", indent, width);
+                }
+                if (x + 1 < cn.length) out.append('\n');
+            }
+        }
+        public Schema command(String name) {
+            int x = java.util.Arrays.binarySearch(cn, name);
+            if (x < 0) throw new UnsupportedCommandException(name);
+            return command(x);
+        }
+        public java.util.List<String> getOptions() {
+            return Diagnostic.list(n); }
+        public java.util.List<String> getCommands() {
+            return Diagnostic.list(cn); }
+        public String getConfigurerName(String command) {
+            int x = java.util.Arrays.binarySearch(cn, command);
+            if (x < 0) throw new UnsupportedCommandException(command);
+            return cc[x] == null || cc[x] instanceof String ? (String) cc[x]
+                    : cc[x].getClass().getName();
+        }
+        public boolean isUnary(String option) {
+            return (f[indexOf(option)] & UNARY) != 0; }
+        public String getDescription(String option) {
+            return d[indexOf(option)]; }
+        private Schema command(int x) {
+            Schema s = cs[x];
+            if (s != null) return s;
+            synchronized (cs) {
+                if ((s = cs[x]) != null) return s;
+                Configurer c;
+                try {
+                    c = cc[x] instanceof String ? (Configurer) Class.forName(
+                            (String) cc[x]).getConstructor().newInstance()
+                            : (Configurer) cc[x];
+                } catch (Exception e) {
+                    throw new OptionException("Unable to configure command '"
+                            + cn[x] + "': " + e);
+                }
+                MicroOptions m = new MicroOptions();
+                m.abbrev = abbrev; m.argFiles = argFiles; m.positionals = pos;
+                m.listener = listener;
+                if (c != null) c.configure(m);
+                return cs[x] = m.compile();
+            }
+        }
+        private static void wrap(Appendable out, String text, int indent,
+                int width) throws java.io.IOException {
+            int column = indent;
+            boolean lineStart = true;
+            for (int start = 0, end; start < text.length(); start = end + 1) {
+                end = text.indexOf(' ', start);
+                if (end < 0) end = text.length();
+                if (end == start) continue;
+                if (!lineStart && column + 1 + end - start > width) {
+                    out.append('\n');
+                    pad(out, indent);
+                    column = indent;
+                    lineStart = true;
+                }
+                if (!lineStart) { out.append(' '); column++; }
+                out.append(text, start, end);
+                column += end - start;
+                lineStart = false;
+            }
+        }
+        private static void pad(Appendable out, int count)
+                throws java.io.IOException {
+            for (; count > 0; count -= SPACES.length())
+                out.append(SPACES, 0, Math.min(count, SPACES.length()));
+        }
+        public Result parse(String... strings) {
+            return run(null, null, strings, 0); }
+        public Result parseFile(String path, String... strings) {
+            return run(null, path, strings, 0); }
+        public Result validate(String... strings) {
+            return run(new java.util.ArrayList<Diagnostic>(), null, strings,
+                    0); }
+        private Result run(java.util.List<Diagnostic> problems, String file,
+                String[] strings, int i) {
+            Parser parser = new Parser(problems);
+            if (listener == null) return parser.run(file, strings, i);
+            listener.parseStarted();
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Result r = parser.run(file, strings, i);
+                failed = false;
+                return r;
+            } finally {
+                listener.parseFinished(parser.tokens,
+                        System.nanoTime() - start, failed);
+            }
+        }
+        public Batch parseAll(Iterable<String[]> lines) {
+            return parseAll(lines, Runtime.getRuntime().availableProcessors());
+        }
+        public Batch parseAll(Iterable<String[]> lines, int threads) {
+            java.util.Collection<String[]> all;
+            if (lines instanceof java.util.Collection) {
+                all = (java.util.Collection<String[]>) lines;
+            } else {
+                all = new java.util.ArrayList<String[]>();
+                for (String[] line : lines) all.add(line);
+            }
+            String[][] in = all.toArray(new String[all.size()][]);
+            Result[] results = new Result[in.length];
+            OptionException[] errors = new OptionException[in.length];
+            java.util.concurrent.atomic.AtomicInteger next =
+                    new java.util.concurrent.atomic.AtomicInteger();
+            Worker[] workers = new Worker[Math.max(1,
+                    Math.min(threads, (in.length + CHUNK - 1) / CHUNK))];
+            Thread[] helpers = new Thread[workers.length - 1];
+            for (int x = 0; x < workers.length; x++)
+                workers[x] = new Worker(in, results, errors, next);
+            for (int x = 0; x < helpers.length; x++) {
+                helpers[x] = new Thread(workers[x + 1], "parseAll-" + x);
+                helpers[x].setDaemon(true);
+                helpers[x].start();
+            }
+            workers[0].run();
+            boolean interrupted = false;
+            for (Thread helper : helpers) {
+                while (true) {
+                    try { helper.join(); break; }
+                    catch (InterruptedException e) { interrupted = true; }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            for (Worker worker : workers) {
+                Throwable t = worker.failure;
+                if (t instanceof RuntimeException) throw (RuntimeException) t;
+                if (t instanceof Error) throw (Error) t;
+            }
+            return new Batch(results, errors);
+        }
+        private final class Parser {
+            private final int[] counts = new int[n.length];
+            private final String[] values = new String[n.length];
+            private String[][] lists;
+            private byte[] sources;
+            private final long[] converted = typed ? new long[n.length] : null;
+            private int pending = -1;
+            private int tokens;
+            private int cmd = -1;
+            private boolean stop;
+            private boolean rest;
+            private boolean inFile;
+            private String[] argv;
+            private int at;
+            private Positionals positionals;
+            private final java.util.List<Diagnostic> problems;
+            private Parser(java.util.List<Diagnostic> problems) {
+                this.problems = problems; }
+            private void fail(Diagnostic.Kind k, String o, String v, String t) {
+                Diagnostic d = new Diagnostic(k, o, v, t,
+                        k == Diagnostic.Kind.UNSUPPORTED_OPTION ? Schema.this
+                        : null);
+                if (listener != null) listener.problemFound(d);
+                if (problems == null) throw d.toException();
+                problems.add(d);
+            }
+            private void accept(String k) {
+                tokens++;
+                if (rest) { positional(k); return; }
+                if (pending >= 0) {
+                    int x = pending;
+                    pending = -1;
+                    argument(x, k);
+                    return;
+                }
+                if (argFiles && !inFile && k.length() > 1
+                        && k.charAt(0) == '@') {
+                    expand(k.substring(1));
+                    return;
+                }
+                if (pos && k.equals("--")) { rest = true; return; }
+                int from = nameStart(k);
+                int x = from < 0 ? -1
+                        : abbrev && from == 2 ? match(k, from) : find(k, from);
+                if (x < 0 && from < 0 && cn.length > 0 && !inFile
+                        && !k.startsWith("-")) {
+                    stop = true;
+                    cmd = java.util.Arrays.binarySearch(cn, k);
+                    if (cmd < 0) fail(Diagnostic.Kind.UNSUPPORTED_COMMAND, k,
+                            null, null);
+                    return;
+                }
+                if (x < 0 && from < 0 && pos) { positional(k); return; }
+                if (x < 0) {
+                    fail(Diagnostic.Kind.UNSUPPORTED_OPTION,
+                            from < 0 ? k : k.substring(from), null, null);
+                    return;
+                }
+                if ((f[x] & UNARY) == 0) pending = x; else counts[x]++;
+            }
+            private void positional(String k) {
+                if (positionals == null) positionals = new Positionals();
+                if (inFile) positionals.copy(k);
+                else positionals.add(argv, at, at + 1);
+            }
+            private void argument(int x, String k) {
+                if (f[x] >> 3 != STRING) {
+                    try { converted[x] = convert(x, k); }
+                    catch (NumberFormatException e) {
+                        fail(Diagnostic.Kind.CONVERSION, n[x], k,
+                                TYPES[f[x] >> 3]);
+                        return;
+                    }
+                }
+                if ((f[x] & REPEATABLE) != 0) append(x, k);
+                values[x] = k;
+                counts[x]++;
+            }
+            private void append(int x, String k) {
+                if (lists == null) lists = new String[n.length][];
+                String[] list = lists[x];
+                if (list == null) {
+                    list = lists[x] = new String[8];
+                } else if (counts[x] == list.length) {
+                    list = new String[list.length * 2];
+                    System.arraycopy(lists[x], 0, list, 0, counts[x]);
+                    lists[x] = list;
+                }
+                list[counts[x]] = k;
+            }
+            private Result run(String file, String[] strings, int i) {
+                argv = strings;
+                if (file != null) expand(file);
+                while (i < strings.length && !stop && !rest) {
+                    at = i; accept(strings[i++]); }
+                if (rest && i < strings.length) {
+                    if (positionals == null) positionals = new Positionals();
+                    positionals.add(strings, i, strings.length);
+                    tokens += strings.length - i;
+                }
+                return finish(strings, cmd >= 0 ? i : -1);
+            }
+            private Result finish(String[] strings, int i) {
+                if (pending >= 0) {
+                    fail(Diagnostic.Kind.MISSING_ARG, n[pending], null, null);
+                    pending = -1;
+                }
+                for (int x : lay) if (counts[x] == 0) resolve(x);
+                for (int x : req)
+                    if (counts[x] == 0) fail(Diagnostic.Kind.REQUIRED_OPTION,
+                            n[x], null, null);
+                Result sub = null;
+                if (i >= 0) {
+                    sub = command(cmd).run(problems == null ? null
+                            : new java.util.ArrayList<Diagnostic>(), null,
+                            strings, i);
+                    if (problems != null) problems.addAll(sub.getDiagnostics());
+                }
+                return new Result(Schema.this, counts, values, converted,
+                        lists, sources, positionals,
+                        problems == null || problems.isEmpty() ? null
+                        : problems.toArray(new Diagnostic[problems.size()]),
+                        sub == null ? null : cn[cmd], sub);
+            }
+            private void resolve(int x) {
+                String v = null;
+                int from = 0;
+                while (v == null && ++from <= 3) {
+                    String name = src[x][from - 1];
+                    if (name == null) continue;
+                    v = from == 1 ? System.getenv(name)
+                            : from == 2 ? System.getProperty(name) : name;
+                }
+                if (v == null) return;
+                if ((f[x] & UNARY) == 0) {
+                    argument(x, v);
+                } else try {
+                    counts[x] = bool(v) ? 1 : 0;
+                } catch (NumberFormatException e) {
+                    fail(Diagnostic.Kind.CONVERSION, n[x], v, TYPES[BOOLEAN]);
+                }
+                if (counts[x] == 0) return;
+                if (sources == null) sources = new byte[n.length];
+                sources[x] = (byte) from;
+            }
+            private void expand(String path) {
+                try {
+                    java.io.FileInputStream in =
+                            new java.io.FileInputStream(path);
+                    try {
+                        inFile = true;
+                        tokenize(in.getChannel());
+                    } finally {
+                        inFile = false;
+                        in.close();
+                    }
+                } catch (java.io.IOException e) {
+                    throw new OptionException("Unable to read argument file '"
+                            + path + "': " + e.getMessage());
+                }
+            }
+            private void tokenize(java.nio.channels.FileChannel channel)
+                    throws java.io.IOException {
+                byte[] token = new byte[64];
+                int len = 0;
+                byte quote = 0;
+                boolean inToken = false;
+                long size = channel.size();
+                for (long pos = 0; pos < size; pos += WINDOW) {
+                    java.nio.MappedByteBuffer window = channel.map(
+                            java.nio.channels.FileChannel.MapMode.READ_ONLY,
+                            pos, Math.min(WINDOW, size - pos));
+                    while (window.hasRemaining()) {
+                        byte b = window.get();
+                        if (quote == 0) {
+                            if (b == '"' || b == '\'') {
+                                quote = b;
+                                inToken = true;
+                                continue;
+                            }
+                            if (b == ' ' || b == '\t' || b == '\n'
+                                    || b == '\r' || b == '\f') {
+                                if (inToken) accept(decode(token, len));
+                                len = 0;
+                                inToken = false;
+                                continue;
+                            }
+                        } else if (b == quote) {
+                            quote = 0;
+                            continue;
+                        }
+                        if (len == token.length) {
+                            byte[] bigger = new byte[len * 2];
+                            System.arraycopy(token, 0, bigger, 0, len);
+                            token = bigger;
+                        }
+                        token[len++] = b;
+                        inToken = true;
+                    }
+                }
+                if (quote != 0)
+                    throw new java.io.IOException("unterminated quote");
+                if (inToken) accept(decode(token, len));
+            }
+            private String decode(byte[] bytes, int len)
+                    throws java.io.UnsupportedEncodingException {
+                return new String(bytes, 0, len, "UTF-8");
+            }
+        }
+        private final class Worker implements Runnable {
+            private final String[][] in;
+            private final Result[] results;
+            private final OptionException[] errors;
+            private final java.util.concurrent.atomic.AtomicInteger next;
+            private Throwable failure;
+            private Worker(String[][] in, Result[] results,
+                    OptionException[] errors,
+                    java.util.concurrent.atomic.AtomicInteger next) {
+                this.in = in; this.results = results; this.errors = errors;
+                this.next = next;
+            }
+            public void run() {
+                try {
+                    int start;
+                    while ((start = next.getAndAdd(CHUNK)) < in.length) {
+                        int end = Math.min(start + CHUNK, in.length);
+                        for (int i = start; i < end; i++) {
+                            try { results[i] = parse(in[i]); }
+                            catch (OptionException e) { errors[i] = e; }
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                    next.set(in.length);
+                }
+            }
+        }
+        private long convert(int x, String v) {
+            switch (f[x] >> 3) {
+            case INT:
+                return Integer.parseInt(integer(v, v.length(), MAX_INT));
+            case LONG:
+                return Long.parseLong(integer(v, v.length(), MAX_LONG));
+            case DOUBLE:
+                double d = Double.parseDouble(decimal(v));
+                if (Double.isInfinite(d)) break;
+                return Double.doubleToRawLongBits(d);
+            case BOOLEAN: return bool(v) ? 1 : 0;
+            case ENUM:
+                for (Enum<?> c : e[x]) if (c.name().equals(v))
+                    return c.ordinal();
+                for (Enum<?> c : e[x]) if (c.name().equalsIgnoreCase(v))
+                    return c.ordinal();
+                break;
+            case BYTES: return scaled(v, BYTE_UNITS, BYTE_SCALES);
+            case DURATION: return scaled(v, TIME_UNITS, TIME_SCALES);
+            }
+            throw INVALID;
+        }
+        private static boolean bool(String v) {
+            if (v.equalsIgnoreCase("true") || v.equalsIgnoreCase("yes")
+                    || v.equalsIgnoreCase("on") || v.equals("1"))
+                return true;
+            if (v.equalsIgnoreCase("false") || v.equalsIgnoreCase("no")
+                    || v.equalsIgnoreCase("off") || v.equals("0"))
+                return false;
+            throw INVALID;
+        }
+        private static String integer(String v, int end, String max) {
+            boolean negative = end > 0 && v.charAt(0) == '-';
+            int x = negative || end > 0 && v.charAt(0) == '+' ? 1 : 0;
+            if (x == end) throw INVALID;
+            for (int y = x; y < end; y++)
+                if (!isDigit(v.charAt(y))) throw INVALID;
+            while (x < end - 1 && v.charAt(x) == '0') x++;
+            int len = end - x;
+            if (len > max.length()) throw INVALID;
+            if (len == max.length()) for (int y = 0; y < len; y++) {
+                int c = v.charAt(x + y) - max.charAt(y);
+                if (negative && y == len - 1) c--;
+                if (c < 0) break;
+                if (c > 0) throw INVALID;
+            }
+            return end == v.length() ? v : v.substring(0, end);
+        }
+        private static String decimal(String v) {
+            int end = v.length(), x = 0, digits = 0;
+            if (x < end && (v.charAt(x) == '-' || v.charAt(x) == '+')) x++;
+            for (; x < end && isDigit(v.charAt(x)); x++) digits++;
+            if (x < end && v.charAt(x) == '.')
+                for (x++; x < end && isDigit(v.charAt(x)); x++) digits++;
+            if (digits == 0) throw INVALID;
+            if (x < end && (v.charAt(x) == 'e' || v.charAt(x) == 'E')) {
+                x++;
+                if (x < end && (v.charAt(x) == '-' || v.charAt(x) == '+')) x++;
+                int from = x;
+                while (x < end && isDigit(v.charAt(x))) x++;
+                if (x == from) throw INVALID;
+            }
+            if (x != end) throw INVALID;
+            return v;
+        }
+        private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+        private static long scaled(String v, String[] units, long[] scales) {
+            int end = v.length();
+            while (end > 0 && Character.isLetter(v.charAt(end - 1))) end--;
+            for (int x = 0; x < units.length; x++) {
+                if (!units[x].equalsIgnoreCase(v.substring(end))) continue;
+                long value = Long.parseLong(integer(v, end, MAX_LONG));
+                if (value < 0 || value > Long.MAX_VALUE / scales[x]) break;
+                return value * scales[x];
+            }
+            throw INVALID;
+        }
+        private int find(String k, int from) {
+            int len = k.length() - from, hash = 0;
+            for (int x = from; x < k.length(); x++)
+                hash = 31 * hash + k.charAt(x);
+            for (int slot = hash & (h.length - 1); h[slot] != 0;
+                    slot = (slot + 1) & (h.length - 1)) {
+                String s = n[h[slot] - 1];
+                if (s.length() == len && s.regionMatches(0, k, from, len))
+                    return h[slot] - 1;
+            }
+            return -1;
+        }
+        private int match(String k, int from) {
+            int len = k.length() - from, lo = 0, hi = n.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(n[mid], k, from) < 0) lo = mid + 1; else hi = mid;
+            }
+            if (lo == n.length || !n[lo].regionMatches(0, k, from, len))
+                return -1;
+            if (n[lo].length() == len || lo + 1 == n.length
+                    || !n[lo + 1].regionMatches(0, k, from, len))
+                return lo;
+            return -1;
+        }
+        private static int compare(String name, String k, int from) {
+            int len = Math.min(name.length(), k.length() - from);
+            for (int x = 0; x < len; x++) {
+                int c = name.charAt(x) - k.charAt(from + x);
+                if (c != 0) return c;
+            }
+            return name.length() - (k.length() - from);
+        }
+        private int indexOf(String option) {
+            checkName(option);
+            int x = find(option, 0);
+            if (x < 0) throw new UnsupportedOptionException(option, null,
+                    this);
+            return x;
+        }
+        private java.util.List<String> suggest(String k) {
+            int from = 0;
+            while (from < k.length() && k.charAt(from) == '-') from++;
+            int x = find(k, from);
+            if (x >= 0) return Diagnostic.list(new String[] {
+                    (n[x].length() == 1 ? "-" : "--") + n[x] });
+            int t = Math.min(2, (k.length() - 1) / 2);
+            if (t <= 0 || n.length == 0) return Diagnostic.list(null);
+            Grams index = grams;
+            if (index == null) grams = index = new Grams(n);
+            return Diagnostic.list(index.nearest(k, t));
+        }
+        private int argIndexOf(String option) {
+            int x = indexOf(option);
+            if ((f[x] & UNARY) != 0)
+                throw new OptionException(
+                        "Option takes no arguments: " + option);
+            return x;
+        }
+        private int typedIndexOf(String option, byte type) {
+            int x = argIndexOf(option);
+            if (f[x] >> 3 != type) throw new OptionException(
+                    "Option is not of type " + TYPES[type] + ": " + option);
+            return x;
+        }
+        private Result empty() {
+            return new Result(this, new int[n.length], null, null, null,
+                    null, null, null, null, null);
+        }
+    }
+    private static final class Grams {
+        private static final int MAX = 3;
+        private final String[] n;
+        private final int[] keys;
+        private final int[] from;
+        private final int[] ids;
+        private Grams(String[] n) {
+            this.n = n;
+            int total = 0;
+            for (String name : n) total += name.length() + 1;
+            long[] pairs = new long[total];
+            int p = 0;
+            for (int x = 0; x < n.length; x++)
+                for (int i = 0; i <= n[x].length(); i++)
+                    pairs[p++] = (long) gram(n[x], i) << 32 | x;
+            java.util.Arrays.sort(pairs);
+            int[] keys = new int[p], from = new int[p + 1], ids = new int[p];
+            int k = -1, count = 0;
+            for (int i = 0; i < p; i++) {
+                if (i > 0 && pairs[i] == pairs[i - 1]) continue;
+                int key = (int) (pairs[i] >> 32);
+                if (k < 0 || keys[k] != key) {
+                    keys[++k] = key;
+                    from[k] = count;
+                }
+                ids[count++] = (int) pairs[i];
+            }
+            from[++k] = count;
+            this.keys = trim(keys, k);
+            this.from = trim(from, k + 1);
+            this.ids = trim(ids, count);
+        }
+        private static int[] trim(int[] a, int length) {
+            int[] b = new int[length];
+            System.arraycopy(a, 0, b, 0, length);
+            return b;
+        }
+        private static int gram(String s, int i) {
+            return (i == 0 ? 0 : s.charAt(i - 1)) << 16
+                    | (i == s.length() ? 0 : s.charAt(i));
+        }
+        private String[] nearest(String k, int t) {
+            int len = k.length(), distinct = 0;
+            int[] grams = new int[len + 1];
+            for (int i = 0; i <= len; i++) grams[i] = gram(k, i);
+            java.util.Arrays.sort(grams);
+            int[] shared = new int[n.length];
+            int[] candidates = new int[n.length];
+            int count = 0;
+            for (int i = 0; i <= len; i++) {
+                if (i > 0 && grams[i] == grams[i - 1]) continue;
+                distinct++;
+                int g = java.util.Arrays.binarySearch(keys, grams[i]);
+                if (g < 0) continue;
+                for (int j = from[g]; j < from[g + 1]; j++)
+                    if (shared[ids[j]]++ == 0) candidates[count++] = ids[j];
+            }
+            int need = Math.max(1, distinct - 2 * t), best = t, found = 0;
+            int[] nearest = new int[MAX];
+            int[] row = new int[len + 1], prev = new int[len + 1];
+            java.util.Arrays.sort(candidates, 0, count);
+            for (int i = 0; i < count; i++) {
+                int x = candidates[i];
+                if (shared[x] < need
+                        || Math.abs(n[x].length() - len) > best) continue;
+                int d = distance(k, n[x], row, prev);
+                if (d < best) { best = d; found = 0; }
+                if (d == best && found < MAX) nearest[found++] = x;
+            }
+            if (found == 0) return null;
+            String[] names = new String[found];
+            for (int x = 0; x < found; x++) names[x] = n[nearest[x]];
+            return names;
+        }
+        private static int distance(String a, String b, int[] row,
+                int[] prev) {
+            int len = a.length();
+            for (int x = 0; x <= len; x++) row[x] = x;
+            for (int y = 1; y <= b.length(); y++) {
+                int[] swap = prev; prev = row; row = swap;
+                row[0] = y;
+                char c = b.charAt(y - 1);
+                for (int x = 1; x <= len; x++) {
+                    row[x] = Math.min(Math.min(row[x - 1], prev[x]) + 1,
+                            prev[x - 1] + (a.charAt(x - 1) == c ? 0 : 1));
+                }
+            }
+            return row[len];
+        }
+    }
+    public static final class Result {
+        private final Schema s;
+        private final int[] c;
+        private final String[] v;
+        private final long[] l;
+        private final String[][] m;
+        private final byte[] o;
+        private final Positionals p;
+        private final Diagnostic[] e;
+        private final String cmd;
+        private final Result sub;
+        private static final Source[] SOURCES = Source.values();
+        private Result(Schema s, int[] c, String[] v, long[] l, String[][] m,
+                byte[] o, Positionals p, Diagnostic[] e, String cmd,
+                Result sub) {
+            this.s = s; this.c = c; this.v = v; this.l = l; this.m = m;
+            this.o = o; this.p = p; this.e = e; this.cmd = cmd;
+            this.sub = sub;
+        }
+        public String getCommand() { return cmd; }
+        public Result getCommandResult() { return sub; }
+        public java.util.List<String> getPositionals() {
+            if (p == null) return java.util.Collections.emptyList();
+            return p;
+        }
+        public Source getSource(String option) {
+            int x = s.indexOf(option);
+            return c[x] == 0 ? null : SOURCES[o == null ? 0 : o[x]];
+        }
+        public java.util.List<Diagnostic> getDiagnostics() {
+            if (e == null) return java.util.Collections.emptyList();
+            return java.util.Collections.unmodifiableList(
+                    java.util.Arrays.asList(e));
+        }
+        public boolean has(String option) {
+            return found(option, s.indexOf(option)); }
+        public int getCount(String option) {
+            int x = s.indexOf(option);
+            return found(option, x) ? c[x] : 0;
+        }
+        public java.util.List<String> getArgs(String option) {
+            int x = s.argIndexOf(option);
+            if (!found(option, x)) return java.util.Collections.emptyList();
+            if ((s.f[x] & Schema.REPEATABLE) == 0)
+                return java.util.Collections.singletonList(v[x]);
+            return new Values(m[x], c[x]);
+        }
+        public String getArg(String option) { return getArg(option, null); }
+        public String getArg(String option, String defaultValue) {
+            int x = s.argIndexOf(option);
+            return found(option, x) ? v[x] : defaultValue;
+        }
+        public int getInt(String option, int defaultValue) {
+            int x = s.typedIndexOf(option, Schema.INT);
+            return found(option, x) ? (int) l[x] : defaultValue;
+        }
+        public long getLong(String option, long defaultValue) {
+            int x = s.typedIndexOf(option, Schema.LONG);
+            return found(option, x) ? l[x] : defaultValue;
+        }
+        public double getDouble(String option, double defaultValue) {
+            int x = s.typedIndexOf(option, Schema.DOUBLE);
+            return found(option, x) ? Double.longBitsToDouble(l[x])
+                    : defaultValue;
+        }
+        public boolean getBoolean(String option, boolean defaultValue) {
+            int x = s.typedIndexOf(option, Schema.BOOLEAN);
+            return found(option, x) ? l[x] != 0 : defaultValue;
+        }
+        @SuppressWarnings("unchecked")
+        public <E extends Enum<E>> E getEnum(String option, E defaultValue) {
+            int x = s.typedIndexOf(option, Schema.ENUM);
+            return found(option, x) ? (E) s.e[x][(int) l[x]] : defaultValue;
+        }
+        public long getByteSize(String option, long defaultValue) {
+            int x = s.typedIndexOf(option, Schema.BYTES);
+            return found(option, x) ? l[x] : defaultValue;
+        }
+        public long getDuration(String option,
+                java.util.concurrent.TimeUnit unit, long defaultValue) {
+            int x = s.typedIndexOf(option, Schema.DURATION);
+            return found(option, x) ? unit.convert(l[x],
+                    java.util.concurrent.TimeUnit.NANOSECONDS) : defaultValue;
+        }
+        private boolean found(String option, int x) {
+            if (s.listener != null) s.listener.lookedUp(option, c[x] > 0);
+            return c[x] > 0;
+        }
+    }
+    private static final class Values extends java.util.AbstractList<String>
+            implements java.util.RandomAccess {
+        private final String[] a;
+        private final int size;
+        private Values(String[] a, int size) { this.a = a; this.size = size; }
+        public int size() { return size; }
+        public String get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            return a[index];
+        }
+    }
+    private static final class Positionals
+            extends java.util.AbstractList<String>
+            implements java.util.RandomAccess {
+        private String[][] a = new String[2][];
+        private int[] from = new int[2];
+        private int[] at = new int[2];
+        private int runs, size;
+        private String[] own;
+        private int owned;
+        private void add(String[] array, int start, int end) {
+            int r = runs - 1;
+            if (r >= 0 && a[r] == array && from[r] + size - at[r] == start) {
+                size += end - start;
+                return;
+            }
+            if (runs == a.length) {
+                String[][] a2 = new String[runs * 2][];
+                int[] from2 = new int[runs * 2], at2 = new int[runs * 2];
+                System.arraycopy(a, 0, a2, 0, runs);
+                System.arraycopy(from, 0, from2, 0, runs);
+                System.arraycopy(at, 0, at2, 0, runs);
+                a = a2; from = from2; at = at2;
+            }
+            a[runs] = array; from[runs] = start; at[runs++] = size;
+            size += end - start;
+        }
+        private void copy(String k) {
+            if (own == null || owned == own.length) {
+                String[] bigger = new String[own == null ? 8 : owned * 2];
+                if (own != null) System.arraycopy(own, 0, bigger, 0, owned);
+                own = bigger;
+            }
+            own[owned] = k;
+            add(own, owned, ++owned);
+        }
+        public int size() { return size; }
+        public String get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            int low = 0, high = runs - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (at[mid] <= index) low = mid; else high = mid - 1;
+            }
+            return a[low][from[low] + index - at[low]];
+        }
+    }
+    public static final class Batch {
+        private final Result[] r;
+        private final OptionException[] e;
+        private final int errors;
+        private Batch(Result[] r, OptionException[] e) {
+            int count = 0;
+            for (OptionException x : e) if (x != null) count++;
+            this.r = r; this.e = e; this.errors = count;
+        }
+        public int size() { return r.length; }
+        public int errorCount() { return errors; }
+        public Result result(int line) { return r[line]; }
+        public OptionException error(int line) { return e[line]; }
     }
     private final java.util.Map<String,Option> opts =
             new java.util.TreeMap<String,Option>();
-    private final java.util.Map<String,String> args =
-            new java.util.HashMap<String, String>();
+    private Schema schema;
+    private final java.util.Map<String,Command> cmds =
+            new java.util.TreeMap<String,Command>();
+    private boolean abbrev;
+    private boolean argFiles;
+    private boolean positionals;
+    private Listener listener;
+    private Result result;
     public MicroOptions() { super(); }
-    public String usageString() {
-        int max = 0;
-        for (String s : opts.keySet()) max = Math.max(s.length(), max);
-        StringBuilder b = new StringBuilder();
-        java.util.Iterator<Option> i = opts.values().iterator();
-        while (i.hasNext()) {
-            Option o = i.next();
-            b.append(o.n.length() == 1 ? " -" : "--");
-            b.append(String.format("%1$-" + max + "s", o.n));
-            b.append(o.u ? "          " : " [ARG]    ");
-            b.append(o.d == null ? "" : o.d + " ");
-            b.append(o.r ? "(required)" : "(optional)");
-            if (i.hasNext()) b.append('\n');
-        }
-        return b.toString();
-    }
-    public void parse(String... strings) {
-        for (int i = 0; i < strings.length; i++) {
-            String k = strings[i]; String value = null;
-            if (k.matches("-[[^\\s]&&[^-]]")) { k = k.substring(1); }
-            else if (k.matches("--[\\S]{2,}")) { k = k.substring(2); }
-            else throw new UnsupportedOptionException(k);
-            if (!opts.containsKey(k)) throw new UnsupportedOptionException(k);
-            Option o = opts.get(k);
-            if (!o.u) {
-                if (i + 1 >= strings.length) throw new MissingArgException(k);
-                value = strings[++i];
-            }
-            args.put(k, value);
-        }
-        for (Option o : opts.values())
-            if (o.r && !args.containsKey(o.n))
-                throw new RequiredOptionException(o.n);
+    public String usageString() { return compile().usageString(); }
+    public String usageString(String command) {
+        return compile().command(command).usageString(); }
+    public void appendUsage(Appendable out) throws java.io.IOException {
+        compile().appendUsage(out, 0); }
+    public void appendUsage(Appendable out, int width)
+            throws java.io.IOException {
+        compile().appendUsage(out, width); }
+    public Schema compile() {
+        Schema s = schema;
+        if (s != null) return s;
+        s = new Schema(this);
+        int x = 0;
+        for (Option o : opts.values()) o.slot = new Slot(s, x++);
+        return schema = s;
+    }
+    public MicroOptions allowAbbreviations() {
+        abbrev = true; schema = null; return this; }
+    public MicroOptions allowArgFiles() {
+        argFiles = true; schema = null; return this; }
+    public MicroOptions allowPositionals() {
+        positionals = true; schema = null; return this; }
+    public MicroOptions withListener(Listener listener) {
+        this.listener = listener; schema = null; return this; }
+    public void parse(String... strings) { result = compile().parse(strings); }
+    private static int nameStart(String k) {
+        int len = k.length();
+        if (len < 2 || k.charAt(0) != '-') return -1;
+        if (len == 2) { char c = k.charAt(1);
+            return c == '-' || isSpace(c) ? -1 : 1; }
+        if (len == 3) return isPair(k, 1) ? 1 : -1;
+        if (k.charAt(1) != '-' || len == 4 && isPair(k, 2)) return -1;
+        for (int x = 2; x < len; x++) if (isSpace(k.charAt(x))) return -1;
+        return 2;
+    }
+    private static boolean isPair(String k, int x) {
+        return Character.isHighSurrogate(k.charAt(x))
+                && Character.isLowSurrogate(k.charAt(x + 1));
+    }
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\013'
+                || c == '\f' || c == '\r';
     }
     public Option option(String name) {
         checkName(name);
-        Option o = new Option(name); opts.put(name, o); return o; }
-    private void checkName(String name) {
+        Option o = new Option(name); opts.put(name, o); schema = null;
+        return o; }
+    public Command command(String name) {
+        checkName(name);
+        if (name.charAt(0) == '@')
+            throw new UnsupportedOptionException("illegal name: " + name);
+        Command c = new Command(name); cmds.put(name, c); schema = null;
+        return c; }
+    public String getCommand() { return current().getCommand(); }
+    public Result getCommandResult() { return current().getCommandResult(); }
+    public java.util.List<String> getPositionals() {
+        return current().getPositionals(); }
+    private static void checkName(String name) {
         if (name == null || name.length() == 0 || name.charAt(0) == '-')
             throw new UnsupportedOptionException("illegal name: " + name);
     }
-    public boolean has(String option) {
-        checkName(option);
-        if (!opts.containsKey(option))
-            throw new UnsupportedOptionException(option);
-        return args.containsKey(option);
-    }
+    public boolean has(String option) { return current().has(option); }
     public String getArg(String option) { return getArg(option, null); }
     public String getArg(String option, String defaultValue) {
-        checkName(option);
-        if (!opts.containsKey(option))
-            throw new UnsupportedOptionException(option);
-        if (opts.get(option).u)
-            throw new OptionException("Option takes no arguments: " + option);
-        return args.containsKey(option) ? args.get(option) : defaultValue;
+        return current().getArg(option, defaultValue);
+    }
+    public int getCount(String option) { return current().getCount(option); }
+    public Source getSource(String option) {
+        return current().getSource(option);
+    }
+    public java.util.List<String> getArgs(String option) {
+        return current().getArgs(option);
+    }
+    public int getInt(String option, int defaultValue) {
+        return current().getInt(option, defaultValue);
+    }
+    public long getLong(String option, long defaultValue) {
+        return current().getLong(option, defaultValue);
+    }
+    public double getDouble(String option, double defaultValue) {
+        return current().getDouble(option, defaultValue);
+    }
+    public boolean getBoolean(String option, boolean defaultValue) {
+        return current().getBoolean(option, defaultValue);
+    }
+    public <E extends Enum<E>> E getEnum(String option, E defaultValue) {
+        return current().getEnum(option, defaultValue);
+    }
+    public long getByteSize(String option, long defaultValue) {
+        return current().getByteSize(option, defaultValue);
+    }
+    public long getDuration(String option,
+            java.util.concurrent.TimeUnit unit, long defaultValue) {
+        return current().getDuration(option, unit, defaultValue);
     }
+    private Result current() {
+        return result != null ? result : compile().empty(); }
 }
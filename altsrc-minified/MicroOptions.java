@@ -11,44 +11,399 @@
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 // See the License for the specific language governing permissions and
 // limitations under the License.
-public class MicroOptions { public static class OptionException extends
-RuntimeException { public OptionException(String message) { super(message); } }
-public static class UnsupportedOptionException extends OptionException { public
-UnsupportedOptionException(String o) { super("Unsupported option '" + o + "'");
-} } public static class MissingArgException extends OptionException { public
-MissingArgException(String o) { super("Missing argument for option '" + o +
-"'"); } } public static class RequiredOptionException extends OptionException {
-public RequiredOptionException(String o) { super("Missing required option '" + o
-+ "'"); } } public class Option{ private String n,d; private boolean u,r;
-private Option(String n) { this.n = n; } public Option describedAs(String d) {
-this.d = d; return this; } public Option isRequired() { this.r = true; return
-this; } public Option isUnary() { this.u = true; return this; } } private final
-java.util.Map<String,Option> opts = new java.util.TreeMap<String,Option>();
-private final java.util.Map<String,String> args = new java.util.HashMap<String,
-String>(); public MicroOptions() { super(); } public String usageString() { int
-max = 0; for (String s : opts.keySet()) max = Math.max(s.length(), max);
-StringBuilder b = new StringBuilder(); java.util.Iterator<Option> i =
-opts.values().iterator(); while (i.hasNext()) { Option o = i.next();
-b.append(o.n.length() == 1 ? " -" : "--"); b.append(String.format("%1$-" + max +
-"s", o.n)); b.append(o.u ? "          " : " [ARG]    "); b.append(o.d == null ?
-"" : o.d + " "); b.append(o.r ? "(required)" : "(optional)"); if (i.hasNext())
-b.append('\n'); } return b.toString(); } public void parse(String... strings) {
-for (int i = 0; i < strings.length; i++) { String k = strings[i]; String value =
-null; if (k.matches("-[[^\\s]&&[^-]]")) { k = k.substring(1); } else if
-(k.matches("--[\\S]{2,}")) { k = k.substring(2); } else throw new
-UnsupportedOptionException(k); if (!opts.containsKey(k)) throw new
-UnsupportedOptionException(k); Option o = opts.get(k); if (!o.u) { if (i + 1 >=
-strings.length) throw new MissingArgException(k); value = strings[++i]; }
-args.put(k, value); } for (Option o : opts.values()) if (o.r &&
-!args.containsKey(o.n)) throw new RequiredOptionException(o.n); } public Option
-option(String name) { checkName(name); Option o = new Option(name);
-opts.put(name, o); return o; } private void checkName(String name) { if (name ==
-null || name.length() == 0 || name.charAt(0) == '-') throw new
-UnsupportedOptionException("illegal name: " + name); } public boolean has(String
-option) { checkName(option); if (!opts.containsKey(option)) throw new
-UnsupportedOptionException(option); return args.containsKey(option); } public
-String getArg(String option) { return getArg(option, null); } public String
-getArg(String option, String defaultValue) { checkName(option); if
-(!opts.containsKey(option)) throw new UnsupportedOptionException(option); if
-(opts.get(option).u) throw new OptionException("Option takes no arguments: " +
-option); return args.containsKey(option) ? args.get(option) : defaultValue; } }
+public class MicroOptions{public static class OptionException extends
+RuntimeException{public OptionException(String a){super(a);}}public static class
+UnsupportedOptionException extends OptionException{private final String jb;
+private final transient Schema ra;private java.util.List<String>sa;public
+UnsupportedOptionException(String a){this(a,
+java.util.Collections.<String>emptyList());}public
+UnsupportedOptionException(String a,java.util.List<String>b){this(a,b,null);}
+private UnsupportedOptionException(String a,java.util.List<String>b,Schema c){
+super(Diagnostic.describe(Diagnostic.Kind.UNSUPPORTED_OPTION,a,null,null));
+this.jb=a;this.sa=b;this.ra=c;}public java.util.List<String>getSuggestions(){
+java.util.List<String>a=sa;if(a==null)sa=a=ra==null?
+java.util.Collections.<String>emptyList():ra.suggest(jb);return a;}}public
+static class UnsupportedCommandException extends OptionException{public
+UnsupportedCommandException(String a){
+super(Diagnostic.describe(Diagnostic.Kind.UNSUPPORTED_COMMAND,a,null,null));}}
+public static class MissingArgException extends OptionException{public
+MissingArgException(String a){
+super(Diagnostic.describe(Diagnostic.Kind.MISSING_ARG,a,null,null));}}public
+static class RequiredOptionException extends OptionException{public
+RequiredOptionException(String a){
+super(Diagnostic.describe(Diagnostic.Kind.REQUIRED_OPTION,a,null,null));}}public
+static class ConversionException extends OptionException{public
+ConversionException(String a,String b,String c){
+super(Diagnostic.describe(Diagnostic.Kind.CONVERSION,a,b,c));}}public static
+final class Diagnostic{public enum Kind{UNSUPPORTED_OPTION,MISSING_ARG,
+REQUIRED_OPTION,CONVERSION,UNSUPPORTED_COMMAND}private final Kind ga;private
+final String I,ta,ua;private final Schema ha;private java.util.List<String>va;
+private Diagnostic(Kind a,String b,String c,String d,Schema e){this.ga=a;this.I=
+b;this.ta=c;this.ua=d;this.ha=e;}public Kind getKind(){return ga;}public String
+getOption(){return I;}public java.util.List<String>getSuggestions(){
+java.util.List<String>a=va;if(a==null)va=a=ha==null?
+java.util.Collections.<String>emptyList():ha.suggest(I);return a;}public String
+getMessage(){return describe(ga,I,ta,ua);}public OptionException toException(){
+switch(ga){case UNSUPPORTED_OPTION:return new UnsupportedOptionException(I,va,
+ha);case MISSING_ARG:return new MissingArgException(I);case REQUIRED_OPTION:
+return new RequiredOptionException(I);case UNSUPPORTED_COMMAND:return new
+UnsupportedCommandException(I);default:return new ConversionException(I,ta,ua);}
+}public String toString(){return getMessage();}private static
+java.util.List<String>list(String[]a){if(a==null)return
+java.util.Collections.emptyList();return java.util.Collections.unmodifiableList(
+java.util.Arrays.asList(a));}private static String describe(Kind b,String a,
+String c,String d){switch(b){case UNSUPPORTED_OPTION:return
+"Unsupported option '"+a+"'";case MISSING_ARG:return
+"Missing argument for option '"+a+"'";case REQUIRED_OPTION:return
+"Missing required option '"+a+"'";case UNSUPPORTED_COMMAND:return
+"Unsupported command '"+a+"'";default:return"Invalid "+d+" '"+c+"' for option '"
++a+"'";}}}public enum Source{COMMAND_LINE,ENVIRONMENT,SYSTEM_PROPERTY,DEFAULT}
+public static abstract class Listener{public void parseStarted(){}public void
+problemFound(Diagnostic a){}public void parseFinished(int a,long b,boolean c){}
+public void lookedUp(String a,boolean b){}}public class Option{private String
+O,kb;private boolean wa,xa,lb;private byte ia;private Enum<?>[]mb;private String
+ya,za,Aa;private volatile Slot nb;private Option(String a){this.O=a;}public
+Option describedAs(String a){this.kb=a;z=null;return this;}public Option
+isRequired(){this.xa=true;z=null;return this;}public Option isUnary(){this.wa=
+true;z=null;return this;}public Option isRepeatable(){this.lb=true;z=null;return
+this;}public Option isInt(){return typed(Schema.Ba,null);}public Option isLong()
+{return typed(Schema.Ca,null);}public Option isDouble(){return typed(Schema.Da,
+null);}public Option isBoolean(){return typed(Schema.ja,null);}public Option
+isEnum(Class<?extends Enum<?>>a){return typed(Schema.Ea,a.getEnumConstants());}
+public Option isByteSize(){return typed(Schema.Fa,null);}public Option
+isDuration(){return typed(Schema.Ga,null);}public Option fromEnv(String a){
+this.ya=a;z=null;return this;}public Option fromProperty(String a){this.za=a;z=
+null;return this;}public Option defaultsTo(String a){this.Aa=a;z=null;return
+this;}private Option typed(byte a,Enum<?>[]b){this.ia=a;this.mb=b;z=null;return
+this;}public boolean isPresent(){return isPresent(current());}public boolean
+isPresent(Result a){return a.found(O,indexIn(a.y));}public String value(){return
+value(current());}public String value(Result a){int b=indexIn(a.y);if((a.y.A[b]&
+Schema.P)!=0)throw new OptionException("Option takes no arguments: "+O);return
+a.found(O,b)?a.ka[b]:null;}private int indexIn(Schema b){Slot a=this.nb;return a
+!=null&&a.ob==b?a.pb:b.indexOf(O);}}private static final class Slot{private
+final Schema ob;private final int pb;private Slot(Schema a,int b){this.ob=a;
+this.pb=b;}}public interface Configurer{void configure(MicroOptions a);}public
+class Command{private String qb,rb;private Object Ha;private Command(String a){
+this.qb=a;}public Command describedAs(String a){this.rb=a;z=null;return this;}
+public Command configuredBy(Configurer a){this.Ha=a;z=null;return this;}public
+Command configuredBy(String a){this.Ha=a;z=null;return this;}}public static
+final class Schema{private static final byte P=1,Ia=2,Ja=4;private static final
+int la=256;private static final int sb=1<<26;private static final String Ka=
+"                ";private static final NumberFormatException D=new
+NumberFormatException();private static final String Lb=""+Integer.MAX_VALUE,tb=
+""+Long.MAX_VALUE;private static final byte La=0,Ba=1,Ca=2,Da=3,ja=4,Ea=5,Fa=6,
+Ga=7;private static final String[]Ma={"string","int","long","double","boolean",
+"enum","byte size","duration"};private static final String[]Mb={"","b","k","kb",
+"m","mb","g","gb","t","tb","p","pb"};private static final long[]Nb={1L,1L,1L<<
+10,1L<<10,1L<<20,1L<<20,1L<<30,1L<<30,1L<<40,1L<<40,1L<<50,1L<<50};private
+static final String[]Ob={"","ns","us","ms","s","m","h","d"};private static final
+long[]Pb={1000000L,1L,1000L,1000000L,1000000000L,60000000000L,3600000000000L,
+86400000000000L};private final String[]x,Q;private final byte[]A;private final
+Enum<?>[][]aa;private final boolean ub;private final int[]Na;private final int[]
+Oa;private final String[][]ma;private final int[]F;private final boolean Pa;
+private final boolean Qa;private final boolean na;private final Listener J;
+private final String[]B,T;private final Object[]K;private final Schema[]ba;
+private final int oa;private String Ra;private Grams vb;private
+Schema(MicroOptions d){java.util.Collection<Option>k=d.Sa.values();int c=
+k.size(),a=0,f=0;x=new String[c];Q=new String[c];A=new byte[c];aa=new
+Enum<?>[c][];ma=new String[c][];boolean l=false;int g=0;for(Option b:k){if(b.wa
+&&b.ia!=La)throw new OptionException("Unary option can't have a type: "+b.O);
+x[a]=b.O;Q[a]=b.kb;aa[a]=b.mb;A[a]=(byte)((b.wa?P:0)|(b.xa?Ia:0)|(b.lb?Ja:0)|
+b.ia<<3);l|=b.ia!=La;if(b.xa)f++;if(b.ya!=null||b.za!=null||b.Aa!=null){ma[a]=
+new String[]{b.ya,b.za,b.Aa};g++;}a++;}Oa=new int[g];for(a=0,g=0;a<c;a++)if
+(ma[a]!=null)Oa[g++]=a;this.ub=l;Pa=d.Ta;Qa=d.Ua;na=d.Va;J=d.Wa;int h=
+d.Xa.size();B=new String[h];T=new String[h];K=new Object[h];ba=new Schema[h];a=
+0;for(Command j:d.Xa.values()){B[a]=j.qb;T[a]=j.rb;K[a++]=j.Ha;}int e=0;for
+(String m:x)e=Math.max(m.length(),e);for(String n:B)e=Math.max(n.length(),e);oa=
+e;Na=new int[f];for(a=0,f=0;a<c;a++)if((A[a]&Ia)!=0)Na[f++]=a;F=new
+int[Integer.highestOneBit(c*2+1)*2];for(a=0;a<c;a++){int i=x[a].hashCode()&
+(F.length-1);while(F[i]!=0)i=(i+1)&(F.length-1);F[i]=a+1;}}public String
+usageString(){if(Ra==null){StringBuilder a=new StringBuilder(x.length*(oa+40));
+try{appendUsage(a,0);}catch(java.io.IOException b){throw new AssertionError(b);}
+Ra=a.toString();}return Ra;}public void appendUsage(Appendable a,int d)throws
+java.io.IOException{int e=oa+12;for(int b=0;b<x.length;b++){
+a.append(x[b].length()==1?" -":"--").append(x[b]);pad(a,oa-x[b].length());
+a.append((A[b]&P)!=0?"          ":" [ARG]    ");String f=(A[b]&Ia)!=0?
+"(required)":"(optional)";if(d<=0){if(Q[b]!=null)a.append(Q[b]).append(' ');
+a.append(f);}else{wrap(a,Q[b]==null?f:Q[b]+' '+f,e,d);}if(b+1<x.length+B.length)
+a.append('\n');}for(int c=0;c<B.length;c++){a.append("  ").append(B[c]);pad(a,e-
+2-B[c].length());if(d<=0){if(T[c]!=null)a.append(T[c]).append(' ');
+a.append("(command)");}else{wrap(a,T[c]==null?"(command)":T[c]+" (command)",e,
+d);}if(c+1<B.length)a.append('\n');}}public Schema command(String a){int b=
+java.util.Arrays.binarySearch(B,a);if(b<0)throw new
+UnsupportedCommandException(a);return command(b);}public java.util.List<String>
+getOptions(){return Diagnostic.list(x);}public java.util.List<String>
+getCommands(){return Diagnostic.list(B);}public String getConfigurerName(String
+b){int a=java.util.Arrays.binarySearch(B,b);if(a<0)throw new
+UnsupportedCommandException(b);return K[a]==null||K[a]instanceof String?(String)
+K[a]:K[a].getClass().getName();}public boolean isUnary(String a){return
+(A[indexOf(a)]&P)!=0;}public String getDescription(String a){return
+Q[indexOf(a)];}private Schema command(int a){Schema c=ba[a];if(c!=null)return c;
+synchronized(ba){if((c=ba[a])!=null)return c;Configurer d;try{d=K[a]instanceof
+String?(Configurer)Class.forName((String)K[a]).getConstructor().newInstance():
+(Configurer)K[a];}catch(Exception e){throw new
+OptionException("Unable to configure command '"+B[a]+"': "+e);}MicroOptions b=
+new MicroOptions();b.Ta=Pa;b.Ua=Qa;b.Va=na;b.Wa=J;if(d!=null)d.configure(b);
+return ba[a]=b.compile();}}private static void wrap(Appendable c,String d,int g,
+int h)throws java.io.IOException{int e=g;boolean f=true;for(int b=0,a;b<
+d.length();b=a+1){a=d.indexOf(' ',b);if(a<0)a=d.length();if(a==b)continue;if(!f
+&&e+1+a-b>h){c.append('\n');pad(c,g);e=g;f=true;}if(!f){c.append(' ');e++;}
+c.append(d,b,a);e+=a-b;f=false;}}private static void pad(Appendable b,int a)
+throws java.io.IOException{for(;a>0;a-=Ka.length())b.append(Ka,0,Math.min(a,
+Ka.length()));}public Result parse(String...a){return run(null,null,a,0);}public
+Result parseFile(String a,String...b){return run(null,a,b,0);}public Result
+validate(String...a){return run(new java.util.ArrayList<Diagnostic>(),null,a,0);
+}private Result run(java.util.List<Diagnostic>f,String b,String[]c,int d){Parser
+a=new Parser(f);if(J==null)return a.run(b,c,d);J.parseStarted();long g=
+System.nanoTime();boolean e=true;try{Result h=a.run(b,c,d);e=false;return h;}
+finally{J.parseFinished(a.Ya,System.nanoTime()-g,e);}}public Batch
+parseAll(Iterable<String[]>a){return parseAll(a,
+Runtime.getRuntime().availableProcessors());}public Batch
+parseAll(Iterable<String[]>g,int l){java.util.Collection<String[]>c;if(g
+instanceof java.util.Collection){c=(java.util.Collection<String[]>)g;}else{c=new
+java.util.ArrayList<String[]>();for(String[]m:g)c.add(m);}String[][]e=
+c.toArray(new String[c.size()][]);Result[]i=new Result[e.length];
+OptionException[]j=new OptionException[e.length];
+java.util.concurrent.atomic.AtomicInteger n=new
+java.util.concurrent.atomic.AtomicInteger();Worker[]b=new Worker[Math.max(1,
+Math.min(l,(e.length+la-1)/la))];Thread[]d=new Thread[b.length-1];for(int h=0;h<
+b.length;h++)b[h]=new Worker(e,i,j,n);for(int a=0;a<d.length;a++){d[a]=new
+Thread(b[a+1],"parseAll-"+a);d[a].setDaemon(true);d[a].start();}b[0].run();
+boolean k=false;for(Thread o:d){while(true){try{o.join();break;}catch
+(InterruptedException q){k=true;}}}if(k)Thread.currentThread().interrupt();for
+(Worker p:b){Throwable f=p.wb;if(f instanceof RuntimeException)throw
+(RuntimeException)f;if(f instanceof Error)throw(Error)f;}return new Batch(i,j);}
+private final class Parser{private final int[]G=new int[x.length];private final
+String[]xb=new String[x.length];private String[][]R;private byte[]pa;private
+final long[]yb=ub?new long[x.length]:null;private int S=-1;private int Ya;
+private int ca=-1;private boolean zb;private boolean qa;private boolean da;
+private String[]Ab;private int Za;private Positionals L;private final
+java.util.List<Diagnostic>H;private Parser(java.util.List<Diagnostic>a){this.H=
+a;}private void fail(Diagnostic.Kind b,String c,String d,String e){Diagnostic a=
+new Diagnostic(b,c,d,e,b==Diagnostic.Kind.UNSUPPORTED_OPTION?Schema.this:null);
+if(J!=null)J.problemFound(a);if(H==null)throw a.toException();H.add(a);}private
+void accept(String a){Ya++;if(qa){positional(a);return;}if(S>=0){int d=S;S=-1;
+argument(d,a);return;}if(Qa&&!da&&a.length()>1&&a.charAt(0)=='@'){
+expand(a.substring(1));return;}if(na&&a.equals("--")){qa=true;return;}int b=
+nameStart(a);int c=b<0?-1:Pa&&b==2?match(a,b):find(a,b);if(c<0&&b<0&&B.length>0
+&&!da&&!a.startsWith("-")){zb=true;ca=java.util.Arrays.binarySearch(B,a);if(ca<
+0)fail(Diagnostic.Kind.UNSUPPORTED_COMMAND,a,null,null);return;}if(c<0&&b<0&&na)
+{positional(a);return;}if(c<0){fail(Diagnostic.Kind.UNSUPPORTED_OPTION,b<0?a:
+a.substring(b),null,null);return;}if((A[c]&P)==0)S=c;else G[c]++;}private void
+positional(String a){if(L==null)L=new Positionals();if(da)L.copy(a);else
+L.add(Ab,Za,Za+1);}private void argument(int a,String b){if(A[a]>>3!=La){try{
+yb[a]=convert(a,b);}catch(NumberFormatException c){
+fail(Diagnostic.Kind.CONVERSION,x[a],b,Ma[A[a]>>3]);return;}}if((A[a]&Ja)!=0)
+append(a,b);xb[a]=b;G[a]++;}private void append(int b,String c){if(R==null)R=new
+String[x.length][];String[]a=R[b];if(a==null){a=R[b]=new String[8];}else if(G[b]
+==a.length){a=new String[a.length*2];System.arraycopy(R[b],0,a,0,G[b]);R[b]=a;}
+a[G[b]]=c;}private Result run(String c,String[]a,int b){Ab=a;if(c!=null)
+expand(c);while(b<a.length&&!zb&&!qa){Za=b;accept(a[b++]);}if(qa&&b<a.length){if
+(L==null)L=new Positionals();L.add(a,b,a.length);Ya+=a.length-b;}return
+finish(a,ca>=0?b:-1);}private Result finish(String[]e,int b){if(S>=0){
+fail(Diagnostic.Kind.MISSING_ARG,x[S],null,null);S=-1;}for(int c:Oa)if(G[c]==0)
+resolve(c);for(int d:Na)if(G[d]==0)fail(Diagnostic.Kind.REQUIRED_OPTION,x[d],
+null,null);Result a=null;if(b>=0){a=command(ca).run(H==null?null:new
+java.util.ArrayList<Diagnostic>(),null,e,b);if(H!=null)
+H.addAll(a.getDiagnostics());}return new Result(Schema.this,G,xb,yb,R,pa,L,H==
+null||H.isEmpty()?null:H.toArray(new Diagnostic[H.size()]),a==null?null:B[ca],
+a);}private void resolve(int a){String b=null;int c=0;while(b==null&&++c<=3){
+String d=ma[a][c-1];if(d==null)continue;b=c==1?System.getenv(d):c==2?
+System.getProperty(d):d;}if(b==null)return;if((A[a]&P)==0){argument(a,b);}else
+try{G[a]=bool(b)?1:0;}catch(NumberFormatException e){
+fail(Diagnostic.Kind.CONVERSION,x[a],b,Ma[ja]);}if(G[a]==0)return;if(pa==null)pa
+=new byte[x.length];pa[a]=(byte)c;}private void expand(String a){try{
+java.io.FileInputStream b=new java.io.FileInputStream(a);try{da=true;
+tokenize(b.getChannel());}finally{da=false;b.close();}}catch(java.io.IOException
+c){throw new OptionException("Unable to read argument file '"+a+"': "+
+c.getMessage());}}private void tokenize(java.nio.channels.FileChannel g)throws
+java.io.IOException{byte[]c=new byte[64];int b=0;byte d=0;boolean e=false;long h
+=g.size();for(long f=0;f<h;f+=sb){java.nio.MappedByteBuffer i=g.map(
+java.nio.channels.FileChannel.MapMode.READ_ONLY,f,Math.min(sb,h-f));while
+(i.hasRemaining()){byte a=i.get();if(d==0){if(a=='"'||a=='\''){d=a;e=true;
+continue;}if(a==' '||a=='\t'||a=='\n'||a=='\r'||a=='\f'){if(e)accept(decode(c,
+b));b=0;e=false;continue;}}else if(a==d){d=0;continue;}if(b==c.length){byte[]j=
+new byte[b*2];System.arraycopy(c,0,j,0,b);c=j;}c[b++]=a;e=true;}}if(d!=0)throw
+new java.io.IOException("unterminated quote");if(e)accept(decode(c,b));}private
+String decode(byte[]a,int b)throws java.io.UnsupportedEncodingException{return
+new String(a,0,b,"UTF-8");}}private final class Worker implements Runnable{
+private final String[][]ea;private final Result[]Bb;private final
+OptionException[]Cb;private final java.util.concurrent.atomic.AtomicInteger ab;
+private Throwable wb;private Worker(String[][]a,Result[]b,OptionException[]c,
+java.util.concurrent.atomic.AtomicInteger d){this.ea=a;this.Bb=b;this.Cb=c;
+this.ab=d;}public void run(){try{int b;while((b=ab.getAndAdd(la))<ea.length){int
+c=Math.min(b+la,ea.length);for(int a=b;a<c;a++){try{Bb[a]=parse(ea[a]);}catch
+(OptionException d){Cb[a]=d;}}}}catch(Throwable e){wb=e;ab.set(ea.length);}}}
+private long convert(int b,String a){switch(A[b]>>3){case Ba:return
+Integer.parseInt(integer(a,a.length(),Lb));case Ca:return
+Long.parseLong(integer(a,a.length(),tb));case Da:double c=
+Double.parseDouble(decimal(a));if(Double.isInfinite(c))break;return
+Double.doubleToRawLongBits(c);case ja:return bool(a)?1:0;case Ea:for(Enum<?>d:
+aa[b])if(d.name().equals(a))return d.ordinal();for(Enum<?>e:aa[b])if
+(e.name().equalsIgnoreCase(a))return e.ordinal();break;case Fa:return scaled(a,
+Mb,Nb);case Ga:return scaled(a,Ob,Pb);}throw D;}private static boolean
+bool(String a){if(a.equalsIgnoreCase("true")||a.equalsIgnoreCase("yes")||
+a.equalsIgnoreCase("on")||a.equals("1"))return true;if
+(a.equalsIgnoreCase("false")||a.equalsIgnoreCase("no")||
+a.equalsIgnoreCase("off")||a.equals("0"))return false;throw D;}private static
+String integer(String a,int b,String f){boolean i=b>0&&a.charAt(0)=='-';int c=i
+||b>0&&a.charAt(0)=='+'?1:0;if(c==b)throw D;for(int g=c;g<b;g++)if
+(!isDigit(a.charAt(g)))throw D;while(c<b-1&&a.charAt(c)=='0')c++;int e=b-c;if(e>
+f.length())throw D;if(e==f.length())for(int d=0;d<e;d++){int h=a.charAt(c+d)-
+f.charAt(d);if(i&&d==e-1)h--;if(h<0)break;if(h>0)throw D;}return b==a.length()?a
+:a.substring(0,b);}private static String decimal(String b){int c=b.length(),a=0,
+d=0;if(a<c&&(b.charAt(a)=='-'||b.charAt(a)=='+'))a++;for(;a<c&&
+isDigit(b.charAt(a));a++)d++;if(a<c&&b.charAt(a)=='.')for(a++;a<c&&
+isDigit(b.charAt(a));a++)d++;if(d==0)throw D;if(a<c&&(b.charAt(a)=='e'||
+b.charAt(a)=='E')){a++;if(a<c&&(b.charAt(a)=='-'||b.charAt(a)=='+'))a++;int e=a;
+while(a<c&&isDigit(b.charAt(a)))a++;if(a==e)throw D;}if(a!=c)throw D;return b;}
+private static boolean isDigit(char a){return a>='0'&&a<='9';}private static
+long scaled(String c,String[]e,long[]f){int a=c.length();while(a>0&&
+Character.isLetter(c.charAt(a-1)))a--;for(int b=0;b<e.length;b++){if
+(!e[b].equalsIgnoreCase(c.substring(a)))continue;long d=
+Long.parseLong(integer(c,a,tb));if(d<0||d>Long.MAX_VALUE/f[b])break;return d*
+f[b];}throw D;}private int find(String b,int c){int f=b.length()-c,d=0;for(int e
+=c;e<b.length();e++)d=31*d+b.charAt(e);for(int a=d&(F.length-1);F[a]!=0;a=(a+1)&
+(F.length-1)){String g=x[F[a]-1];if(g.length()==f&&g.regionMatches(0,b,c,f))
+return F[a]-1;}return-1;}private int match(String b,int c){int d=b.length()-c,a=
+0,e=x.length;while(a<e){int f=(a+e)>>>1;if(compare(x[f],b,c)<0)a=f+1;else e=f;}
+if(a==x.length||!x[a].regionMatches(0,b,c,d))return-1;if(x[a].length()==d||a+1==
+x.length||!x[a+1].regionMatches(0,b,c,d))return a;return-1;}private static int
+compare(String b,String c,int d){int f=Math.min(b.length(),c.length()-d);for(int
+a=0;a<f;a++){int e=b.charAt(a)-c.charAt(d+a);if(e!=0)return e;}return b.length()
+-(c.length()-d);}private int indexOf(String a){checkName(a);int b=find(a,0);if(b
+<0)throw new UnsupportedOptionException(a,null,this);return b;}private
+java.util.List<String>suggest(String a){int b=0;while(b<a.length()&&a.charAt(b)
+=='-')b++;int c=find(a,b);if(c>=0)return Diagnostic.list(new String[]{
+(x[c].length()==1?"-":"--")+x[c]});int e=Math.min(2,(a.length()-1)/2);if(e<=0||
+x.length==0)return Diagnostic.list(null);Grams d=vb;if(d==null)vb=d=new
+Grams(x);return Diagnostic.list(d.nearest(a,e));}private int argIndexOf(String
+a){int b=indexOf(a);if((A[b]&P)!=0)throw new OptionException(
+"Option takes no arguments: "+a);return b;}private int typedIndexOf(String a,
+byte b){int c=argIndexOf(a);if(A[c]>>3!=b)throw new OptionException(
+"Option is not of type "+Ma[b]+": "+a);return c;}private Result empty(){return
+new Result(this,new int[x.length],null,null,null,null,null,null,null,null);}}
+private static final class Grams{private static final int Db=3;private final
+String[]U;private final int[]Eb;private final int[]bb;private final int[]cb;
+private Grams(String[]d){this.U=d;int k=0;for(String n:d)k+=n.length()+1;long[]c
+=new long[k];int e=0;for(int f=0;f<d.length;f++)for(int h=0;h<=d[f].length();
+h++)c[e++]=(long)gram(d[f],h)<<32|f;java.util.Arrays.sort(c);int[]i=new int[e],j
+=new int[e+1],l=new int[e];int a=-1,g=0;for(int b=0;b<e;b++){if(b>0&&c[b]==c[b-
+1])continue;int m=(int)(c[b]>>32);if(a<0||i[a]!=m){i[++a]=m;j[a]=g;}l[g++]=(int)
+c[b];}j[++a]=g;this.Eb=trim(i,a);this.bb=trim(j,a+1);this.cb=trim(l,g);}private
+static int[]trim(int[]c,int a){int[]b=new int[a];System.arraycopy(c,0,b,0,a);
+return b;}private static int gram(String b,int a){return(a==0?0:b.charAt(a-1))<<
+16|(a==b.length()?0:b.charAt(a));}private String[]nearest(String j,int p){int a=
+j.length(),q=0;int[]d=new int[a+1];for(int e=0;e<=a;e++)d[e]=gram(j,e);
+java.util.Arrays.sort(d);int[]r=new int[U.length];int[]k=new int[U.length];int l
+=0;for(int b=0;b<=a;b++){if(b>0&&d[b]==d[b-1])continue;q++;int m=
+java.util.Arrays.binarySearch(Eb,d[b]);if(m<0)continue;for(int f=bb[m];f<bb[m+
+1];f++)if(r[cb[f]]++==0)k[l++]=cb[f];}int u=Math.max(1,q-2*p),g=p,c=0;int[]s=new
+int[Db];int[]v=new int[a+1],w=new int[a+1];java.util.Arrays.sort(k,0,l);for(int
+n=0;n<l;n++){int h=k[n];if(r[h]<u||Math.abs(U[h].length()-a)>g)continue;int o=
+distance(j,U[h],v,w);if(o<g){g=o;c=0;}if(o==g&&c<Db)s[c++]=h;}if(c==0)return
+null;String[]t=new String[c];for(int i=0;i<c;i++)t[i]=U[s[i]];return t;}private
+static int distance(String g,String h,int[]a,int[]c){int f=g.length();for(int d=
+0;d<=f;d++)a[d]=d;for(int e=1;e<=h.length();e++){int[]i=c;c=a;a=i;a[0]=e;char j=
+h.charAt(e-1);for(int b=1;b<=f;b++){a[b]=Math.min(Math.min(a[b-1],c[b])+1,c[b-1]
++(g.charAt(b-1)==j?0:1));}}return a[f];}}public static final class Result{
+private final Schema y;private final int[]V;private final String[]ka;private
+final long[]M;private final String[][]Fb;private final byte[]db;private final
+Positionals eb;private final Diagnostic[]fb;private final String Gb;private
+final Result Hb;private static final Source[]Qb=Source.values();private
+Result(Schema a,int[]b,String[]c,long[]d,String[][]e,byte[]f,Positionals g,
+Diagnostic[]h,String i,Result j){this.y=a;this.V=b;this.ka=c;this.M=d;this.Fb=e;
+this.db=f;this.eb=g;this.fb=h;this.Gb=i;this.Hb=j;}public String getCommand(){
+return Gb;}public Result getCommandResult(){return Hb;}public
+java.util.List<String>getPositionals(){if(eb==null)return
+java.util.Collections.emptyList();return eb;}public Source getSource(String b){
+int a=y.indexOf(b);return V[a]==0?null:Qb[db==null?0:db[a]];}public
+java.util.List<Diagnostic>getDiagnostics(){if(fb==null)return
+java.util.Collections.emptyList();return java.util.Collections.unmodifiableList(
+java.util.Arrays.asList(fb));}public boolean has(String a){return found(a,
+y.indexOf(a));}public int getCount(String a){int b=y.indexOf(a);return found(a,
+b)?V[b]:0;}public java.util.List<String>getArgs(String b){int a=y.argIndexOf(b);
+if(!found(b,a))return java.util.Collections.emptyList();if((y.A[a]&Schema.Ja)==
+0)return java.util.Collections.singletonList(ka[a]);return new Values(Fb[a],
+V[a]);}public String getArg(String a){return getArg(a,null);}public String
+getArg(String a,String c){int b=y.argIndexOf(a);return found(a,b)?ka[b]:c;}
+public int getInt(String a,int c){int b=y.typedIndexOf(a,Schema.Ba);return
+found(a,b)?(int)M[b]:c;}public long getLong(String a,long c){int b=
+y.typedIndexOf(a,Schema.Ca);return found(a,b)?M[b]:c;}public double
+getDouble(String a,double c){int b=y.typedIndexOf(a,Schema.Da);return found(a,b)
+?Double.longBitsToDouble(M[b]):c;}public boolean getBoolean(String a,boolean c){
+int b=y.typedIndexOf(a,Schema.ja);return found(a,b)?M[b]!=0:c;}
+@SuppressWarnings("unchecked")public<E extends Enum<E>>E getEnum(String b,E c){
+int a=y.typedIndexOf(b,Schema.Ea);return found(b,a)?(E)y.aa[a][(int)M[a]]:c;}
+public long getByteSize(String a,long c){int b=y.typedIndexOf(a,Schema.Fa);
+return found(a,b)?M[b]:c;}public long getDuration(String a,
+java.util.concurrent.TimeUnit c,long d){int b=y.typedIndexOf(a,Schema.Ga);return
+found(a,b)?c.convert(M[b],java.util.concurrent.TimeUnit.NANOSECONDS):d;}private
+boolean found(String b,int a){if(y.J!=null)y.J.lookedUp(b,V[a]>0);return V[a]>0;
+}}private static final class Values extends java.util.AbstractList<String>
+implements java.util.RandomAccess{private final String[]Ib;private final int gb;
+private Values(String[]a,int b){this.Ib=a;this.gb=b;}public int size(){return
+gb;}public String get(int a){if(a<0||a>=gb)throw new
+IndexOutOfBoundsException(Integer.toString(a));return Ib[a];}}private static
+final class Positionals extends java.util.AbstractList<String>implements
+java.util.RandomAccess{private String[][]W=new String[2][];private int[]fa=new
+int[2];private int[]X=new int[2];private int C,Y;private String[]N;private int
+Z;private void add(String[]c,int a,int d){int b=C-1;if(b>=0&&W[b]==c&&fa[b]+Y-
+X[b]==a){Y+=d-a;return;}if(C==W.length){String[][]e=new String[C*2][];int[]f=new
+int[C*2],g=new int[C*2];System.arraycopy(W,0,e,0,C);System.arraycopy(fa,0,f,0,
+C);System.arraycopy(X,0,g,0,C);W=e;fa=f;X=g;}W[C]=c;fa[C]=a;X[C++]=Y;Y+=d-a;}
+private void copy(String b){if(N==null||Z==N.length){String[]a=new String[N==
+null?8:Z*2];if(N!=null)System.arraycopy(N,0,a,0,Z);N=a;}N[Z]=b;add(N,Z,++Z);}
+public int size(){return Y;}public String get(int b){if(b<0||b>=Y)throw new
+IndexOutOfBoundsException(Integer.toString(b));int a=0,c=C-1;while(a<c){int d=(a
++c+1)>>>1;if(X[d]<=b)a=d;else c=d-1;}return W[a][fa[a]+b-X[a]];}}public static
+final class Batch{private final Result[]hb;private final OptionException[]Jb;
+private final int Kb;private Batch(Result[]c,OptionException[]a){int b=0;for
+(OptionException d:a)if(d!=null)b++;this.hb=c;this.Jb=a;this.Kb=b;}public int
+size(){return hb.length;}public int errorCount(){return Kb;}public Result
+result(int a){return hb[a];}public OptionException error(int a){return Jb[a];}}
+private final java.util.Map<String,Option>Sa=new
+java.util.TreeMap<String,Option>();private Schema z;private final
+java.util.Map<String,Command>Xa=new java.util.TreeMap<String,Command>();private
+boolean Ta;private boolean Ua;private boolean Va;private Listener Wa;private
+Result ib;public MicroOptions(){super();}public String usageString(){return
+compile().usageString();}public String usageString(String a){return
+compile().command(a).usageString();}public void appendUsage(Appendable a)throws
+java.io.IOException{compile().appendUsage(a,0);}public void
+appendUsage(Appendable a,int b)throws java.io.IOException{
+compile().appendUsage(a,b);}public Schema compile(){Schema a=z;if(a!=null)return
+a;a=new Schema(this);int b=0;for(Option c:Sa.values())c.nb=new Slot(a,b++);
+return z=a;}public MicroOptions allowAbbreviations(){Ta=true;z=null;return this;
+}public MicroOptions allowArgFiles(){Ua=true;z=null;return this;}public
+MicroOptions allowPositionals(){Va=true;z=null;return this;}public MicroOptions
+withListener(Listener a){this.Wa=a;z=null;return this;}public void
+parse(String...a){ib=compile().parse(a);}private static int nameStart(String a){
+int b=a.length();if(b<2||a.charAt(0)!='-')return-1;if(b==2){char d=a.charAt(1);
+return d=='-'||isSpace(d)?-1:1;}if(b==3)return isPair(a,1)?1:-1;if(a.charAt(1)!=
+'-'||b==4&&isPair(a,2))return-1;for(int c=2;c<b;c++)if(isSpace(a.charAt(c)))
+return-1;return 2;}private static boolean isPair(String a,int b){return
+Character.isHighSurrogate(a.charAt(b))&&Character.isLowSurrogate(a.charAt(b+1));
+}private static boolean isSpace(char a){return a==' '||a=='\t'||a=='\n'||a==
+'\013'||a=='\f'||a=='\r';}public Option option(String a){checkName(a);Option b=
+new Option(a);Sa.put(a,b);z=null;return b;}public Command command(String a){
+checkName(a);if(a.charAt(0)=='@')throw new
+UnsupportedOptionException("illegal name: "+a);Command b=new Command(a);
+Xa.put(a,b);z=null;return b;}public String getCommand(){return
+current().getCommand();}public Result getCommandResult(){return
+current().getCommandResult();}public java.util.List<String>getPositionals(){
+return current().getPositionals();}private static void checkName(String a){if(a
+==null||a.length()==0||a.charAt(0)=='-')throw new
+UnsupportedOptionException("illegal name: "+a);}public boolean has(String a){
+return current().has(a);}public String getArg(String a){return getArg(a,null);}
+public String getArg(String a,String b){return current().getArg(a,b);}public int
+getCount(String a){return current().getCount(a);}public Source getSource(String
+a){return current().getSource(a);}public java.util.List<String>getArgs(String a)
+{return current().getArgs(a);}public int getInt(String a,int b){return
+current().getInt(a,b);}public long getLong(String a,long b){return
+current().getLong(a,b);}public double getDouble(String a,double b){return
+current().getDouble(a,b);}public boolean getBoolean(String a,boolean b){return
+current().getBoolean(a,b);}public<E extends Enum<E>>E getEnum(String a,E b){
+return current().getEnum(a,b);}public long getByteSize(String a,long b){return
+current().getByteSize(a,b);}public long getDuration(String a,
+java.util.concurrent.TimeUnit b,long c){return current().getDuration(a,b,c);}
+private Result current(){return ib!=null?ib:compile().empty();}}
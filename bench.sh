@@ -0,0 +1,52 @@
+#!/bin/bash
+# Copyright 2014 Google Inc. All rights reserved.
+# 
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Builds and runs the JMH benchmarks in bench/. Any arguments are passed
+# straight to JMH, e.g. "./bench.sh ParseBenchmark -p tokens=1000 -f 1".
+# Results are written as JSON to bench/results/ for comparison between
+# releases. JMH won't run benchmarks in the default package, so the sources
+# under test are staged into package uopt4j.bench first.
+set -e
+
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+LIB=bench/lib
+OUT=/tmp/uopt4j-bench
+
+echo "Fetching JMH $JMH_VERSION"
+mkdir -p $LIB
+for jar in \
+    org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar \
+    org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar \
+    net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar \
+    org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar; do
+  [ -f $LIB/$(basename $jar) ] || curl -sSfo $LIB/$(basename $jar) $MAVEN/$jar
+done
+CLASSPATH=$(echo $LIB/*.jar | tr ' ' ':')
+
+echo "Building benchmarks"
+rm -rf $OUT
+mkdir -p $OUT/src
+for f in src/MicroOptions.java example/JavaMinifyTool.java; do
+  (echo "package uopt4j.bench;"; cat $f) > $OUT/src/$(basename $f)
+done
+javac -d $OUT -cp $CLASSPATH $OUT/src/*.java bench/*.java
+
+echo "Running benchmarks"
+mkdir -p bench/results
+RESULTS=bench/results/jmh-$(git describe --always --dirty 2>/dev/null || date +%Y%m%d%H%M%S).json
+java -cp $OUT:$CLASSPATH org.openjdk.jmh.Main -rf json -rff $RESULTS "$@"
+
+echo "Results written to $RESULTS"
@@ -0,0 +1,66 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package uopt4j.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link MicroOptions#has(String)} and
+ * {@link MicroOptions#getArg(String, String)} on an already-parsed instance,
+ * for options that were and were not present on the command line, and the
+ * same reads through {@link MicroOptions.Option} handles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AccessorBenchmark {
+    MicroOptions options;
+    MicroOptions.Option v, verbose, include;
+
+    @Setup public void setup() {
+        options = new MicroOptions();
+        v = options.option("v").describedAs("be verbose").isUnary();
+        verbose = options.option("verbose").describedAs("be very verbose")
+                .isUnary();
+        include = options.option("include").describedAs("include path");
+        options.option("level").describedAs("optimization level");
+        options.parse("-v", "--include", "some/include/path");
+    }
+
+    @Benchmark public boolean hasPresent() { return options.has("v"); }
+
+    @Benchmark public boolean hasAbsent() { return options.has("verbose"); }
+
+    @Benchmark public String getArgPresent() {
+        return options.getArg("include");
+    }
+
+    @Benchmark public String getArgFallback() {
+        return options.getArg("level", "2");
+    }
+
+    @Benchmark public boolean handlePresent() { return v.isPresent(); }
+
+    @Benchmark public boolean handleAbsent() { return verbose.isPresent(); }
+
+    @Benchmark public String handleValue() { return include.value(); }
+}
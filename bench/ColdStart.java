@@ -0,0 +1,258 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package uopt4j.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Measures the cold start of a short-lived tool built against each variant
+ * of MicroOptions: src/, altsrc-compact/, altsrc-minified/ and the release
+ * JAR. For each variant, example/ExampleTool is compiled against it and
+ * launched in a fresh JVM many times, with its classes in a directory, in
+ * JARs, and in JARs with an AppCDS archive (JDK 13 or later). Reports the
+ * median and minimum wall-clock time from launch to exit, the number of
+ * classes loaded, and the size of the MicroOptions bytecode. Must be run
+ * from the project root; see coldstart.sh.
+ */
+public class ColdStart {
+    static final String[][] VARIANTS = {
+            {"src", "src/MicroOptions.java"},
+            {"compact", "altsrc-compact/MicroOptions.java"},
+            {"minified", "altsrc-minified/MicroOptions.java"},
+            {"release", "release/uopt4j.jar"} };
+    static final String[] PACKAGINGS = {"classes", "jar", "jar+cds"};
+    static final String[] TOOL_ARGS = {
+            "-v", "--infile", "in.txt", "--outfile", "out.txt"};
+
+    final File work;
+    final int runs;
+    final String java = System.getProperty("java.home") + File.separator
+            + "bin" + File.separator + "java";
+
+    ColdStart(File work, int runs) {
+        this.work = work;
+        this.runs = runs;
+    }
+
+    public static void main(String... args) throws Exception {
+        MicroOptions options = new MicroOptions();
+        options.option("runs").describedAs("launches per configuration")
+                .isInt().defaultsTo("20");
+        options.option("work").describedAs("scratch directory")
+                .defaultsTo(System.getProperty("java.io.tmpdir")
+                        + File.separator + "uopt4j-coldstart");
+        options.option("out").describedAs("also write results as JSON here");
+        try {
+            options.parse(args);
+        } catch (MicroOptions.OptionException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage:");
+            System.err.println(options.usageString());
+            System.exit(-1);
+        }
+        ColdStart harness = new ColdStart(
+                new File(options.getArg("work")), options.getInt("runs", 0));
+        List<String> rows = new ArrayList<String>();
+        System.out.printf("%-9s %-8s %10s %10s %8s %8s %9s%n", "variant",
+                "package", "median ms", "min ms", "classes", "uopt4j",
+                "bytecode");
+        for (String[] variant : VARIANTS) {
+            harness.build(variant[0], variant[1]);
+            for (String packaging : PACKAGINGS)
+                rows.add(harness.measure(variant[0], packaging));
+        }
+        if (options.has("out")) {
+            PrintWriter out = new PrintWriter(options.getArg("out"), "UTF-8");
+            out.println("[");
+            for (int x = 0; x < rows.size(); x++) {
+                out.println("  " + rows.get(x)
+                        + (x + 1 < rows.size() ? "," : ""));
+            }
+            out.println("]");
+            out.close();
+            System.out.println("Results written to " + options.getArg("out"));
+        }
+    }
+
+    /**
+     * Launches the tool built against a variant repeatedly.
+     * @return the measurements, as a JSON object
+     */
+    String measure(String variant, String packaging) throws Exception {
+        File dir = new File(work, variant);
+        List<String> cp = packaging.equals("classes")
+                ? Arrays.asList(new File(dir, "lib").getPath(),
+                        new File(dir, "app").getPath())
+                : Arrays.asList(new File(dir, "uopt4j.jar").getPath(),
+                        new File(dir, "app.jar").getPath());
+        List<String> flags = new ArrayList<String>();
+        if (packaging.endsWith("+cds")) {
+            File archive = new File(dir, "app.jsa");
+            archive.delete();
+            launch(cp, Arrays.asList(
+                    "-XX:ArchiveClassesAtExit=" + archive.getPath()));
+            if (!archive.exists())
+                throw new IOException("no AppCDS archive was created");
+            flags.add("-XX:SharedArchiveFile=" + archive.getPath());
+            flags.add("-Xshare:on"); // fail rather than quietly not share
+        }
+
+        // The first launch logs loaded classes, and warms the file cache.
+        File log = new File(dir, "classes.log");
+        List<String> logged = new ArrayList<String>(flags);
+        logged.add("-Xlog:class+load=info:file=" + log.getPath());
+        launch(cp, logged);
+        int classes = 0, uopt4j = 0;
+        for (String line : Files.readAllLines(log.toPath())) {
+            int start = line.indexOf("] ");
+            if (start < 0) continue;
+            classes++;
+            if (line.startsWith("MicroOptions", start + 2)) uopt4j++;
+        }
+
+        long[] nanos = new long[runs];
+        for (int x = 0; x < runs; x++) nanos[x] = launch(cp, flags);
+        Arrays.sort(nanos);
+        double median = nanos[runs / 2] / 1e6, min = nanos[0] / 1e6;
+        long bytecode = 0;
+        File[] compiled = new File(dir, "lib").listFiles();
+        for (File f : compiled)
+            if (f.getName().endsWith(".class")) bytecode += f.length();
+        System.out.printf("%-9s %-8s %10.1f %10.1f %8d %8d %9d%n", variant,
+                packaging, median, min, classes, uopt4j, bytecode);
+        return String.format(Locale.ROOT, "{\"variant\": \"%s\", "
+                + "\"packaging\": \"%s\", "
+                + "\"runs\": %d, \"medianMillis\": %.3f, "
+                + "\"minMillis\": %.3f, \"classesLoaded\": %d, "
+                + "\"uopt4jClassesLoaded\": %d, \"bytecodeBytes\": %d}",
+                variant, packaging, runs, median, min, classes, uopt4j,
+                bytecode);
+    }
+
+    /**
+     * Puts the MicroOptions classes of a variant in lib/ and uopt4j.jar,
+     * and ExampleTool compiled against them in app/ and app.jar, under a
+     * fresh directory named after the variant.
+     */
+    void build(String variant, String source) throws IOException {
+        File dir = new File(work, variant);
+        delete(dir);
+        File lib = new File(dir, "lib"), app = new File(dir, "app");
+        lib.mkdirs();
+        app.mkdirs();
+        if (source.endsWith(".jar")) {
+            unjar(new File(source), lib);
+        } else {
+            compile(lib, lib, source);
+        }
+        compile(app, lib, "example/ExampleTool.java");
+        jar(lib, new File(dir, "uopt4j.jar"));
+        jar(app, new File(dir, "app.jar"));
+    }
+
+    static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File child : children) delete(child);
+        f.delete();
+    }
+
+    static void compile(File out, File classpath, String source)
+            throws IOException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        int status = javac.run(null, null, null, "-nowarn", "--release", "8",
+                "-cp", classpath.getPath(), "-d", out.getPath(), source);
+        if (status != 0) throw new IOException("failed to compile " + source);
+    }
+
+    static void jar(File dir, File jar) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            File[] files = dir.listFiles();
+            Arrays.sort(files);
+            for (File f : files) {
+                if (!f.getName().endsWith(".class")) continue;
+                out.putNextEntry(new JarEntry(f.getName()));
+                Files.copy(f.toPath(), out);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static void unjar(File jar, File dir) throws IOException {
+        JarFile in = new JarFile(jar);
+        try {
+            for (JarEntry entry : Collections.list(in.entries())) {
+                if (!entry.getName().endsWith(".class")) continue;
+                InputStream bytes = in.getInputStream(entry);
+                OutputStream out = new FileOutputStream(
+                        new File(dir, entry.getName()));
+                try {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = bytes.read(buffer)) > 0)
+                        out.write(buffer, 0, n);
+                } finally {
+                    out.close();
+                    bytes.close();
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Runs ExampleTool in a fresh JVM.
+     * @return the wall-clock time from launch to exit, in nanoseconds
+     */
+    long launch(List<String> classpath, List<String> flags)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        command.addAll(flags);
+        command.add("-cp");
+        command.add(String.join(File.pathSeparator, classpath));
+        command.add("ExampleTool");
+        command.addAll(Arrays.asList(TOOL_ARGS));
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        int status = process.waitFor();
+        long nanos = System.nanoTime() - start;
+        if (status != 0)
+            throw new IOException("exit status " + status + ": " + command);
+        return nanos;
+    }
+}
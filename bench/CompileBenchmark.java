@@ -0,0 +1,43 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package uopt4j.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures configuring the options of {@link ParseBenchmark}, and
+ * configuring them and compiling them into a {@link MicroOptions.Schema}:
+ * the difference is the cost of {@link MicroOptions#compile()}. Neither
+ * depends on the command line, so this is kept apart from the parse
+ * benchmarks and their argv sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CompileBenchmark {
+    @Benchmark public MicroOptions configure() {
+        return ParseBenchmark.newOptions();
+    }
+
+    @Benchmark public MicroOptions.Schema configureAndCompile() {
+        return ParseBenchmark.newOptions().compile();
+    }
+}
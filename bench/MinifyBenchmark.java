@@ -0,0 +1,73 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package uopt4j.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures {@link JavaMinifyTool} in both modes on a generated input made of
+ * many copies of src/MicroOptions.java. Must be run from the project root.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MinifyBenchmark {
+    @Param({"10", "100", "1000"})
+    int copies;
+
+    @Param({"compact", "min"})
+    String mode;
+
+    File in, out;
+
+    @Setup public void setup() throws IOException {
+        StringBuilder source = new StringBuilder();
+        BufferedReader reader =
+                new BufferedReader(new FileReader("src/MicroOptions.java"));
+        String line;
+        while ((line = reader.readLine()) != null)
+            source.append(line).append('\n');
+        reader.close();
+        in = File.createTempFile("minify-in", ".java");
+        out = File.createTempFile("minify-out", ".java");
+        PrintWriter writer = new PrintWriter(in);
+        for (int x = 0; x < copies; x++) writer.print(source);
+        writer.close();
+    }
+
+    @TearDown public void tearDown() {
+        in.delete();
+        out.delete();
+    }
+
+    @Benchmark public long minify() throws IOException {
+        JavaMinifyTool.run(in.getPath(), out.getPath(), mode, 80, "");
+        return out.length();
+    }
+}
@@ -0,0 +1,85 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package uopt4j.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures parsing across argv sizes, using a mix of short, long, unary and
+ * argument-taking options: {@link MicroOptions.Schema#parse(String...)}
+ * against a schema compiled once, {@link MicroOptions#parse(String...)} on
+ * options configured once, and configuring, compiling and parsing together,
+ * as a tool run once does. {@link CompileBenchmark} measures configuring and
+ * compiling on their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    int tokens;
+
+    String[] argv;
+    MicroOptions options;
+    MicroOptions.Schema schema;
+
+    @Setup public void setup() {
+        options = newOptions();
+        schema = options.compile();
+        argv = new String[tokens];
+        String[][] pool = {
+                {"-v"}, {"--verbose"}, {"-o", "out.txt"},
+                {"--include", "some/include/path"}, {"--level", "3"} };
+        int i = 0;
+        for (int x = 0; i < tokens; x++) {
+            String[] group = pool[x % pool.length];
+            if (i + group.length > tokens) group = pool[0];
+            for (String s : group) argv[i++] = s;
+        }
+    }
+
+    static MicroOptions newOptions() {
+        MicroOptions options = new MicroOptions();
+        options.option("v").describedAs("be verbose").isUnary();
+        options.option("verbose").describedAs("be very verbose").isUnary();
+        options.option("o").describedAs("output file");
+        options.option("include").describedAs("include path");
+        options.option("level").describedAs("optimization level");
+        return options;
+    }
+
+    @Benchmark public MicroOptions.Result parse() {
+        return schema.parse(argv);
+    }
+
+    @Benchmark public MicroOptions parseConfigured() {
+        options.parse(argv);
+        return options;
+    }
+
+    @Benchmark public MicroOptions configureAndParse() {
+        MicroOptions options = newOptions();
+        options.parse(argv);
+        return options;
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package uopt4j.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link MicroOptions#usageString()}, both the first call for a
+ * schema, which renders it, and later ones, which return the cached string,
+ * and {@link MicroOptions#appendUsage(Appendable)}, which renders every time,
+ * for schemas of various sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UsageBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    int size;
+
+    MicroOptions options;
+
+    /**
+     * A schema compiled afresh for each call, so its usage isn't cached. Setup
+     * for each call adds some timing overhead, which only shows for the
+     * smallest schemas.
+     */
+    @State(Scope.Thread)
+    public static class Fresh {
+        MicroOptions.Schema schema;
+
+        @Setup(Level.Invocation) public void setup(UsageBenchmark b) {
+            b.options.withListener(null); // forgets the compiled schema
+            schema = b.options.compile();
+        }
+    }
+
+    @Setup public void setup() {
+        options = new MicroOptions();
+        for (int x = 0; x < size; x++) {
+            MicroOptions.Option o = options.option(
+                    x % 10 == 0 ? "option-" + x : "opt" + x);
+            o.describedAs("description of option number " + x);
+            if (x % 3 == 0) o.isUnary();
+            if (x % 7 == 0) o.isRequired();
+        }
+    }
+
+    @Benchmark public String usageStringFirst(Fresh fresh) {
+        return fresh.schema.usageString();
+    }
+
+    @Benchmark public String usageStringCached() {
+        return options.usageString();
+    }
+
+    @Benchmark public int appendUsage() throws IOException {
+        StringBuilder out = new StringBuilder();
+        options.appendUsage(out);
+        return out.length();
+    }
+
+    @Benchmark public int appendUsageWrapped() throws IOException {
+        StringBuilder out = new StringBuilder();
+        options.appendUsage(out, 80);
+        return out.length();
+    }
+}
@@ -31,28 +31,43 @@ HEADER=$(cat <<HERE
 HERE
 )
 
-# Blow away old stuff
+# Blow away old stuff. The minified sources are kept, and only regenerated
+# if the manifest says that they are out of date; pass --clean to force it.
 echo  "Cleaning"
-rm -rf altsrc-compact altsrc-minified /tmp/uopt4j
-mkdir altsrc-compact
-mkdir altsrc-minified
+rm -rf /tmp/uopt4j
+if [ "$1" == "--clean" ]; then
+  rm -rf altsrc-compact altsrc-minified .minify-manifest
+fi
+mkdir -p altsrc-compact
+mkdir -p altsrc-minified
 mkdir -p /tmp/uopt4j
 
 
+# -source 1.5 alone doesn't stop the core from calling newer APIs, such as
+# Arrays.copyOf from Java 6. Set JAVA5_RT to the rt.jar of a Java 5 runtime
+# to compile against that instead.
+BOOT=""
+if [ -n "$JAVA5_RT" ]; then
+  BOOT="-bootclasspath $JAVA5_RT"
+fi
+
 echo "Building source and minification tool"
-javac -d /tmp/uopt4j -source 1.5 -target 1.5 src/MicroOptions.java example/JavaMinifyTool.java
+javac -d /tmp/uopt4j -source 1.5 -target 1.5 $BOOT src/MicroOptions.java
+javac -d /tmp/uopt4j -cp /tmp/uopt4j -source 1.7 -target 1.7 example/JavaMinifyTool.java
+# The minified code is compiled in memory afterwards to check it. If JUNIT_CP
+# names the JUnit 4 and Hamcrest jars, the unit tests are run against it too.
+VERIFY="--verify"
+if [ -n "$JUNIT_CP" ]; then
+  VERIFY="--verify-test test/MicroOptionsTest.java"
+fi
 echo "Running minification tool on source"
-java -cp /tmp/uopt4j JavaMinifyTool --header "$HEADER" --in src/MicroOptions.java --out altsrc-compact/MicroOptions.java --mode compact
-java -cp /tmp/uopt4j JavaMinifyTool --header "$HEADER" --in src/MicroOptions.java --out altsrc-minified/MicroOptions.java --mode min --wrap-at 80
+java -cp "/tmp/uopt4j:$JUNIT_CP" JavaMinifyTool --header "$HEADER" --in src/MicroOptions.java --compact-out altsrc-compact/MicroOptions.java --min-out altsrc-minified/MicroOptions.java --wrap-at 80 --rename --manifest .minify-manifest $VERIFY
 
 
-echo "Verifying that minified code compiles"
-rm -rf /tmp/uopt4j
-mkdir -p /tmp/uopt4j
-javac -d /tmp/uopt4j -source 1.5 -target 1.5 altsrc-compact/MicroOptions.java
+echo "Compiling minified code for release"
 rm -rf /tmp/uopt4j
 mkdir -p /tmp/uopt4j
-javac -d /tmp/uopt4j -source 1.5 -target 1.5 altsrc-minified/MicroOptions.java
+javac -d /tmp/uopt4j -source 1.5 -target 1.5 $BOOT altsrc-minified/MicroOptions.java
 
 
 echo "Building documentation"
@@ -65,5 +80,12 @@ rm -rf release
 mkdir release
 jar cf release/uopt4j.jar -C /tmp/uopt4j/ .
 
+# Eclipse runs the annotation processor from this JAR (see .factorypath).
+echo "Building annotation processor JAR"
+rm -rf /tmp/uopt4j
+mkdir -p /tmp/uopt4j
+javac -d /tmp/uopt4j -source 1.6 -target 1.6 contrib/MicroOption.java contrib/MicroOptionsProcessor.java
+jar cf release/uopt4j-processor.jar -C /tmp/uopt4j/ . -C contrib META-INF
+
 
 echo "Done"
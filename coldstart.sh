@@ -0,0 +1,33 @@
+#!/bin/bash
+# Copyright 2014 Google Inc. All rights reserved.
+# 
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Builds and runs bench/ColdStart, which measures how quickly a small tool
+# starts against each variant of MicroOptions, in fresh JVMs. Any arguments
+# are passed on, e.g. "./coldstart.sh --runs 50". Results are written as
+# JSON to bench/results/. Needs JDK 13 or later for AppCDS archives.
+set -e
+
+OUT=/tmp/uopt4j-coldstart-harness
+
+echo "Building harness"
+rm -rf $OUT
+mkdir -p $OUT/src
+(echo "package uopt4j.bench;"; cat src/MicroOptions.java) > $OUT/src/MicroOptions.java
+javac -nowarn -d $OUT $OUT/src/MicroOptions.java bench/ColdStart.java
+
+echo "Running harness"
+mkdir -p bench/results
+RESULTS=bench/results/coldstart-$(git describe --always --dirty 2>/dev/null || date +%Y%m%d%H%M%S).json
+java -cp $OUT uopt4j.bench.ColdStart --out $RESULTS "$@"
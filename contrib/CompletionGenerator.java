@@ -0,0 +1,414 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Generates bash and zsh completion scripts for a tool built on
+ * {@link MicroOptions}, so that pressing tab doesn't start a JVM just to
+ * list the options. The options, whether each takes an argument, their
+ * descriptions and any commands are written to a cache file, one per line,
+ * and the scripts read that file with shell builtins alone.
+ * <p>
+ * The scripts only depend on the tool's name and the cache's path, so they
+ * are written once; when the options change, only the cache is rewritten.
+ * The first line of the cache holds a fingerprint of the tool's options and
+ * commands, so checking whether it is up to date reads a single line. The
+ * fingerprint covers each command through the class file of its
+ * configurer rather than its options, so commands aren't configured unless
+ * the cache is rewritten (see {@link #getFingerprint()}). That makes
+ * {@link #update(String, MicroOptions.Schema, Path)} cheap enough to call
+ * whenever the tool starts. Or run the generator once at install time, e.g.
+ * "java CompletionGenerator --tool mytool --configurer MyToolOptions
+ * --dir ~/.local/share/mytool", where MyToolOptions is a
+ * {@link MicroOptions.Configurer} that declares the tool's options.
+ * <p>
+ * Then add "source ~/.local/share/mytool/mytool.bash" to ~/.bashrc, or
+ * "source ~/.local/share/mytool/mytool.zsh" to ~/.zshrc after compinit.
+ * The scripts complete options after "-", commands where one may appear,
+ * and file names for option arguments, positional arguments and anything
+ * after "--".
+ */
+public class CompletionGenerator {
+    private static final String HEADER = "# uopt4j completions ";
+    // The scripts, in which @TOOL@, @F@ and @CACHE@ stand for the tool's
+    // name, the name of its completion function and the cache's path. In
+    // zsh, the right side of == in [[ ]] is a pattern unless quoted.
+    private static final String BASH =
+            "# bash completion for @TOOL@, generated by"
+            + " CompletionGenerator.\n"
+            + "# Options are read from the cache below without starting a JVM,"
+            + " and kept in\n"
+            + "# memory until the fingerprint on its first line changes.\n"
+            + "@F@() {\n"
+            + "    local cache=@CACHE@\n"
+            + "    local cur=${COMP_WORDS[COMP_CWORD]} scope=- expect= fp s k"
+            + " w d i j\n"
+            + "    local -a list\n"
+            + "    [ -r \"$cache\" ] || return 0\n"
+            + "    IFS= read -r fp < \"$cache\"\n"
+            + "    if [ \"$fp\" != \"$@F@_fp\" ]; then\n"
+            + "        @F@_scopes=()\n"
+            + "        @F@_kinds=()\n"
+            + "        @F@_words=()\n"
+            + "        {\n"
+            + "            IFS= read -r fp\n"
+            + "            while IFS=$'\\t' read -r s k w d; do\n"
+            + "                @F@_scopes+=(\"$s\")\n"
+            + "                @F@_kinds+=(\"$k\")\n"
+            + "                @F@_words+=(\"$w\")\n"
+            + "            done\n"
+            + "        } < \"$cache\"\n"
+            + "        @F@_fp=$fp\n"
+            + "    fi\n"
+            + "    # find the command being completed, and whether the last"
+            + " word is an\n"
+            + "    # option that takes an argument\n"
+            + "    for ((i = 1; i < COMP_CWORD; i++)); do\n"
+            + "        w=${COMP_WORDS[i]}\n"
+            + "        if [ -n \"$expect\" ]; then expect=; continue; fi\n"
+            + "        [ \"$w\" = -- ] && return 0\n"
+            + "        for ((j = 0; j < ${#@F@_words[@]}; j++)); do\n"
+            + "            [ \"${@F@_scopes[j]}\" = \"$scope\" ] &&\n"
+            + "                [ \"${@F@_words[j]}\" = \"$w\" ] || continue\n"
+            + "            case ${@F@_kinds[j]} in\n"
+            + "            a) expect=1 ;;\n"
+            + "            c) [ \"$scope\" = - ] && scope=$w || scope=\"$scope"
+            + " $w\" ;;\n"
+            + "            esac\n"
+            + "            break\n"
+            + "        done\n"
+            + "    done\n"
+            + "    [ -n \"$expect\" ] && return 0\n"
+            + "    for ((j = 0; j < ${#@F@_words[@]}; j++)); do\n"
+            + "        [ \"${@F@_scopes[j]}\" = \"$scope\" ] || continue\n"
+            + "        case $cur,${@F@_kinds[j]} in\n"
+            + "        -*,[fa] | [!-]*,c | ,c) list+=(\"${@F@_words[j]}\") ;;\n"
+            + "        esac\n"
+            + "    done\n"
+            + "    COMPREPLY=($(compgen -W \"${list[*]}\" -- \"$cur\"))\n"
+            + "}\n"
+            + "complete -o bashdefault -o default -F @F@ @TOOL@\n";
+    private static final String ZSH =
+            "# zsh completion for @TOOL@, generated by CompletionGenerator.\n"
+            + "# Options are read from the cache below without starting a JVM,"
+            + " and kept in\n"
+            + "# memory until the fingerprint on its first line changes.\n"
+            + "typeset -g @F@_fp\n"
+            + "typeset -ga @F@_rows\n"
+            + "@F@() {\n"
+            + "    local cache=@CACHE@ scope=- expect= fp w line i\n"
+            + "    local -a row opts cmds\n"
+            + "    [[ -r $cache ]] || return 1\n"
+            + "    IFS= read -r fp < $cache\n"
+            + "    if [[ $fp != \"$@F@_fp\" ]]; then\n"
+            + "        @F@_rows=(\"${(@f)\"$(<$cache)\"}\")\n"
+            + "        @F@_fp=$@F@_rows[1]\n"
+            + "    fi\n"
+            + "    for ((i = 2; i < CURRENT; i++)); do\n"
+            + "        w=$words[i]\n"
+            + "        if [[ -n $expect ]]; then expect=; continue; fi\n"
+            + "        [[ $w == -- ]] && { _files; return }\n"
+            + "        for line in \"${@F@_rows[@]}\"; do\n"
+            + "            row=(\"${(@ps:\\t:)line}\")\n"
+            + "            [[ $row[1] == \"$scope\" && $row[3] == \"$w\" ]] ||"
+            + " continue\n"
+            + "            case $row[2] in\n"
+            + "            a) expect=1 ;;\n"
+            + "            c) [[ $scope == - ]] && scope=$w || scope=\"$scope"
+            + " $w\" ;;\n"
+            + "            esac\n"
+            + "            break\n"
+            + "        done\n"
+            + "    done\n"
+            + "    [[ -n $expect ]] && { _files; return }\n"
+            + "    for line in \"${@F@_rows[@]}\"; do\n"
+            + "        row=(\"${(@ps:\\t:)line}\")\n"
+            + "        [[ $row[1] == \"$scope\" ]] || continue\n"
+            + "        if [[ $row[2] == c ]]; then\n"
+            + "            cmds+=(\"${row[3]//:/\\\\:}:$row[4]\")\n"
+            + "        else\n"
+            + "            opts+=(\"${row[3]//:/\\\\:}:$row[4]\")\n"
+            + "        fi\n"
+            + "    done\n"
+            + "    if [[ $PREFIX == -* ]]; then\n"
+            + "        _describe -t options option opts\n"
+            + "    elif (( $#cmds )); then\n"
+            + "        _describe -t commands command cmds\n"
+            + "    else\n"
+            + "        _files\n"
+            + "    fi\n"
+            + "}\n"
+            + "compdef @F@ @TOOL@\n";
+
+    private final String tool;
+    private final MicroOptions.Schema schema;
+    private final String fingerprint;
+    private String rows; // the cache, less its header line, built lazily
+
+    /**
+     * Fingerprints the options of a schema, without building the schemas of
+     * its commands.
+     * @param tool the name of the tool's executable, e.g. "mytool"
+     * @param schema the tool's options
+     */
+    public CompletionGenerator(String tool, MicroOptions.Schema schema) {
+        this.tool = tool;
+        this.schema = schema;
+        fingerprint = fingerprint(schema);
+    }
+
+    /**
+     * Returns a hash of the tool's options and commands, and of the class
+     * file of each command's configurer. It changes whenever one of the
+     * tool's options is added, removed or redescribed, or a command is
+     * added, removed or its configurer recompiled. A command whose
+     * configurer has no class file, e.g. a lambda, is configured and its
+     * options hashed instead. The commands of a command are covered only
+     * through its own configurer's class file.
+     * @return the fingerprint, as 32 hex digits
+     */
+    public String getFingerprint() { return fingerprint; }
+
+    /**
+     * Writes the cache file, unless it is already up to date. The new
+     * version is written to a temporary file and renamed over the old one,
+     * so a completion never reads half a file.
+     * @param cache the cache file
+     * @return whether the file was written
+     * @throws IOException if the file can't be read or written
+     */
+    public boolean writeCache(Path cache) throws IOException {
+        String header = HEADER + fingerprint;
+        try (BufferedReader in =
+                Files.newBufferedReader(cache, StandardCharsets.UTF_8)) {
+            if (header.equals(in.readLine())) return false;
+        } catch (NoSuchFileException e) {
+            // write it for the first time
+        }
+        if (rows == null) {
+            StringBuilder rows = new StringBuilder();
+            appendRows(rows, "-", schema, true);
+            this.rows = rows.toString();
+        }
+        write(cache, header + '\n' + rows);
+        return true;
+    }
+
+    /**
+     * Writes a bash completion script that reads the given cache file.
+     * @param out the destination
+     * @param cache the cache file, as written by {@link #writeCache(Path)}
+     * @throws IOException if the destination throws it
+     */
+    public void appendBash(Appendable out, Path cache) throws IOException {
+        out.append(fill(BASH, cache));
+    }
+
+    /**
+     * Writes a zsh completion script that reads the given cache file, and
+     * shows the descriptions of options and commands as well.
+     * @param out the destination
+     * @param cache the cache file, as written by {@link #writeCache(Path)}
+     * @throws IOException if the destination throws it
+     */
+    public void appendZsh(Appendable out, Path cache) throws IOException {
+        out.append(fill(ZSH, cache));
+    }
+
+    /**
+     * Brings the completions of a tool up to date in a directory: the cache
+     * as dir/tool.completions, if its fingerprint has changed, and the
+     * scripts as dir/tool.bash and dir/tool.zsh, if they have changed.
+     * @param tool the name of the tool's executable
+     * @param schema the tool's options
+     * @param dir the directory, which is created if need be
+     * @return whether any file was written
+     * @throws IOException if a file can't be read or written
+     */
+    public static boolean update(String tool, MicroOptions.Schema schema,
+            Path dir) throws IOException {
+        CompletionGenerator generator = new CompletionGenerator(tool, schema);
+        Files.createDirectories(dir);
+        Path cache = dir.resolve(tool + ".completions").toAbsolutePath();
+        boolean written = generator.writeCache(cache);
+        StringBuilder bash = new StringBuilder(), zsh = new StringBuilder();
+        generator.appendBash(bash, cache);
+        generator.appendZsh(zsh, cache);
+        written |= writeIfChanged(dir.resolve(tool + ".bash"), bash);
+        written |= writeIfChanged(dir.resolve(tool + ".zsh"), zsh);
+        return written;
+    }
+
+    public static void main(String... args) throws Exception {
+        MicroOptions options = new MicroOptions();
+        options.option("tool").describedAs("name of the tool's executable")
+                .isRequired();
+        options.option("configurer").describedAs(
+                "class that declares the tool's options, a "
+                + "MicroOptions.Configurer").isRequired();
+        options.option("dir").describedAs(
+                "where to write the cache and scripts").isRequired();
+        try {
+            options.parse(args);
+        } catch (MicroOptions.OptionException e) {
+            System.err.println(e.getMessage());
+            System.err.println(options.usageString());
+            System.exit(1);
+        }
+        MicroOptions tool = new MicroOptions();
+        ((MicroOptions.Configurer) Class.forName(options.getArg("configurer"))
+                .getConstructor().newInstance()).configure(tool);
+        boolean written = update(options.getArg("tool"), tool.compile(),
+                Paths.get(options.getArg("dir")));
+        System.err.println(written ? "Updated completions"
+                : "Completions are up to date");
+    }
+
+    /**
+     * Appends a row for each option and command of a schema, then if asked
+     * those of each command, as tab-separated fields: the names of the
+     * commands leading to the schema, separated by spaces, or "-" for the
+     * tool itself; "f" for a unary option, "a" for an option that takes an
+     * argument, or "c" for a command; the word to complete, e.g. "--verbose";
+     * and the description, if any.
+     */
+    private static void appendRows(StringBuilder out, String scope,
+            MicroOptions.Schema schema, boolean commands) {
+        for (String o : schema.getOptions()) {
+            out.append(scope).append('\t')
+                    .append(schema.isUnary(o) ? 'f' : 'a').append('\t')
+                    .append(o.length() == 1 ? "-" : "--").append(o)
+                    .append('\t');
+            String d = schema.getDescription(o);
+            if (d != null) out.append(d.replaceAll("[\t\r\n]", " "));
+            out.append('\n');
+        }
+        for (String c : schema.getCommands())
+            out.append(scope).append("\tc\t").append(c).append("\t\n");
+        if (!commands) return;
+        for (String c : schema.getCommands()) {
+            appendRows(out, scope.equals("-") ? c : scope + ' ' + c,
+                    schema.command(c), true);
+        }
+    }
+
+    /**
+     * @see #getFingerprint()
+     */
+    private static String fingerprint(MicroOptions.Schema schema) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every JVM has SHA-256
+        }
+        StringBuilder rows = new StringBuilder();
+        appendRows(rows, "-", schema, false);
+        for (String c : schema.getCommands()) {
+            String name = schema.getConfigurerName(c);
+            byte[] code = name == null ? null : classFile(name);
+            if (code == null) {
+                appendRows(rows, c, schema.command(c), true);
+            } else {
+                rows.append(c).append('\t').append(name).append('\n');
+                digest.update(code);
+            }
+        }
+        byte[] hash = digest.digest(
+                rows.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : Arrays.copyOf(hash, 16))
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    /**
+     * Reads a class file through the loader that {@link MicroOptions}
+     * loads configurers with, without loading the class.
+     * @param name the binary name of the class
+     * @return the contents of the class file, or null if it has none
+     */
+    private static byte[] classFile(String name) {
+        String path = name.replace('.', '/') + ".class";
+        ClassLoader loader = MicroOptions.class.getClassLoader();
+        try (InputStream in = loader == null
+                ? ClassLoader.getSystemResourceAsStream(path)
+                : loader.getResourceAsStream(path)) {
+            if (in == null) return null;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+            return out.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the script with the placeholders filled in for this tool
+     */
+    private String fill(String script, Path cache) {
+        return script.replace("@TOOL@", tool)
+                .replace("@F@",
+                        "_uopt4j_" + tool.replaceAll("[^A-Za-z0-9_]", "_"))
+                .replace("@CACHE@", quote(cache.toString()));
+    }
+
+    /**
+     * @return the string quoted for either shell
+     */
+    private static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    private static boolean writeIfChanged(Path file, CharSequence text)
+            throws IOException {
+        String s = text.toString();
+        try {
+            if (new String(Files.readAllBytes(file), StandardCharsets.UTF_8)
+                    .equals(s)) {
+                return false;
+            }
+        } catch (NoSuchFileException e) {
+            // write it for the first time
+        }
+        write(file, s);
+        return true;
+    }
+
+    private static void write(Path file, String text) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(),
+                file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A {@link MetricsListener} that also emits JDK Flight Recorder events at
+ * the start and end of every parse (Java 11 or later). The events are
+ * disabled unless a recording enables them, e.g. with
+ * "-XX:StartFlightRecording" and the default settings, in which case they
+ * show up under "uopt4j" in JDK Mission Control. While events are
+ * disabled they cost one check of a flag each.
+ */
+public class JfrListener extends MetricsListener {
+    /** Marks the start of a parse, on the thread doing the parsing. */
+    @Name("uopt4j.ParseStart")
+    @Label("Parse Start")
+    @Category("uopt4j")
+    @StackTrace(false)
+    static class ParseStart extends Event {}
+
+    /** Marks the end of a parse, with its duration and size. */
+    @Name("uopt4j.ParseEnd")
+    @Label("Parse End")
+    @Category("uopt4j")
+    @StackTrace(false)
+    static class ParseEnd extends Event {
+        @Label("Parse Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long parseTime;
+
+        @Label("Tokens")
+        @Description("Tokens consumed, including those in argument files")
+        int tokens;
+
+        @Label("Failed")
+        @Description("Whether the parse threw an exception")
+        boolean failed;
+    }
+
+    @Override public void parseStarted() {
+        super.parseStarted();
+        ParseStart event = new ParseStart();
+        if (event.isEnabled()) event.commit();
+    }
+
+    @Override public void parseFinished(int tokens, long nanos,
+            boolean failed) {
+        super.parseFinished(tokens, nanos, failed);
+        ParseEnd event = new ParseEnd();
+        if (!event.isEnabled()) return;
+        event.parseTime = nanos;
+        event.tokens = tokens;
+        event.failed = failed;
+        event.commit();
+    }
+}
@@ -0,0 +1,102 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MicroOptions.Listener} that keeps running totals of parses,
+ * tokens, lookups, fallbacks to default values and problems by kind, and
+ * the total and maximum time spent parsing (Java 8 or later). Counters are
+ * updated without locks and may be read at any time, from any thread;
+ * install one with {@link MicroOptions#withListener(MicroOptions.Listener)}.
+ */
+public class MetricsListener extends MicroOptions.Listener {
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder[] problems =
+            new LongAdder[MicroOptions.Diagnostic.Kind.values().length];
+
+    public MetricsListener() {
+        for (int x = 0; x < problems.length; x++) problems[x] = new LongAdder();
+    }
+
+    @Override public void problemFound(MicroOptions.Diagnostic problem) {
+        problems[problem.getKind().ordinal()].increment();
+    }
+
+    @Override public void parseFinished(int tokens, long nanos,
+            boolean failed) {
+        parses.increment();
+        if (failed) failures.increment();
+        this.tokens.add(tokens);
+        this.nanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override public void lookedUp(String option, boolean found) {
+        lookups.increment();
+        if (!found) fallbacks.increment();
+    }
+
+    /** @return the number of parses finished, including failed ones */
+    public long getParses() { return parses.sum(); }
+
+    /** @return the number of parses that threw an exception */
+    public long getFailures() { return failures.sum(); }
+
+    /** @return the number of tokens consumed by all parses */
+    public long getTokens() { return tokens.sum(); }
+
+    /** @return the number of lookups of options in results */
+    public long getLookups() { return lookups.sum(); }
+
+    /** @return the number of lookups of options that weren't present */
+    public long getFallbacks() { return fallbacks.sum(); }
+
+    /**
+     * @param kind a kind of problem
+     * @return the number of problems of that kind found by all parses
+     */
+    public long getProblems(MicroOptions.Diagnostic.Kind kind) {
+        return problems[kind.ordinal()].sum();
+    }
+
+    /** @return the total time spent parsing, in nanoseconds */
+    public long getTotalNanos() { return nanos.sum(); }
+
+    /** @return the time taken by the slowest parse, in nanoseconds */
+    public long getMaxNanos() { return maxNanos.get(); }
+
+    @Override public String toString() {
+        StringBuilder b = new StringBuilder()
+                .append("parses=").append(getParses())
+                .append(" failures=").append(getFailures())
+                .append(" tokens=").append(getTokens())
+                .append(" lookups=").append(getLookups())
+                .append(" fallbacks=").append(getFallbacks())
+                .append(" totalNanos=").append(getTotalNanos())
+                .append(" maxNanos=").append(getMaxNanos());
+        for (MicroOptions.Diagnostic.Kind kind
+                : MicroOptions.Diagnostic.Kind.values()) {
+            b.append(' ').append(kind).append('=').append(getProblems(kind));
+        }
+        return b.toString();
+    }
+}
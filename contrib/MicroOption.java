@@ -0,0 +1,65 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marks a field of a tool class as a command-line option. At compile time,
+ * {@link MicroOptionsProcessor} generates a class named after the tool class
+ * plus "Options" that declares every annotated field as a
+ * {@link MicroOptions} option and copies parsed values straight into the
+ * fields, without reflection. Annotated fields must not be private, static
+ * or final. The kind of option follows from the type of the field:
+ * <ul>
+ * <li>boolean: a unary option</li>
+ * <li>String: an option with an argument</li>
+ * <li>int, long, double or an enum: an option with a typed argument</li>
+ * <li>java.util.List&lt;String&gt;: a repeatable option</li>
+ * </ul>
+ * The initial value of a field is kept if its option isn't given.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface MicroOption {
+    /** @return the name of the option; by default, the name of the field */
+    String name() default "";
+
+    /** @return the description of the option, for the usage string */
+    String description() default "";
+
+    /** @return whether the option is required */
+    boolean required() default false;
+
+    /** @return an environment variable to read the option from, if any */
+    String env() default "";
+
+    /** @return a system property to read the option from, if any */
+    String property() default "";
+
+    /** @return a default value for the option to take, if any */
+    String defaultValue() default "";
+
+    /** @return whether a long field holds a byte size, such as 512m */
+    boolean byteSize() default false;
+
+    /** @return whether a long field holds a duration, such as 250ms */
+    boolean duration() default false;
+
+    /** @return the unit in which a duration field holds its value */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
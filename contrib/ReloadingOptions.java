@@ -0,0 +1,228 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the values of options up to date with a config file of option
+ * tokens, e.g. for tunables of a long-running service that shouldn't need a
+ * restart to change. The file has the same format as an argument file
+ * (see {@link MicroOptions#allowArgFiles()}), and is parsed by
+ * {@link MicroOptions.Schema#parseFile(String, String...)}.
+ * <p>
+ * Each version of the file is parsed against the same schema, followed by
+ * any fixed tokens such as the command line, which therefore win over the
+ * file. The result is published as an immutable snapshot through an
+ * atomic reference, so readers never lock and always see one consistent
+ * set of values: read {@link #get()} once per unit of work and use that
+ * result throughout. A version that doesn't parse is rejected and the
+ * previous snapshot kept.
+ * <p>
+ * Once {@link #start() started}, a daemon thread watches the file's
+ * directory through a {@link WatchService}, and the directory of the file
+ * that it links to if it is a symbolic link. Shortly after anything in
+ * those directories stops changing, the file is read again and reparsed if
+ * its contents differ from the last version seen. So besides edits in
+ * place, it notices a new version renamed over the old one, which avoids
+ * ever reading a half-written file, and symbolic links being swapped to
+ * point at a new version, as in a Kubernetes ConfigMap volume. Requires
+ * Java 7.
+ */
+public class ReloadingOptions implements Closeable {
+    // How long the file must go without changing before it is reloaded.
+    private static final long SETTLE_MILLIS = 50;
+
+    private final MicroOptions.Schema schema;
+    private final Path file;
+    private final String[] fixed;
+    private final AtomicReference<MicroOptions.Result> current =
+            new AtomicReference<>();
+    // Hash of the contents last read, or null if unreadable; guarded by this
+    private byte[] seen;
+    private WatchService watcher;
+
+    /**
+     * Parses the file for the first time.
+     * @param schema the schema to parse against
+     * @param file the config file
+     * @param fixed tokens to parse after those of the file every time
+     * @throws IOException if the file can't be read
+     * @throws MicroOptions.OptionException if it doesn't parse
+     */
+    public ReloadingOptions(MicroOptions.Schema schema, Path file,
+            String... fixed) throws IOException {
+        this.schema = schema;
+        this.file = file.toAbsolutePath();
+        this.fixed = fixed.clone();
+        byte[] seen = hash();
+        current.set(schema.parseFile(this.file.toString(), this.fixed));
+        this.seen = seen;
+    }
+
+    /** @return the latest snapshot of the options' values */
+    public MicroOptions.Result get() { return current.get(); }
+
+    /**
+     * Starts watching the file for changes.
+     * @return this object
+     * @throws IOException if the file's directory can't be watched
+     */
+    public synchronized ReloadingOptions start() throws IOException {
+        if (watcher != null) return this;
+        watcher = file.getFileSystem().newWatchService();
+        register();
+        Thread thread = new Thread(new Runnable() {
+            public void run() { watch(); }
+        }, "ReloadingOptions-" + file);
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Stops watching the file. The latest snapshot remains available.
+     */
+    @Override public synchronized void close() throws IOException {
+        if (watcher != null) watcher.close();
+    }
+
+    /**
+     * Reads and parses the file now, and publishes a new snapshot if it
+     * parses successfully. The file is parsed even if it hasn't changed,
+     * so that options resolved from system properties or the environment
+     * (see {@link MicroOptions.Option#fromProperty(String)}) pick up any
+     * new values.
+     * @return whether a new snapshot was published
+     */
+    public synchronized boolean reload() {
+        MicroOptions.Result result;
+        try {
+            seen = hash();
+            result = schema.parseFile(file.toString(), fixed);
+        } catch (IOException | MicroOptions.OptionException e) {
+            rejected(e);
+            return false;
+        }
+        current.set(result);
+        reloaded(result);
+        return true;
+    }
+
+    /**
+     * Called after a new snapshot is published. Does nothing by default.
+     * @param result the new snapshot
+     */
+    protected void reloaded(MicroOptions.Result result) {}
+
+    /**
+     * Called when a version of the file can't be read or doesn't parse,
+     * and the previous snapshot is kept. Does nothing by default.
+     * @param e the problem
+     */
+    protected void rejected(Exception e) {}
+
+    /**
+     * Reloads the file if its contents differ from the last version read,
+     * whether or not that version parsed, so a bad version is only rejected
+     * once.
+     */
+    private synchronized void reloadIfChanged() {
+        byte[] hash;
+        try {
+            hash = hash();
+        } catch (IOException e) {
+            seen = null; // e.g. between a delete and a create; try again
+            rejected(e);
+            return;
+        }
+        if (!Arrays.equals(hash, seen)) reload();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                // wait for a burst of changes to end before reading
+                do {
+                    key.pollEvents();
+                    key.reset();
+                } while ((key = watcher.poll(SETTLE_MILLIS,
+                        TimeUnit.MILLISECONDS)) != null);
+                try {
+                    register(); // a link may point somewhere new
+                } catch (IOException e) {
+                    rejected(e);
+                }
+                reloadIfChanged();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed; stop watching
+        }
+    }
+
+    /**
+     * Watches the directory of the file and, if the file is a link, the
+     * directory of the file it links to. Registering a directory twice is
+     * harmless.
+     */
+    private void register() throws IOException {
+        file.getParent().register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        Path target;
+        try {
+            target = file.toRealPath().getParent();
+        } catch (IOException e) {
+            return; // missing for now; the first directory sees it return
+        }
+        if (!target.equals(file.getParent())) {
+            target.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+
+    /**
+     * @return a SHA-256 hash of the file's contents, which are streamed
+     * rather than held in the heap
+     */
+    private byte[] hash() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every JVM has SHA-256
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; )
+                digest.update(buffer, 0, n);
+        }
+        return digest.digest();
+    }
+}
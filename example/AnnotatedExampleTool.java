@@ -0,0 +1,48 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// The same tool as ExampleTool, with its options declared by annotations.
+// Compile with MicroOptionsProcessor on the processor path to generate
+// AnnotatedExampleToolOptions.
+public class AnnotatedExampleTool {
+    enum Mode { FAST, SAFE }
+
+    @MicroOption(name = "v", description = "be verbose")
+    boolean verbose;
+    @MicroOption(description = "path of input file", required = true)
+    String infile;
+    @MicroOption(description = "write here instead of /tmp/out")
+    String outfile = "/tmp/out";
+    @MicroOption(description = "how hard to try")
+    Mode mode = Mode.SAFE;
+    @MicroOption(description = "give up after this long", duration = true)
+    long timeout = 30000;
+
+    public void run() {
+        // do really interesting stuff here.
+    }
+
+    public static void main(String... args) {
+        AnnotatedExampleTool tool = new AnnotatedExampleTool();
+        try {
+            AnnotatedExampleToolOptions.parse(tool, args);
+        } catch (MicroOptions.OptionException e) {
+            System.err.println("Usage:");
+            System.err.println(
+                    AnnotatedExampleToolOptions.declare().usageString());
+            System.exit(-1);
+        }
+        tool.run();
+    }
+}
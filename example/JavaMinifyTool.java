@@ -12,168 +12,1226 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
 
 /**
  * Non-rigorous half-baked Java code minifier. Always run unit tests after
  * minifying! Going beyond this probably requires a real parser.
+ * <p>
+ * The source is streamed through a character-level state machine in a
+ * single pass, so memory use doesn't depend on the size of the input. Both
+ * compact and min output can be written from the same pass. If the input
+ * is a directory, every .java file under it is minified, in parallel, into
+ * the same relative path under each output directory. With a manifest,
+ * outputs whose input, mode, wrap-at and header haven't changed since they
+ * were last written are skipped, and outputs whose input has gone from the
+ * directory are deleted. Outputs can then be compiled, and tested,
+ * in memory to check them. Requires Java 7.
  */
 public class JavaMinifyTool {
-    // Regex from: http://ostermiller.org/findcomment.html
-    private final static String MULTI_LINE_COMMENT_REGEX = "/\\*([^*]|[\\r\\n]|(\\*+([^*/]|[\\r\\n])))*\\*+/";
-
     public final static void main(String... args) throws Exception {
         MicroOptions options = new MicroOptions();
-        options.option("in").isRequired().describedAs("path to the .java file to read");
-        options.option("out").isRequired().describedAs("path to the .java file to write");
-        options.option("mode").isRequired().describedAs("one of: [compact,min]: 'compact' just throws away blanks and comments; 'min' crunches the code down into an almost unreadable block.");
-        options.option("wrap-at").describedAs("if mode=min, wrap lines after this many chars (default=80)");
+        options.option("in").isRequired().describedAs("path to the .java file (or directory of them) to read");
+        options.option("out").describedAs("path to the .java file (or directory) to write in the given mode");
+        options.option("mode").describedAs("one of: [compact,min]: 'compact' just throws away blanks and comments; 'min' crunches the code down into an almost unreadable block.");
+        options.option("compact-out").describedAs("path to the .java file (or directory) to write in compact mode");
+        options.option("min-out").describedAs("path to the .java file (or directory) to write in min mode");
+        options.option("wrap-at").isInt().describedAs("if mode=min, wrap lines after this many chars (default=80)");
         options.option("header").describedAs("optional header text to apply to generated files");
+        options.option("rename").isUnary().describedAs("in min output, shorten the names of private fields, local variables and parameters; needs a JDK, since each file is attributed with javac");
+        options.option("manifest").describedAs("optional path of a manifest file that records what was minified, so that later runs can skip unchanged files");
+        options.option("verify").isUnary().describedAs("compile each output in memory afterwards, and fail if it doesn't compile");
+        options.option("verify-test").describedAs("optional path of a JUnit 4 test source to compile along with each output and run in this JVM; implies --verify, and needs JUnit on the classpath");
+        String compactOut = null, minOut = null;
         try {
             options.parse(args);
+            compactOut = options.getArg("compact-out");
+            minOut = options.getArg("min-out");
+            if (options.has("out") != options.has("mode")) {
+                throw new MicroOptions.OptionException("--out and --mode go together");
+            } else if (options.has("out")) {
+                String mode = options.getArg("mode");
+                if (mode.equals("min")) minOut = options.getArg("out");
+                else compactOut = options.getArg("out");
+            }
+            if (compactOut == null && minOut == null) {
+                throw new MicroOptions.OptionException("no output given");
+            }
         } catch (MicroOptions.OptionException e) {
             System.err.println("Usage:");
             System.err.println(options.usageString());
             System.exit(-1);
         }
-        run(options.getArg("in"), options.getArg("out"), options.getArg("mode"),
-                Integer.parseInt(options.getArg("wrap-at", "80")),
-                options.getArg("header", ""));
+        String in = options.getArg("in");
+        int wrapAt = options.getInt("wrap-at", 80);
+        String header = options.getArg("header", "");
+        Manifest manifest = null;
+        if (options.has("manifest")) manifest = new Manifest(new File(options.getArg("manifest")));
+        File file = new File(in);
+        String sourcePath = null;
+        if (options.has("rename")) {
+            File root = file.isDirectory() ? file : file.getAbsoluteFile().getParentFile();
+            sourcePath = root.getPath();
+        }
+        if (file.isDirectory()) {
+            minifyTree(in, compactOut, minOut, wrapAt, header, sourcePath, manifest);
+        } else {
+            minify(in, compactOut, minOut, wrapAt, header, sourcePath, manifest);
+        }
+        if (manifest != null) {
+            manifest.save();
+            System.out.println("Minified " + manifest.written + " file(s); "
+                    + manifest.skipped + " unchanged; " + manifest.removed.size() + " removed");
+            for (String out : manifest.removed) System.out.println("Removed " + out);
+        }
+        if (options.has("verify") || options.has("verify-test")) {
+            File test = options.has("verify-test") ? new File(options.getArg("verify-test")) : null;
+            for (String out : new String[] { compactOut, minOut }) {
+                if (out != null) System.out.println(Verifier.verify(new File(out), test));
+            }
+        }
+    }
+
+    static void run(String in, String out, String mode, int wrapAt, String header) throws IOException {
+        if (mode.equals("min")) minify(in, null, out, wrapAt, header, null, null);
+        else minify(in, out, null, wrapAt, header, null, null);
+    }
+
+    /**
+     * Minifies one file into either or both modes, reading it only once.
+     * @param compactOut where to write compact output, or null
+     * @param minOut where to write min output, or null
+     * @param sourcePath the source path to attribute the input against in
+     * order to rename identifiers in min output, or null not to rename them
+     * @param manifest the manifest of outputs already written, or null to
+     * write all outputs unconditionally
+     */
+    static void minify(String in, String compactOut, String minOut, int wrapAt, String header, String sourcePath, Manifest manifest) throws IOException {
+        File file = new File(in);
+        String compactParams = null, minParams = null;
+        if (manifest != null) {
+            compactParams = Manifest.params("compact", 0, header);
+            minParams = Manifest.params(sourcePath == null ? "min" : "min-rename", wrapAt, header);
+            if (compactOut != null && manifest.isCurrent(file, compactOut, compactParams)) {
+                compactOut = null;
+                manifest.skipped.incrementAndGet();
+            }
+            if (minOut != null && manifest.isCurrent(file, minOut, minParams)) {
+                minOut = null;
+                manifest.skipped.incrementAndGet();
+            }
+            if (compactOut == null && minOut == null) return;
+        }
+        Renames renames = null;
+        if (minOut != null && sourcePath != null) renames = Renames.find(file, sourcePath);
+        List<Output> outputs = new ArrayList<Output>(2);
+        InputStream input = new FileInputStream(file);
+        MessageDigest digest = null;
+        if (manifest != null) {
+            digest = Manifest.sha256();
+            input = new DigestInputStream(input, digest);
+        }
+        Reader reader = new InputStreamReader(input, "UTF-8");
+        try {
+            if (compactOut != null) outputs.add(new Compact(open(compactOut)));
+            if (minOut != null) outputs.add(new Min(open(minOut), wrapAt, renames != null));
+            for (Output output : outputs) {
+                output.out.write(header);
+                output.out.write('\n');
+            }
+            new Minifier(renames, outputs.toArray(new Output[outputs.size()])).minify(reader);
+        } finally {
+            reader.close();
+            for (Output output : outputs) output.out.close();
+        }
+        if (manifest != null) {
+            String hash = Manifest.hex(digest.digest());
+            if (compactOut != null) manifest.record(file, hash, compactOut, compactParams);
+            if (minOut != null) manifest.record(file, hash, minOut, minParams);
+        }
+    }
+
+    private static Writer open(String path) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(path), "UTF-8"));
+    }
+
+    /**
+     * Minifies every .java file under a directory into the same relative
+     * paths under either or both output directories, on a work-stealing
+     * pool with one thread per available processor. With a manifest,
+     * outputs it lists under those directories whose inputs are gone are
+     * then deleted, and dropped from it.
+     * @param compactOut the directory for compact output, or null
+     * @param minOut the directory for min output, or null
+     */
+    static void minifyTree(String in, String compactOut, String minOut, int wrapAt, String header, String sourcePath, Manifest manifest) throws IOException {
+        Tree root = new Tree(new File(in),
+                compactOut == null ? null : new File(compactOut),
+                minOut == null ? null : new File(minOut), wrapAt, header,
+                sourcePath, manifest);
+        try {
+            new ForkJoinPool().invoke(root);
+        } catch (Failure e) {
+            throw e.getCause();
+        }
+        if (manifest != null) manifest.prune(compactOut, minOut);
     }
 
-    private static void run(String in, String out, String mode, int wrapAt, String header) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(in));
-        StringBuilder buffer = new StringBuilder();
-        String currentLine = null;
+    /**
+     * Carries an IOException out of a {@link Tree} task.
+     */
+    private static final class Failure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Failure(IOException cause) { super(cause); }
+        public IOException getCause() { return (IOException) super.getCause(); }
+    }
 
-        // Buffer and strip all single-line comments
-        while((currentLine = reader.readLine()) != null) {
-            // Trim trailing whitespace
-            currentLine = currentLine.replaceFirst("\\s+$", "");
+    /**
+     * Minifies a file, or forks a task for each entry of a directory.
+     */
+    private static final class Tree extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-            // Delete single-line comments
-            int indexOfComment = currentLine.indexOf("//");
-            if (indexOfComment >= 0) {
-                currentLine = currentLine.substring(0, indexOfComment);
-                currentLine = currentLine.replaceFirst("\\s+$", "");
+        private final File in, compactOut, minOut;
+        private final int wrapAt;
+        private final String header, sourcePath;
+        private final Manifest manifest;
+
+        private Tree(File in, File compactOut, File minOut, int wrapAt, String header, String sourcePath, Manifest manifest) {
+            this.in = in;
+            this.compactOut = compactOut;
+            this.minOut = minOut;
+            this.wrapAt = wrapAt;
+            this.header = header;
+            this.sourcePath = sourcePath;
+            this.manifest = manifest;
+        }
+
+        protected void compute() {
+            try {
+                if (!in.isDirectory()) {
+                    if (in.getName().endsWith(".java")) {
+                        minify(in.getPath(), path(compactOut), path(minOut), wrapAt, header, sourcePath, manifest);
+                    }
+                    return;
+                }
+                mkdirs(compactOut);
+                mkdirs(minOut);
+                String[] names = in.list();
+                if (names == null) throw new IOException("can't list " + in);
+                Arrays.sort(names);
+                List<Tree> children = new ArrayList<Tree>(names.length);
+                for (String name : names) {
+                    children.add(new Tree(new File(in, name), child(compactOut, name),
+                            child(minOut, name), wrapAt, header, sourcePath, manifest));
+                }
+                invokeAll(children);
+            } catch (IOException e) {
+                throw new Failure(e);
             }
-            buffer.append(currentLine);
-            buffer.append('\n');
         }
 
-        // Remove multi-line comments
-        Pattern pattern = Pattern.compile(MULTI_LINE_COMMENT_REGEX, Pattern.MULTILINE);
-        buffer = new StringBuilder(pattern.matcher(buffer).replaceAll(""));
+        private static String path(File f) { return f == null ? null : f.getPath(); }
 
-        // Strip empty lines
-        pattern = Pattern.compile("^[\\s&&[^\\n]]*\n", Pattern.MULTILINE);
-        buffer = new StringBuilder(pattern.matcher(buffer).replaceAll(""));
+        private static File child(File dir, String name) {
+            return dir == null ? null : new File(dir, name);
+        }
 
-        if (mode.equals("min")) {
-            minify(buffer, wrapAt);
+        private static void mkdirs(File dir) throws IOException {
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("can't create " + dir);
+            }
         }
-        PrintWriter writer = new PrintWriter(out);
-        writer.println(header);
-        writer.print(buffer);
-        writer.flush();
-        writer.close();
-        reader.close();
     }
 
     /**
-     * Minify the Java source code.
-     * @param buffer the buffer to minify
-     * @param wrapAt the column to wrap lines at
+     * Compiles generated sources in memory with javax.tools, and can run a
+     * JUnit 4 test against the classes, all in this JVM: nothing is written
+     * to disk, and no compiler or test runner is launched. The classes are
+     * loaded child-first by a throwaway class loader, so that they're used
+     * in place of any classes of the same names on the classpath (such as
+     * the MicroOptions that this tool runs with). JUnit is only reached
+     * through reflection, so it's only needed on the classpath to run a
+     * test.
      */
-    private static void minify(StringBuilder buffer, int wrapAt) {
-        List<String> words = extractWords(buffer);
-        buffer.setLength(0);
-        Iterator<String> iterator = words.iterator();
-        int lineLength = 0;
-        int wordCount = 0;
-        // TODO: Remove unnecessary spaces around things like '{', '(', etc.
-        while(iterator.hasNext()) {
-            wordCount++;
-            String word = iterator.next();
-            if (lineLength + 1 + word.length() > wrapAt) {
-                // Wrap
-                if (wordCount > 1) buffer.append('\n');
-                buffer.append(word);
-                lineLength = word.length();
-            } else {
-                if (lineLength > 0) {
-                    lineLength++;
-                    buffer.append(' ');
+    static final class Verifier {
+        /**
+         * @param out an output file, or directory of them
+         * @param test the source of a JUnit 4 test to compile and run
+         * against the output, or null just to compile the output
+         * @return a summary of what was verified
+         * @throws IOException if the output doesn't compile, or the test
+         * fails
+         */
+        static String verify(File out, File test) throws IOException {
+            List<File> sources = new ArrayList<File>();
+            list(out, sources);
+            if (test != null) sources.add(test);
+            long start = System.nanoTime();
+            Map<String, ByteArrayOutputStream> classes = compile(sources);
+            long compiled = System.nanoTime();
+            String summary = "Verified " + out + ": " + (sources.size() - (test == null ? 0 : 1))
+                    + " file(s) compiled in " + millis(compiled - start);
+            if (test == null) return summary;
+            String name = test.getName().substring(0, test.getName().length() - ".java".length());
+            for (String className : classes.keySet()) {
+                if (className.endsWith("." + name)) name = className; // in a package
+            }
+            Loader loader = new Loader(classes);
+            Object result;
+            try {
+                Class<?> core = Class.forName("org.junit.runner.JUnitCore", true, loader);
+                result = core.getMethod("runClasses", Class[].class).invoke(
+                        null, (Object) new Class<?>[] { loader.loadClass(name) });
+            } catch (ClassNotFoundException e) {
+                throw new IOException("can't run " + test + ": " + e.getMessage() + " not found", e);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("can't run " + test, e);
+            }
+            try {
+                int run = (Integer) result.getClass().getMethod("getRunCount").invoke(result);
+                List<?> failures = (List<?>) result.getClass().getMethod("getFailures").invoke(result);
+                if (!failures.isEmpty()) {
+                    throw new IOException(failures.size() + " of " + run + " test(s) failed against "
+                            + out + "; the first was " + failures.get(0));
                 }
-                buffer.append(word);
-                lineLength += word.length();
+                return summary + "; " + run + " test(s) passed in " + millis(System.nanoTime() - compiled);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("can't read the result of " + test, e);
+            }
+        }
+
+        private static String millis(long nanos) { return nanos / 1000000 + " ms"; }
+
+        private static void list(File file, List<File> sources) throws IOException {
+            if (!file.isDirectory()) {
+                if (file.getName().endsWith(".java")) sources.add(file);
+                return;
+            }
+            String[] names = file.list();
+            if (names == null) throw new IOException("can't list " + file);
+            Arrays.sort(names);
+            for (String name : names) list(new File(file, name), sources);
+        }
+
+        /**
+         * @return the bytecode of every class compiled, by binary name
+         */
+        private static Map<String, ByteArrayOutputStream> compile(List<File> sources) throws IOException {
+            JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+            if (javac == null) throw new IOException("verifying needs a JDK, not just a JRE");
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+            Memory memory = new Memory(javac.getStandardFileManager(diagnostics, null, null));
+            try {
+                boolean ok = javac.getTask(null, memory, diagnostics,
+                        Arrays.asList("-proc:none", "-implicit:none", "-nowarn", "-encoding", "UTF-8",
+                                "-classpath", System.getProperty("java.class.path")),
+                        null, memory.getJavaFileObjectsFromFiles(sources)).call();
+                if (!ok) {
+                    StringBuilder b = new StringBuilder("compilation failed:");
+                    for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                        if (d.getKind() == Diagnostic.Kind.ERROR) b.append('\n').append(d);
+                    }
+                    throw new IOException(b.toString());
+                }
+            } finally {
+                memory.close();
+            }
+            return memory.classes;
+        }
+
+        /**
+         * Keeps the class files that javac writes in memory.
+         */
+        private static final class Memory extends ForwardingJavaFileManager<StandardJavaFileManager> {
+            private final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+
+            private Memory(StandardJavaFileManager files) { super(files); }
+
+            private Iterable<? extends JavaFileObject> getJavaFileObjectsFromFiles(List<File> sources) {
+                return fileManager.getJavaFileObjectsFromFiles(sources);
+            }
+
+            public JavaFileObject getJavaFileForOutput(Location location, final String className,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                URI uri = URI.create("memory:///" + className.replace('.', '/') + kind.extension);
+                return new SimpleJavaFileObject(uri, kind) {
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        }
+
+        /**
+         * Loads compiled classes from memory ahead of its parent.
+         */
+        private static final class Loader extends ClassLoader {
+            private final Map<String, ByteArrayOutputStream> classes;
+
+            private Loader(Map<String, ByteArrayOutputStream> classes) {
+                super(JavaMinifyTool.class.getClassLoader());
+                this.classes = classes;
+            }
+
+            protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    ByteArrayOutputStream bytes = classes.get(name);
+                    if (bytes == null) return super.loadClass(name, resolve);
+                    byte[] b = bytes.toByteArray();
+                    c = defineClass(name, b, 0, b.length);
+                }
+                if (resolve) resolveClass(c);
+                return c;
             }
         }
     }
 
     /**
-     * Break the source into words.
-     * @param buffer the buffer to extract words from
-     * @return the words
+     * Records, for each output written, the size, modification time and
+     * SHA-256 hash of its input, a hash of the mode, wrap-at and header it
+     * was written with, and its own size and modification time. An output
+     * is current if none of these have changed; the input is only read to
+     * compare hashes if its modification time has changed but its size
+     * hasn't. The manifest is a text file with one tab-separated line per
+     * output, and is safe to update from many threads.
      */
-    private static List<String> extractWords(StringBuilder buffer) {
-        List<String> words = new LinkedList<String>();
-        final StringBuilder wordBuffer = new StringBuilder();
-        boolean doubleQuoted = false;
-        boolean singleQuoted = false;
-        boolean collapsingWhitespace = false;
-        int backslashCount=0;
-
-        for (int x=0; x<buffer.length(); x++) {
-            char c = buffer.charAt(x);
-            boolean isWs = Character.isWhitespace(c);
-            if (!singleQuoted && !doubleQuoted && collapsingWhitespace && !isWs) {
-                // Output one space to collapse all preceding whitespace
-                words.add(wordBuffer.toString());
-                wordBuffer.setLength(0);
-                collapsingWhitespace = false;
-            }
-
-            if (c == '\\') {
-                backslashCount++;
-                wordBuffer.append(c);
-            } else {
-                if (c == '"') {
-                    if (backslashCount == 0 || backslashCount % 2 == 0) {
-                        if (!singleQuoted) doubleQuoted = !doubleQuoted;
+    static final class Manifest {
+        private final File file;
+        private final Map<String, String[]> entries = new ConcurrentHashMap<String, String[]>();
+        final AtomicInteger written = new AtomicInteger(), skipped = new AtomicInteger();
+        /** The outputs deleted by {@link #prune}, in order. */
+        final List<String> removed = new ArrayList<String>();
+        /** The outputs looked at in this run, whether current or not. */
+        private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        Manifest(File file) throws IOException {
+            this.file = file;
+            if (!file.exists()) return;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // output, input size, input modified, input hash,
+                    // params hash, output size, output modified
+                    String[] entry = line.split("\t");
+                    if (entry.length == 7) entries.put(entry[0], entry);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        /**
+         * @return whether the output was written from the input as it is
+         * now, with the same parameters, and hasn't been changed since
+         */
+        boolean isCurrent(File in, String out, String params) throws IOException {
+            seen.add(out);
+            String[] entry = entries.get(out);
+            File output = new File(out);
+            if (entry == null || !entry[4].equals(params)
+                    || !entry[5].equals(String.valueOf(output.length()))
+                    || !entry[6].equals(String.valueOf(output.lastModified()))
+                    || !entry[1].equals(String.valueOf(in.length()))) {
+                return false;
+            }
+            String modified = String.valueOf(in.lastModified());
+            if (entry[2].equals(modified)) return true;
+            if (!entry[3].equals(hash(in))) return false;
+            entry = entry.clone();
+            entry[2] = modified; // no need to hash it again next time
+            entries.put(out, entry);
+            return true;
+        }
+
+        /**
+         * Records that an output has just been written from an input.
+         */
+        void record(File in, String hash, String out, String params) {
+            File output = new File(out);
+            entries.put(out, new String[] { out, String.valueOf(in.length()),
+                    String.valueOf(in.lastModified()), hash, params,
+                    String.valueOf(output.length()),
+                    String.valueOf(output.lastModified()) });
+            written.incrementAndGet();
+        }
+
+        /**
+         * Drops the entries for outputs under the given directories that
+         * weren't looked at in this run, since their inputs are gone, and
+         * deletes those outputs unless they've been changed since they were
+         * written. Call it only once every input has been minified.
+         * @param dirs output directories, or nulls to skip
+         */
+        void prune(String... dirs) throws IOException {
+            for (String dir : dirs) {
+                if (dir == null) continue;
+                String prefix = new File(dir).getPath() + File.separator;
+                for (String[] entry : new TreeMap<String, String[]>(entries).values()) {
+                    String out = entry[0];
+                    if (!out.startsWith(prefix) || seen.contains(out)) continue;
+                    File output = new File(out);
+                    if (entry[5].equals(String.valueOf(output.length()))
+                            && entry[6].equals(String.valueOf(output.lastModified()))) {
+                        Files.deleteIfExists(output.toPath());
                     }
-                    wordBuffer.append(c);
-                } else if (c == '\'') {
-                    if (backslashCount == 0 || backslashCount % 2 == 0) {
-                        if (!doubleQuoted) singleQuoted = !singleQuoted;
+                    entries.remove(out);
+                    removed.add(out);
+                }
+            }
+        }
+
+        /**
+         * Writes the manifest, sorted by output, replacing the old one
+         * only once the new one is complete.
+         */
+        void save() throws IOException {
+            File temp = new File(file.getPath() + ".tmp");
+            Writer writer = open(temp.getPath());
+            try {
+                for (String[] entry : new TreeMap<String, String[]>(entries).values()) {
+                    for (int x = 0; x < entry.length; x++) {
+                        if (x > 0) writer.write('\t');
+                        writer.write(entry[x]);
+                    }
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * @return a hash of the parameters that affect an output, including
+         * the tool itself, so that outputs written by an older version of
+         * the tool aren't taken to be current
+         */
+        static String params(String mode, int wrapAt, String header) {
+            try {
+                return hex(sha256().digest((TOOL + '\0' + mode + '\0' + wrapAt + '\0' + header).getBytes("UTF-8")));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private static final String TOOL = toolHash();
+
+        /**
+         * @return a hash of the class files of this tool, which are all
+         * named JavaMinifyTool*.class in the directory it was loaded from,
+         * or of the whole JAR it was loaded from; or an empty string if
+         * neither can be found, in which case changes to the tool go
+         * unnoticed
+         */
+        static String toolHash() {
+            try {
+                CodeSource source = JavaMinifyTool.class.getProtectionDomain().getCodeSource();
+                if (source == null) return "";
+                File location = new File(source.getLocation().toURI());
+                if (location.isFile()) return hash(location);
+                String[] names = location.list();
+                if (names == null) return "";
+                Arrays.sort(names);
+                MessageDigest digest = sha256();
+                for (String name : names) {
+                    if (name.startsWith("JavaMinifyTool") && name.endsWith(".class")) {
+                        digest.update((name + '\0' + hash(new File(location, name)) + '\0').getBytes("UTF-8"));
+                    }
+                }
+                return hex(digest.digest());
+            } catch (IOException | URISyntaxException | IllegalArgumentException | SecurityException e) {
+                return "";
+            }
+        }
+
+        static String hash(File in) throws IOException {
+            MessageDigest digest = sha256();
+            InputStream input = new FileInputStream(in);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = input.read(buffer)) > 0) digest.update(buffer, 0, count);
+            } finally {
+                input.close();
+            }
+            return hex(digest.digest());
+        }
+
+        static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e); // every JRE must support it
+            }
+        }
+
+        static String hex(byte[] bytes) {
+            StringBuilder b = new StringBuilder(bytes.length * 2);
+            for (byte x : bytes) {
+                b.append(Character.forDigit((x >> 4) & 15, 16));
+                b.append(Character.forDigit(x & 15, 16));
+            }
+            return b.toString();
+        }
+    }
+
+    /**
+     * The position of every declaration and use of each private field,
+     * local variable and parameter in a source file, in order, with the
+     * shortest name each can be given. The file is parsed and attributed
+     * with javac, so that each name is resolved to what it refers to rather
+     * than guessed from the text; this needs a JDK, and holds the whole file
+     * in memory. New names never clash with any name left in the file, or
+     * with each other where both are in scope: locals and parameters are
+     * only unique within the outermost method (or initializer) that holds
+     * them, and fields are unique within the file. The most used get the
+     * shortest names.
+     */
+    static final class Renames {
+        private static final List<String> KEYWORDS = Arrays.asList("abstract",
+                "assert", "boolean", "break", "byte", "case", "catch", "char",
+                "class", "const", "continue", "default", "do", "double", "else",
+                "enum", "extends", "false", "final", "finally", "float", "for",
+                "goto", "if", "implements", "import", "instanceof", "int",
+                "interface", "long", "native", "new", "null", "package",
+                "private", "protected", "public", "return", "short", "static",
+                "strictfp", "super", "switch", "synchronized", "this", "throw",
+                "throws", "transient", "true", "try", "void", "volatile", "while",
+                "var", "yield", "record", "sealed", "permits");
+
+        final int[] starts, lengths;
+        final String[] names;
+
+        private Renames(int[] starts, int[] lengths, String[] names) {
+            this.starts = starts;
+            this.lengths = lengths;
+            this.names = names;
+        }
+
+        static Renames find(File in, String sourcePath) throws IOException {
+            JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+            if (javac == null) throw new IOException("renaming needs a JDK, not just a JRE");
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+            StandardJavaFileManager files = javac.getStandardFileManager(diagnostics, null, null);
+            try {
+                JavacTask task = (JavacTask) javac.getTask(null, files, diagnostics,
+                        Arrays.asList("-proc:none", "-implicit:none", "-encoding", "UTF-8",
+                                "-sourcepath", sourcePath, "-classpath", System.getProperty("java.class.path")),
+                        null, files.getJavaFileObjects(in));
+                CompilationUnitTree unit = task.parse().iterator().next();
+                task.analyze();
+                for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                    if (d.getKind() == Diagnostic.Kind.ERROR) {
+                        throw new IOException("can't rename identifiers in " + in + ": " + d);
+                    }
+                }
+                String source = unit.getSourceFile().getCharContent(true).toString();
+                Finder finder = new Finder(Trees.instance(task), unit, source);
+                finder.scan(unit, null);
+                return finder.assign();
+            } finally {
+                files.close();
+            }
+        }
+
+        /**
+         * @return the start and end of every identifier, keyword and
+         * literal word in the source, outside of comments and literals
+         */
+        private static List<int[]> words(String source) {
+            List<int[]> words = new ArrayList<int[]>();
+            int length = source.length();
+            for (int x = 0; x < length; ) {
+                char c = source.charAt(x);
+                if (source.startsWith("//", x)) {
+                    while (x < length && source.charAt(x) != '\n' && source.charAt(x) != '\r') x++;
+                } else if (source.startsWith("/*", x)) {
+                    int end = source.indexOf("*/", x + 2);
+                    x = end < 0 ? length : end + 2;
+                } else if (c == '"' || c == '\'') {
+                    for (x++; x < length && source.charAt(x) != c; x++) {
+                        if (source.charAt(x) == '\\') x++;
                     }
-                    wordBuffer.append(c);
+                    x++;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int start = x;
+                    while (x < length && Character.isJavaIdentifierPart(source.charAt(x))) x++;
+                    words.add(new int[] { start, x });
+                } else if (Character.isDigit(c)) { // a number, such as 0x1FL
+                    while (x < length && (Character.isJavaIdentifierPart(source.charAt(x))
+                            || source.charAt(x) == '.')) x++;
                 } else {
-                    // Not a single or double quote char
-                    if (singleQuoted || doubleQuoted) {
-                        // We're inside quotes, always output everything
-                        wordBuffer.append(c);
-                    }
-                    else if (!Character.isWhitespace(c)) {
-                        // Non-whitespace char outside of quotes, always output
-                        wordBuffer.append(c);
+                    x++;
+                }
+            }
+            return words;
+        }
+
+        /**
+         * The names that may be given to renamed identifiers, shortest
+         * first, other than those already taken.
+         */
+        private static final class Names {
+            private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+            private static final String CHARS = LETTERS + "0123456789";
+            private final Set<String> taken;
+            private final List<String> names = new ArrayList<String>();
+            private int next; // of all names, taken or not
+
+            private Names(Set<String> taken) { this.taken = taken; }
+
+            private String get(int index) {
+                while (names.size() <= index) {
+                    StringBuilder b = new StringBuilder();
+                    int x = next++;
+                    b.append(LETTERS.charAt(x % LETTERS.length()));
+                    x /= LETTERS.length();
+                    while (x > 0) { // bijective base, so every name comes up
+                        x--;
+                        b.append(CHARS.charAt(x % CHARS.length()));
+                        x /= CHARS.length();
+                    }
+                    String name = b.toString();
+                    if (!taken.contains(name)) names.add(name);
+                }
+                return names.get(index);
+            }
+        }
+
+        /**
+         * A field, local variable or parameter to rename.
+         */
+        private static final class Symbol {
+            private final String name;
+            private final com.sun.source.tree.Tree owner; // or null for fields
+            private final List<Integer> positions = new ArrayList<Integer>();
+            private String rename;
+
+            private Symbol(String name, com.sun.source.tree.Tree owner) {
+                this.name = name;
+                this.owner = owner;
+            }
+        }
+
+        /**
+         * Finds the symbols to rename and where they're declared and used.
+         */
+        private static final class Finder extends TreePathScanner<Void, Void> {
+            private final Trees trees;
+            private final CompilationUnitTree unit;
+            private final SourcePositions positions;
+            private final String source;
+            private final List<int[]> words;
+            private final Map<Element, Symbol> symbols = new LinkedHashMap<Element, Symbol>();
+            // where the last of several variables declared together ended
+            private final Map<com.sun.source.tree.Tree, Long> ends =
+                    new IdentityHashMap<com.sun.source.tree.Tree, Long>();
+
+            private Finder(Trees trees, CompilationUnitTree unit, String source) {
+                this.trees = trees;
+                this.unit = unit;
+                this.positions = trees.getSourcePositions();
+                this.source = source;
+                this.words = words(source);
+            }
+
+            public Void visitVariable(VariableTree tree, Void p) {
+                Symbol symbol = symbol();
+                com.sun.source.tree.Tree type = tree.getType();
+                long start = positions.getStartPosition(unit, tree);
+                if (type != null && ends.containsKey(type)) {
+                    start = ends.get(type); // after the one declared before it
+                } else if (type != null) {
+                    start = Math.max(start, positions.getEndPosition(unit, type));
+                }
+                if (type != null) ends.put(type, positions.getEndPosition(unit, tree));
+                if (symbol != null) symbol.positions.add(declaration(start, symbol.name));
+                return super.visitVariable(tree, p);
+            }
+
+            public Void visitIdentifier(IdentifierTree tree, Void p) {
+                Symbol symbol = symbol();
+                if (symbol != null) {
+                    symbol.positions.add((int) positions.getStartPosition(unit, tree));
+                }
+                return super.visitIdentifier(tree, p);
+            }
+
+            public Void visitMemberSelect(MemberSelectTree tree, Void p) {
+                Symbol symbol = symbol();
+                if (symbol != null) {
+                    symbol.positions.add((int) positions.getEndPosition(unit, tree)
+                            - symbol.name.length());
+                }
+                return super.visitMemberSelect(tree, p);
+            }
+
+            /**
+             * @return the symbol for what the current path refers to, or
+             * null if it isn't to be renamed
+             */
+            private Symbol symbol() {
+                Element element = trees.getElement(getCurrentPath());
+                if (element == null) return null;
+                Symbol symbol = symbols.get(element);
+                if (symbol != null) return symbol;
+                String name = element.getSimpleName().toString();
+                switch (element.getKind()) {
+                case FIELD:
+                    if (!element.getModifiers().contains(Modifier.PRIVATE)
+                            || name.equals("serialVersionUID")
+                            || name.equals("serialPersistentFields")) {
+                        return null;
+                    }
+                    symbol = new Symbol(name, null);
+                    break;
+                case LOCAL_VARIABLE:
+                case PARAMETER:
+                case EXCEPTION_PARAMETER:
+                case RESOURCE_VARIABLE:
+                    symbol = new Symbol(name, owner());
+                    break;
+                default:
+                    return null;
+                }
+                symbols.put(element, symbol);
+                return symbol;
+            }
+
+            /**
+             * @return the outermost member of a class, other than a class,
+             * that holds the current path: a method, initializer or field
+             * that every variable in scope here belongs to
+             */
+            private com.sun.source.tree.Tree owner() {
+                com.sun.source.tree.Tree owner = null;
+                for (TreePath path = getCurrentPath(); path.getParentPath() != null; path = path.getParentPath()) {
+                    if (path.getParentPath().getLeaf() instanceof ClassTree
+                            && !(path.getLeaf() instanceof ClassTree)) {
+                        owner = path.getLeaf();
+                    }
+                }
+                return owner;
+            }
+
+            /**
+             * @return the position of the first word at or after start that
+             * is the given name
+             */
+            private int declaration(long start, String name) {
+                int low = 0, high = words.size();
+                while (low < high) { // the first word at or after start
+                    int middle = (low + high) >>> 1;
+                    if (words.get(middle)[0] < start) low = middle + 1;
+                    else high = middle;
+                }
+                for (int x = low; x < words.size(); x++) {
+                    int[] word = words.get(x);
+                    if (word[1] - word[0] == name.length()
+                            && source.startsWith(name, word[0])) {
+                        return word[0];
+                    }
+                }
+                throw new IllegalStateException("no declaration of " + name + " after " + start);
+            }
+
+            /**
+             * Chooses new names, and sorts every rename by position.
+             */
+            private Renames assign() throws IOException {
+                Map<Integer, Symbol> renamed = new TreeMap<Integer, Symbol>();
+                for (Symbol symbol : symbols.values()) {
+                    for (int position : symbol.positions) {
+                        if (!source.startsWith(symbol.name, position)) {
+                            throw new IOException("expected " + symbol.name + " at " + position);
+                        }
+                        renamed.put(position, symbol);
+                    }
+                }
+                Set<String> kept = new HashSet<String>(KEYWORDS);
+                for (int[] word : words) {
+                    if (!renamed.containsKey(word[0])) kept.add(source.substring(word[0], word[1]));
+                }
+                // locals first, as their names can be reused
+                Comparator<Symbol> mostUsed = new Comparator<Symbol>() {
+                    public int compare(Symbol a, Symbol b) {
+                        return b.positions.size() - a.positions.size();
+                    }
+                };
+                Map<com.sun.source.tree.Tree, List<Symbol>> locals =
+                        new LinkedHashMap<com.sun.source.tree.Tree, List<Symbol>>();
+                List<Symbol> fields = new ArrayList<Symbol>();
+                for (Symbol symbol : symbols.values()) {
+                    if (symbol.owner == null) {
+                        fields.add(symbol);
+                        continue;
+                    }
+                    List<Symbol> list = locals.get(symbol.owner);
+                    if (list == null) locals.put(symbol.owner, list = new ArrayList<Symbol>());
+                    list.add(symbol);
+                }
+                Names names = new Names(kept);
+                Set<String> localNames = new HashSet<String>();
+                for (List<Symbol> list : locals.values()) {
+                    Collections.sort(list, mostUsed);
+                    for (int x = 0; x < list.size(); x++) {
+                        list.get(x).rename = names.get(x);
+                        localNames.add(list.get(x).rename);
+                    }
+                }
+                Collections.sort(fields, mostUsed);
+                kept.addAll(localNames);
+                names = new Names(kept);
+                for (int x = 0; x < fields.size(); x++) fields.get(x).rename = names.get(x);
+                int count = 0;
+                for (Map.Entry<Integer, Symbol> entry : renamed.entrySet()) {
+                    if (!entry.getValue().rename.equals(entry.getValue().name)) count++;
+                }
+                int[] starts = new int[count], lengths = new int[count];
+                String[] newNames = new String[count];
+                int x = 0;
+                for (Map.Entry<Integer, Symbol> entry : renamed.entrySet()) {
+                    Symbol symbol = entry.getValue();
+                    if (symbol.rename.equals(symbol.name)) continue;
+                    starts[x] = entry.getKey();
+                    lengths[x] = symbol.name.length();
+                    newNames[x++] = symbol.rename;
+                }
+                return new Renames(starts, lengths, newNames);
+            }
+        }
+    }
+
+    /**
+     * Strips comments from Java source and passes the code and literals
+     * that remain to its outputs, one char at a time.
+     */
+    private static final class Minifier {
+        // States of the lexer.
+        private static final int CODE = 0, SLASH = 1, LINE_COMMENT = 2,
+                BLOCK_COMMENT = 3, BLOCK_STAR = 4, STRING = 5,
+                STRING_ESCAPE = 6, CHAR = 7, CHAR_ESCAPE = 8;
+
+        private final Renames renames; // or null
+        private final Output[] outputs;
+        private int state = CODE;
+        private boolean cr; // whether the last char ended a line with '\r'
+        private int next; // the index of the next rename in renames
+
+        private Minifier(Renames renames, Output... outputs) {
+            this.renames = renames;
+            this.outputs = outputs;
+        }
+
+        private void minify(Reader in) throws IOException {
+            char[] buffer = new char[8192];
+            int count, position = 0, end = 0; // end of a renamed identifier
+            while ((count = in.read(buffer)) > 0) {
+                for (int x = 0; x < count; x++, position++) {
+                    if (renames != null && next < renames.starts.length
+                            && position == renames.starts[next]) {
+                        end = position + renames.lengths[next];
+                        rename(renames.names[next++]);
+                    }
+                    if (position < end) {
+                        // the original identifier, for the other outputs
+                        for (Output output : outputs) {
+                            if (!output.renamed) output.code(buffer[x]);
+                        }
                     } else {
-                        // else, it's a whitespace char outside of quotes.
-                        // Begin collapse.
-                        collapsingWhitespace = true;
+                        accept(buffer[x]);
                     }
                 }
-                backslashCount = 0;
             }
+            if (state == SLASH) code('/');
+            for (Output output : outputs) output.finish();
+        }
+
+        /**
+         * Advances the state machine by one char of input.
+         */
+        private void accept(char c) throws IOException {
+            switch (state) {
+            case SLASH:
+                if (c == '/') { state = LINE_COMMENT; return; }
+                if (c == '*') { state = BLOCK_COMMENT; return; }
+                state = CODE;
+                code('/');
+                break; // c is handled as code, below
+            case LINE_COMMENT:
+                if (c != '\n' && c != '\r') return;
+                state = CODE;
+                break; // the line break is handled as code, below
+            case BLOCK_COMMENT:
+                if (c == '*') state = BLOCK_STAR;
+                return;
+            case BLOCK_STAR:
+                if (c == '/') {
+                    state = CODE;
+                    cr = false;
+                    // a comment separates tokens, like a space
+                    for (Output output : outputs) output.separate();
+                } else if (c != '*') {
+                    state = BLOCK_COMMENT;
+                }
+                return;
+            case STRING:
+            case CHAR:
+                if (c == '\\') state++; // to the matching escape state
+                else if (c == (state == STRING ? '"' : '\'')) state = CODE;
+                literal(c);
+                return;
+            case STRING_ESCAPE:
+            case CHAR_ESCAPE:
+                state--;
+                literal(c);
+                return;
+            }
+            // state == CODE
+            if (c == '/') { state = SLASH; return; }
+            if (c == '"') state = STRING;
+            else if (c == '\'') state = CHAR;
+            code(c);
+        }
+
+        /**
+         * Passes a new name for the identifier that starts here to the
+         * outputs that rename identifiers.
+         */
+        private void rename(String name) throws IOException {
+            if (state == SLASH) { // a division, just before the identifier
+                state = CODE;
+                code('/');
+            }
+            cr = false;
+            for (Output output : outputs) {
+                if (!output.renamed) continue;
+                for (int x = 0; x < name.length(); x++) output.code(name.charAt(x));
+            }
+        }
+
+        /**
+         * Handles a char of code outside of comments and literals.
+         */
+        private void code(char c) throws IOException {
+            boolean lf = c == '\n', wasCr = cr;
+            cr = c == '\r';
+            if (cr || lf) {
+                if (!(lf && wasCr)) {
+                    for (Output output : outputs) output.newline();
+                }
+            } else {
+                for (Output output : outputs) output.code(c);
+            }
+        }
+
+        /**
+         * Handles a char inside a string or char literal.
+         */
+        private void literal(char c) {
+            cr = false;
+            for (Output output : outputs) output.pending.append(c);
+        }
+    }
+
+    /**
+     * Receives the code and literals that remain once comments are gone,
+     * and writes them out in some form. Only the current line or word is
+     * ever held in memory.
+     */
+    private static abstract class Output {
+        final Writer out;
+        final boolean renamed; // whether it takes the names from Renames
+        final StringBuilder pending = new StringBuilder(); // line or word
+
+        Output(Writer out, boolean renamed) {
+            this.out = out;
+            this.renamed = renamed;
+        }
+
+        /** Handles a char of code, other than a line break. */
+        abstract void code(char c) throws IOException;
+
+        /** Handles the end of a line of code. */
+        abstract void newline() throws IOException;
+
+        /** Ensures that the code on either side of a comment stays apart. */
+        abstract void separate() throws IOException;
+
+        /** Writes out anything still pending at the end of the input. */
+        abstract void finish() throws IOException;
+
+        /**
+         * @return whether c is whitespace, as per the regex class \s
+         */
+        static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\013'
+                    || c == '\f' || c == '\r';
+        }
+    }
+
+    /**
+     * Writes compact output: code without comments, trailing whitespace or
+     * blank lines.
+     */
+    private static final class Compact extends Output {
+        Compact(Writer out) { super(out, false); }
+
+        void code(char c) { pending.append(c); }
+
+        void newline() throws IOException { finish(); }
+
+        void separate() {
+            int len = pending.length();
+            if (len > 0 && !isSpace(pending.charAt(len - 1))) pending.append(' ');
+        }
+
+        /**
+         * Writes the current line without trailing whitespace, unless it
+         * is blank.
+         */
+        void finish() throws IOException {
+            int end = pending.length();
+            while (end > 0 && isSpace(pending.charAt(end - 1))) end--;
+            if (end > 0) {
+                out.append(pending, 0, end);
+                out.write('\n');
+            }
+            pending.setLength(0);
+        }
+    }
+
+    /**
+     * Writes min output: the words of the code, wrapped into lines, with a
+     * space between two words only where the tokens on either side would
+     * otherwise run together.
+     */
+    private static final class Min extends Output {
+        private final int wrapAt;
+        private int column; // the length of the output line so far
+        private boolean started; // whether any word was written
+        private char last; // the last char written
+
+        Min(Writer out, int wrapAt, boolean renamed) {
+            super(out, renamed);
+            this.wrapAt = wrapAt;
+        }
+
+        void code(char c) throws IOException {
+            if (Character.isWhitespace(c)) endWord();
+            else pending.append(c);
+        }
+
+        void newline() throws IOException { endWord(); }
+
+        void separate() throws IOException { endWord(); }
+
+        void finish() throws IOException {
+            endWord();
+            if (started) out.write('\n');
+        }
+
+        /**
+         * Writes the current word after a space, or on a new line if it
+         * would otherwise make the line longer than wrapAt.
+         */
+        private void endWord() throws IOException {
+            int len = pending.length();
+            if (len == 0) return;
+            boolean space = started && needsSpace(last, pending.charAt(0));
+            if (started && column + (space ? 1 : 0) + len > wrapAt) {
+                out.write('\n');
+                column = 0;
+            } else if (space) {
+                out.write(' ');
+                column++;
+            }
+            out.append(pending);
+            column += len;
+            last = pending.charAt(len - 1);
+            started = true;
+            pending.setLength(0);
+        }
+
+        /**
+         * @return whether two words, the first ending in before and the
+         * second starting with after, would lex differently if they were
+         * joined without a space: identifiers, keywords and numbers would
+         * run together, - - and + + would become -- and ++, and a / would
+         * start a comment if followed by / or *.
+         */
+        static boolean needsSpace(char before, char after) {
+            if (Character.isJavaIdentifierPart(before)) {
+                return Character.isJavaIdentifierPart(after);
+            }
+            return (before == after && (before == '+' || before == '-'))
+                    || (before == '/' && (after == '/' || after == '*'));
         }
-        if (wordBuffer.length() > 0) words.add(wordBuffer.toString());
-        return words;
     }
 }
@@ -14,6 +14,15 @@
 
 /**
  * A simple class for configuring and parsing command-line options.
+ * <p>
+ * Configure every option before parsing. The options are compiled into a
+ * {@link Schema} when they are parsed, and queries such as
+ * {@link #has(String)} answer from the most recent parse, so they only
+ * know the options that were configured at that time. An option added
+ * after a parse can't be queried until the next parse: until then, queries
+ * for it throw {@link UnsupportedOptionException}, just like those for an
+ * option that was never configured. (Before schemas were compiled, such
+ * queries returned false or null.)
  * @author Andrew Hayden
  * @version 1.1
  */
@@ -28,57 +37,1921 @@ public class MicroOptions {
      * Thrown when the parser encounters an option that has not been defined.
      */
     public static class UnsupportedOptionException extends OptionException {
+        private final String o;
+        private final transient Schema s; // to find suggestions in, or null
+        private java.util.List<String> suggestions; // or null until found
         public UnsupportedOptionException(String o) {
-            super("Unsupported option '" + o + "'"); } }
+            this(o, java.util.Collections.<String>emptyList()); }
+        public UnsupportedOptionException(String o,
+                java.util.List<String> suggestions) {
+            this(o, suggestions, null); }
+        private UnsupportedOptionException(String o,
+                java.util.List<String> suggestions, Schema s) {
+            super(Diagnostic.describe(Diagnostic.Kind.UNSUPPORTED_OPTION, o,
+                    null, null));
+            this.o = o; this.suggestions = suggestions; this.s = s; }
+        /**
+         * @return the names of the defined options nearest to the one
+         * given, e.g. "verbose" for "verbsoe", sorted by name if several
+         * are equally near; empty if none are near. If the option given is
+         * defined but was written with the wrong hyphens, e.g. "verbose",
+         * the one suggestion is the right form, "--verbose". They're only
+         * looked for the first time this is called.
+         */
+        public java.util.List<String> getSuggestions() {
+            java.util.List<String> l = suggestions;
+            if (l == null) suggestions = l = s == null
+                    ? java.util.Collections.<String>emptyList() : s.suggest(o);
+            return l;
+        }
+    }
+
+    /**
+     * Thrown when the parser encounters a command that has not been defined.
+     */
+    public static class UnsupportedCommandException extends OptionException {
+        public UnsupportedCommandException(String c) {
+            super(Diagnostic.describe(Diagnostic.Kind.UNSUPPORTED_COMMAND, c,
+                    null, null)); } }
+
+    /**
+     * Thrown when the parser can't find the argument for a non-unary option.
+     */
+    public static class MissingArgException extends OptionException {
+        public MissingArgException(String o) {
+            super(Diagnostic.describe(Diagnostic.Kind.MISSING_ARG, o,
+                    null, null)); } }
+
+    /**
+     * Thrown when the parser can't find a required option.
+     */
+    public static class RequiredOptionException extends OptionException {
+        public RequiredOptionException(String o) {
+            super(Diagnostic.describe(Diagnostic.Kind.REQUIRED_OPTION, o,
+                    null, null)); } }
+
+    /**
+     * Thrown when the argument to a typed option can't be converted.
+     */
+    public static class ConversionException extends OptionException {
+        public ConversionException(String o, String value, String type) {
+            super(Diagnostic.describe(Diagnostic.Kind.CONVERSION, o,
+                    value, type)); } }
+
+    /**
+     * A problem found by {@link Schema#validate(String...)}. Diagnostics
+     * describe the same problems as the exceptions thrown by parsing, but
+     * are plain objects without stack traces, so they are cheap to collect.
+     */
+    public static final class Diagnostic {
+        /**
+         * The kinds of problem, one for each exception thrown by parsing.
+         */
+        public enum Kind { UNSUPPORTED_OPTION, MISSING_ARG, REQUIRED_OPTION,
+                CONVERSION, UNSUPPORTED_COMMAND }
+
+        private final Kind k;
+        private final String o, v, t; // option or token, argument, type
+        private final Schema s; // to find suggestions in, or null
+        private java.util.List<String> suggestions; // or null until found
+
+        private Diagnostic(Kind k, String o, String v, String t, Schema s) {
+            this.k = k; this.o = o; this.v = v; this.t = t; this.s = s; }
+
+        /**
+         * @return the kind of problem
+         */
+        public Kind getKind() { return k; }
+
+        /**
+         * @return the name of the option concerned, or for an unsupported
+         * option or command, the offending token (less any leading hyphens
+         * if it is syntactically an option)
+         */
+        public String getOption() { return o; }
+
+        /**
+         * @return for an unsupported option, the names of the defined
+         * options nearest to the one given; otherwise empty. They're only
+         * looked for the first time this is called, so collecting
+         * diagnostics costs nothing extra.
+         * @see UnsupportedOptionException#getSuggestions()
+         */
+        public java.util.List<String> getSuggestions() {
+            java.util.List<String> l = suggestions;
+            if (l == null) suggestions = l = s == null
+                    ? java.util.Collections.<String>emptyList() : s.suggest(o);
+            return l;
+        }
+
+        /**
+         * @return the same message as the equivalent exception
+         */
+        public String getMessage() { return describe(k, o, v, t); }
+
+        /**
+         * @return the equivalent exception, e.g. to rethrow it
+         */
+        public OptionException toException() {
+            switch (k) {
+            case UNSUPPORTED_OPTION:
+                return new UnsupportedOptionException(o, suggestions, s);
+            case MISSING_ARG: return new MissingArgException(o);
+            case REQUIRED_OPTION: return new RequiredOptionException(o);
+            case UNSUPPORTED_COMMAND: return new UnsupportedCommandException(o);
+            default: return new ConversionException(o, v, t);
+            }
+        }
+
+        public String toString() { return getMessage(); }
+
+        private static java.util.List<String> list(String[] s) {
+            if (s == null) return java.util.Collections.emptyList();
+            return java.util.Collections.unmodifiableList(
+                    java.util.Arrays.asList(s));
+        }
+
+        private static String describe(Kind k, String o, String v, String t) {
+            switch (k) {
+            case UNSUPPORTED_OPTION: return "Unsupported option '" + o + "'";
+            case MISSING_ARG: return "Missing argument for option '" + o + "'";
+            case REQUIRED_OPTION: return "Missing required option '" + o + "'";
+            case UNSUPPORTED_COMMAND: return "Unsupported command '" + o + "'";
+            default:
+                return "Invalid " + t + " '" + v + "' for option '" + o + "'";
+            }
+        }
+    }
+
+    /**
+     * Where the value of an option came from, in order of precedence.
+     * @see Result#getSource(String)
+     */
+    public enum Source { COMMAND_LINE, ENVIRONMENT, SYSTEM_PROPERTY, DEFAULT }
+
+    /**
+     * Receives notifications of parses and lookups, e.g. to keep metrics.
+     * Every method does nothing by default; override the ones of interest.
+     * Notifications may come from many threads at once, e.g. during
+     * {@link Schema#parseAll(Iterable, int)}. When no listener is installed
+     * the only cost to parsing and lookups is a check for null.
+     * @see MicroOptions#withListener(Listener)
+     */
+    public static abstract class Listener {
+        /** Called before a parse consumes its first token. */
+        public void parseStarted() {}
+
+        /**
+         * Called for each problem found during a parse, whether it is about
+         * to be thrown or collected by {@link Schema#validate(String...)}.
+         * @param problem the problem
+         */
+        public void problemFound(Diagnostic problem) {}
+
+        /**
+         * Called when a parse has finished, successfully or not.
+         * @param tokens the number of tokens consumed, including those read
+         * from argument files
+         * @param nanos the time taken, in nanoseconds
+         * @param failed whether the parse threw an exception
+         */
+        public void parseFinished(int tokens, long nanos, boolean failed) {}
+
+        /**
+         * Called for each lookup of an option in a result, e.g. by
+         * {@link Result#getArg(String, String)}.
+         * @param option the name of the option
+         * @param found whether the option was present; if not, the lookup
+         * falls back to its default value
+         */
+        public void lookedUp(String option, boolean found) {}
+    }
+
+    /**
+     * Core class for defining options using builder-style methods. An
+     * option is also a handle for reading its own value after parsing,
+     * e.g. {@link #isPresent()}, without any lookup by name.
+     */
+    public class Option{
+        private String n,d; // name, description
+        private boolean u,r,m; // unary, required, repeatable (multi-valued)
+        private byte t; // type of argument, one of the Schema type constants
+        private Enum<?>[] e; // constants, iff the argument is an enum
+        private String ev,sp,dv; // environment variable, property, default
+        // where this option was most recently compiled, if anywhere; the
+        // schema and index are published together, so no thread can read
+        // the schema of one compile with the index of another
+        private volatile Slot slot;
+        private Option(String n) { this.n = n; }
+
+        /**
+         * Provides a human-readable description for this option.
+         * @param d the description
+         * @return this option
+         */
+        public Option describedAs(String d) {
+            this.d = d; schema = null; return this; }
+
+        /**
+         * Specifies that this option is required.
+         * @return this option
+         */
+        public Option isRequired() {
+            this.r = true; schema = null; return this; }
+
+        /**
+         * Specifies that this option takes no arguments.
+         * @return this option
+         */
+        public Option isUnary() {
+            this.u = true; schema = null; return this; }
+
+        /**
+         * Specifies that this option may be repeated, and that the arguments
+         * of every occurrence are kept rather than just the last. Unary
+         * options needn't be repeatable to be counted.
+         * @return this option
+         * @see MicroOptions#getArgs(String)
+         * @see MicroOptions#getCount(String)
+         */
+        public Option isRepeatable() {
+            this.m = true; schema = null; return this; }
+
+        /**
+         * Specifies that this option takes an int argument.
+         * @return this option
+         * @see MicroOptions#getInt(String, int)
+         */
+        public Option isInt() { return typed(Schema.INT, null); }
+
+        /**
+         * Specifies that this option takes a long argument.
+         * @return this option
+         * @see MicroOptions#getLong(String, long)
+         */
+        public Option isLong() { return typed(Schema.LONG, null); }
+
+        /**
+         * Specifies that this option takes a double argument, written in
+         * decimal with an optional exponent, e.g. 2.5 or -1e-3. NaN,
+         * Infinity and surrounding whitespace are rejected, as are the other
+         * forms {@link Double#parseDouble(String)} accepts, e.g. hexadecimal.
+         * @return this option
+         * @see MicroOptions#getDouble(String, double)
+         */
+        public Option isDouble() { return typed(Schema.DOUBLE, null); }
+
+        /**
+         * Specifies that this option takes a boolean argument: one of true,
+         * false, yes, no, on, off, 1 or 0 (ignoring case).
+         * @return this option
+         * @see MicroOptions#getBoolean(String, boolean)
+         */
+        public Option isBoolean() { return typed(Schema.BOOLEAN, null); }
+
+        /**
+         * Specifies that this option takes the name of one of the constants
+         * of an enum, preferably in the same case.
+         * @param type the enum class
+         * @return this option
+         * @see MicroOptions#getEnum(String, Enum)
+         */
+        public Option isEnum(Class<? extends Enum<?>> type) {
+            return typed(Schema.ENUM, type.getEnumConstants()); }
+
+        /**
+         * Specifies that this option takes a size in bytes, with an optional
+         * binary suffix of k, m, g, t or p, optionally followed by b and in
+         * either case; e.g., 4096, 64k or 512MB.
+         * @return this option
+         * @see MicroOptions#getByteSize(String, long)
+         */
+        public Option isByteSize() { return typed(Schema.BYTES, null); }
+
+        /**
+         * Specifies that this option takes a duration with a unit of ns, us,
+         * ms, s, m, h or d; e.g., 250ms or 30s. Milliseconds are assumed if
+         * no unit is given.
+         * @return this option
+         * @see MicroOptions#getDuration(String, java.util.concurrent.TimeUnit,
+         * long)
+         */
+        public Option isDuration() { return typed(Schema.DURATION, null); }
+
+        /**
+         * Specifies an environment variable to take this option's value from
+         * when it is not given on the command line. For a unary option, the
+         * variable's value must be a boolean as per {@link #isBoolean()}.
+         * @param variable the name of the environment variable
+         * @return this option
+         * @see Result#getSource(String)
+         */
+        public Option fromEnv(String variable) {
+            this.ev = variable; schema = null; return this; }
+
+        /**
+         * Specifies a system property to take this option's value from when
+         * it is given neither on the command line nor by its environment
+         * variable. For a unary option, the property's value must be a
+         * boolean as per {@link #isBoolean()}.
+         * @param key the name of the system property
+         * @return this option
+         * @see Result#getSource(String)
+         */
+        public Option fromProperty(String key) {
+            this.sp = key; schema = null; return this; }
+
+        /**
+         * Specifies a value for this option to take when it is not found on
+         * the command line or in its environment variable or system
+         * property. The default takes effect during parsing exactly as if
+         * it had been given on the command line, and so also satisfies
+         * {@link #isRequired()}.
+         * @param value the default value; for a unary option, a boolean
+         * @return this option
+         * @see Result#getSource(String)
+         */
+        public Option defaultsTo(String value) {
+            this.dv = value; schema = null; return this; }
+
+        private Option typed(byte t, Enum<?>[] e) {
+            this.t = t; this.e = e; schema = null; return this; }
+
+        /**
+         * Returns true iff this option was encountered during the most
+         * recent successful parse, like {@link MicroOptions#has(String)} but
+         * without checking or looking up the name.
+         * @return true if so, otherwise false
+         */
+        public boolean isPresent() { return isPresent(current()); }
+
+        /**
+         * @param result a result of parsing against a schema compiled with
+         * this option, e.g. by {@link Schema#parse(String...)}
+         * @return true iff this option was encountered during that parse
+         * @throws UnsupportedOptionException if the result's schema doesn't
+         * have this option
+         * @see Result#has(String)
+         */
+        public boolean isPresent(Result result) {
+            return result.found(n, indexIn(result.s)); }
+
+        /**
+         * Returns the argument given for this option in the most recent
+         * successful parse, like {@link MicroOptions#getArg(String)} but
+         * without checking or looking up the name.
+         * @return the argument, or null if the option was not encountered
+         * @throws OptionException if the option is unary
+         */
+        public String value() { return value(current()); }
+
+        /**
+         * @param result a result of parsing against a schema compiled with
+         * this option, e.g. by {@link Schema#parse(String...)}
+         * @return the argument given for this option in that parse, or null
+         * if the option was not encountered
+         * @throws UnsupportedOptionException if the result's schema doesn't
+         * have this option
+         * @throws OptionException if the option is unary
+         * @see Result#getArg(String)
+         */
+        public String value(Result result) {
+            int x = indexIn(result.s);
+            if ((result.s.f[x] & Schema.UNARY) != 0) throw new OptionException(
+                    "Option takes no arguments: " + n);
+            return result.found(n, x) ? result.v[x] : null;
+        }
+
+        /**
+         * @return the index of this option in the given schema: the slot
+         * recorded when the schema was compiled, or else (if the options
+         * have been changed and compiled again since) found by name
+         */
+        private int indexIn(Schema schema) {
+            Slot slot = this.slot;
+            return slot != null && slot.s == schema ? slot.x
+                    : schema.indexOf(n);
+        }
+    }
+
+    /**
+     * The index of an option in a schema compiled with it. Immutable, so it
+     * can be published through a single volatile write.
+     */
+    private static final class Slot {
+        private final Schema s;
+        private final int x;
+        private Slot(Schema s, int x) { this.s = s; this.x = x; }
+    }
+
+    /**
+     * Declares the options of a command on demand, so that only the
+     * command actually invoked has its options built.
+     * @see MicroOptions#command(String)
+     */
+    public interface Configurer {
+        /**
+         * Declares the options of a command, e.g. with
+         * {@link MicroOptions#option(String)}.
+         * @param options the options of the command, initially empty
+         */
+        void configure(MicroOptions options);
+    }
+
+    /**
+     * Class for defining commands (e.g., "commit" in "git commit -a") using
+     * builder-style methods.
+     */
+    public class Command {
+        private String n,d; // name, description
+        private Object c; // a Configurer, or the name of a Configurer class
+        private Command(String n) { this.n = n; }
+
+        /**
+         * Provides a human-readable description for this command.
+         * @param d the description
+         * @return this command
+         */
+        public Command describedAs(String d) {
+            this.d = d; schema = null; return this; }
+
+        /**
+         * Specifies the configurer that declares the options of this
+         * command. It is called at most once per compiled schema, the first
+         * time the command is invoked or its usage is needed, even if
+         * several threads need it at once.
+         * @param configurer the configurer
+         * @return this command
+         */
+        public Command configuredBy(Configurer configurer) {
+            this.c = configurer; schema = null; return this; }
+
+        /**
+         * Specifies the configurer that declares the options of this
+         * command by the name of its class, which must implement
+         * {@link Configurer} and have a public no-arg constructor. The
+         * class isn't loaded until the command is invoked or its usage is
+         * needed, so tools with many commands pay only for the one used.
+         * @param className the fully-qualified name of the class
+         * @return this command
+         */
+        public Command configuredBy(String className) {
+            this.c = className; schema = null; return this; }
+    }
+
+    /**
+     * An immutable snapshot of a set of configured options. A schema can be
+     * shared freely between threads and used to parse any number of command
+     * lines; each parse returns its own {@link Result}.
+     * @see MicroOptions#compile()
+     */
+    public static final class Schema {
+        private static final byte UNARY = 1, REQUIRED = 2, REPEATABLE = 4;
+        private static final int CHUNK = 256; // lines claimed at a time
+        private static final int WINDOW = 1 << 26; // bytes mapped at a time
+        private static final String SPACES = "                ";
+        // Thrown internally for invalid typed arguments; its stack trace is
+        // never shown, so one shared instance saves building a trace each time.
+        private static final NumberFormatException INVALID =
+                new NumberFormatException();
+        private static final String MAX_INT = "" + Integer.MAX_VALUE,
+                MAX_LONG = "" + Long.MAX_VALUE;
+        // Argument types, stored in the flags above the bits for UNARY,
+        // REQUIRED and REPEATABLE. All but STRING are converted into a long
+        // during parsing.
+        private static final byte STRING = 0, INT = 1, LONG = 2, DOUBLE = 3,
+                BOOLEAN = 4, ENUM = 5, BYTES = 6, DURATION = 7;
+        private static final String[] TYPES = { "string", "int", "long",
+                "double", "boolean", "enum", "byte size", "duration" };
+        private static final String[] BYTE_UNITS = { "", "b", "k", "kb", "m",
+                "mb", "g", "gb", "t", "tb", "p", "pb" };
+        private static final long[] BYTE_SCALES = { 1L, 1L, 1L << 10,
+                1L << 10, 1L << 20, 1L << 20, 1L << 30, 1L << 30, 1L << 40,
+                1L << 40, 1L << 50, 1L << 50 };
+        private static final String[] TIME_UNITS = { "", "ns", "us", "ms",
+                "s", "m", "h", "d" }; // no unit means milliseconds
+        private static final long[] TIME_SCALES = { 1000000L, 1L, 1000L,
+                1000000L, 1000000000L, 60000000000L, 3600000000000L,
+                86400000000000L };
+        // Options are stored as a table of parallel arrays sorted by name,
+        // rather than as one object per option.
+        private final String[] n, d; // names (sorted), descriptions
+        private final byte[] f; // flags: UNARY, REQUIRED, REPEATABLE, type << 3
+        private final Enum<?>[][] e; // enum constants, for ENUM options
+        private final boolean typed; // whether any option has a type
+        private final int[] req; // indices of all required options
+        private final int[] lay; // indices of options with other sources
+        private final String[][] src; // variable, property and default
+        private final int[] h; // open-addressed hash index of names; slot+1
+        private final boolean abbrev; // whether long names can be shortened
+        private final boolean argFiles; // whether to expand "@file" tokens
+        private final boolean pos; // whether to accept positional arguments
+        private final Listener listener; // notified of activity, or null
+        private final String[] cn, cd; // command names (sorted), descriptions
+        private final Object[] cc; // Configurers or class names, per command
+        private final Schema[] cs; // schemas of commands, built on demand
+        private final int w; // max length of any option name, for alignment
+        private String usage; // rendered lazily by usageString()
+        private Grams grams; // built lazily by suggest(String)
+
+        private Schema(MicroOptions m) {
+            java.util.Collection<Option> options = m.opts.values();
+            int size = options.size(), x = 0, required = 0;
+            n = new String[size]; d = new String[size]; f = new byte[size];
+            e = new Enum<?>[size][];
+            src = new String[size][];
+            boolean typed = false;
+            int layered = 0;
+            for (Option o : options) {
+                if (o.u && o.t != STRING) throw new OptionException(
+                        "Unary option can't have a type: " + o.n);
+                n[x] = o.n; d[x] = o.d; e[x] = o.e;
+                f[x] = (byte) ((o.u ? UNARY : 0) | (o.r ? REQUIRED : 0)
+                        | (o.m ? REPEATABLE : 0) | o.t << 3);
+                typed |= o.t != STRING;
+                if (o.r) required++;
+                if (o.ev != null || o.sp != null || o.dv != null) {
+                    src[x] = new String[] { o.ev, o.sp, o.dv };
+                    layered++;
+                }
+                x++;
+            }
+            lay = new int[layered];
+            for (x = 0, layered = 0; x < size; x++)
+                if (src[x] != null) lay[layered++] = x;
+            this.typed = typed; abbrev = m.abbrev; argFiles = m.argFiles;
+            pos = m.positionals; listener = m.listener;
+            int commands = m.cmds.size();
+            cn = new String[commands]; cd = new String[commands];
+            cc = new Object[commands]; cs = new Schema[commands];
+            x = 0;
+            for (Command c : m.cmds.values()) {
+                cn[x] = c.n; cd[x] = c.d; cc[x++] = c.c; }
+            int max = 0;
+            for (String s : n) max = Math.max(s.length(), max);
+            for (String s : cn) max = Math.max(s.length(), max);
+            w = max;
+            req = new int[required];
+            for (x = 0, required = 0; x < size; x++)
+                if ((f[x] & REQUIRED) != 0) req[required++] = x;
+            h = new int[Integer.highestOneBit(size * 2 + 1) * 2];
+            for (x = 0; x < size; x++) {
+                int slot = n[x].hashCode() & (h.length - 1);
+                while (h[slot] != 0) slot = (slot + 1) & (h.length - 1);
+                h[slot] = x + 1;
+            }
+        }
+
+        /**
+         * @return a human-readable usage string, rendered only once
+         */
+        public String usageString() {
+            if (usage == null) {
+                StringBuilder b = new StringBuilder(n.length * (w + 40));
+                try { appendUsage(b, 0); }
+                catch (java.io.IOException e) { throw new AssertionError(e); }
+                usage = b.toString(); // immutable, so safe to share
+            }
+            return usage;
+        }
+
+        /**
+         * Writes the usage string to the specified destination, without
+         * first building it in memory. If a width is given, descriptions are
+         * wrapped at spaces so that lines fit within it where possible, with
+         * continuation lines indented to line up with the description.
+         * @param out the destination, e.g. a Writer or System.err
+         * @param width the maximum line length, or 0 for no wrapping
+         * @throws java.io.IOException if the destination throws it
+         */
+        public void appendUsage(Appendable out, int width)
+                throws java.io.IOException {
+            int indent = w + 12; // "--", name, and the [ARG] column
+            for (int x = 0; x < n.length; x++) {
+                out.append(n[x].length() == 1 ? " -" : "--").append(n[x]);
+                pad(out, w - n[x].length());
+                out.append((f[x] & UNARY) != 0 ? "          " : " [ARG]    ");
+                String tail =
+                        (f[x] & REQUIRED) != 0 ? "(required)" : "(optional)";
+                if (width <= 0) {
+                    if (d[x] != null) out.append(d[x]).append(' ');
+                    out.append(tail);
+                } else {
+                    wrap(out, d[x] == null ? tail : d[x] + ' ' + tail,
+                            indent, width);
+                }
+                if (x + 1 < n.length + cn.length) out.append('\n');
+            }
+            for (int x = 0; x < cn.length; x++) {
+                out.append("  ").append(cn[x]);
+                pad(out, indent - 2 - cn[x].length());
+                if (width <= 0) {
+                    if (cd[x] != null) out.append(cd[x]).append(' ');
+                    out.append("(command)");
+                } else {
+                    wrap(out, cd[x] == null ? "(command)"
+                            : cd[x] + " (command)", indent, width);
+                }
+                if (x + 1 < cn.length) out.append('\n');
+            }
+        }
+
+        /**
+         * @param name the name of a command
+         * @return the schema of the command's options, which is built the
+         * first time it is needed, e.g. for its usage string
+         * @throws UnsupportedCommandException if the command is not in this
+         * schema
+         * @throws OptionException if the command's configurer can't be
+         * created
+         * @see MicroOptions#command(String)
+         */
+        public Schema command(String name) {
+            int x = java.util.Arrays.binarySearch(cn, name);
+            if (x < 0) throw new UnsupportedCommandException(name);
+            return command(x);
+        }
+
+        /**
+         * @return the names of the options in this schema, in order, e.g.
+         * for generating shell completions
+         */
+        public java.util.List<String> getOptions() {
+            return Diagnostic.list(n); }
+
+        /**
+         * @return the names of the commands in this schema, in order
+         */
+        public java.util.List<String> getCommands() {
+            return Diagnostic.list(cn); }
+
+        /**
+         * @param command the name of a command
+         * @return the name of the class of the command's configurer, or
+         * null if it has none. The class isn't loaded, so this is cheap.
+         * @throws UnsupportedCommandException if the command is not in this
+         * schema
+         */
+        public String getConfigurerName(String command) {
+            int x = java.util.Arrays.binarySearch(cn, command);
+            if (x < 0) throw new UnsupportedCommandException(command);
+            return cc[x] == null || cc[x] instanceof String ? (String) cc[x]
+                    : cc[x].getClass().getName();
+        }
+
+        /**
+         * @param option the name of an option
+         * @return whether the option is unary, i.e. takes no argument
+         * @throws UnsupportedOptionException if the option is not in this
+         * schema
+         */
+        public boolean isUnary(String option) {
+            return (f[indexOf(option)] & UNARY) != 0; }
+
+        /**
+         * @param option the name of an option
+         * @return the option's description, or null if it has none
+         * @throws UnsupportedOptionException if the option is not in this
+         * schema
+         */
+        public String getDescription(String option) {
+            return d[indexOf(option)]; }
+
+        /**
+         * Builds the schema of a command the first time it is needed. The
+         * command inherits this schema's settings and listener. Building
+         * holds a lock, so a configurer runs only once even if threads race
+         * for the command, but a built schema is read without locking: that
+         * is safe since its fields are final.
+         */
+        private Schema command(int x) {
+            Schema s = cs[x];
+            if (s != null) return s;
+            synchronized (cs) {
+                if ((s = cs[x]) != null) return s;
+                Configurer c;
+                try {
+                    c = cc[x] instanceof String ? (Configurer) Class.forName(
+                            (String) cc[x]).getConstructor().newInstance()
+                            : (Configurer) cc[x];
+                } catch (Exception e) {
+                    throw new OptionException("Unable to configure command '"
+                            + cn[x] + "': " + e);
+                }
+                MicroOptions m = new MicroOptions();
+                m.abbrev = abbrev; m.argFiles = argFiles; m.positionals = pos;
+                m.listener = listener;
+                if (c != null) c.configure(m);
+                return cs[x] = m.compile();
+            }
+        }
+
+        /**
+         * Appends text word by word, starting new lines as needed.
+         * @param out the destination
+         * @param text the text, whose words are separated by spaces
+         * @param indent the current column, and that of new lines
+         * @param width the maximum line length
+         */
+        private static void wrap(Appendable out, String text, int indent,
+                int width) throws java.io.IOException {
+            int column = indent;
+            boolean lineStart = true;
+            for (int start = 0, end; start < text.length(); start = end + 1) {
+                end = text.indexOf(' ', start);
+                if (end < 0) end = text.length();
+                if (end == start) continue; // collapse runs of spaces
+                if (!lineStart && column + 1 + end - start > width) {
+                    out.append('\n');
+                    pad(out, indent);
+                    column = indent;
+                    lineStart = true;
+                }
+                if (!lineStart) { out.append(' '); column++; }
+                out.append(text, start, end);
+                column += end - start;
+                lineStart = false;
+            }
+        }
+
+        private static void pad(Appendable out, int count)
+                throws java.io.IOException {
+            for (; count > 0; count -= SPACES.length())
+                out.append(SPACES, 0, Math.min(count, SPACES.length()));
+        }
+
+        /**
+         * Parses the specified array of Strings against this schema.
+         * @param strings e.g., the arguments on the command line
+         * @return the values of all options found
+         * @throws UnsupportedOptionException if a string is not an option in
+         * this schema
+         * @throws MissingArgException if the argument to a non-unary option
+         * is missing
+         * @throws RequiredOptionException if a required option is missing
+         * @throws ConversionException if the argument to a typed option is
+         * invalid
+         * @throws OptionException if an argument file can't be read
+         */
+        public Result parse(String... strings) {
+            return run(null, null, strings, 0); }
+
+        /**
+         * Parses the arguments in a file, then the specified array of
+         * Strings, as if the file had been given as "@path" before them but
+         * whether or not argument files are allowed. The file has the format
+         * described at {@link MicroOptions#allowArgFiles()}, e.g. for a
+         * config file whose options the command line may override.
+         * @param path the path of the file
+         * @param strings e.g., the arguments on the command line
+         * @return the values of all options found
+         * @throws OptionException if the file can't be read, or for any of
+         * the problems that {@link #parse(String...)} throws for
+         */
+        public Result parseFile(String path, String... strings) {
+            return run(null, path, strings, 0); }
+
+        /**
+         * Parses the specified array of Strings against this schema without
+         * stopping at the first problem. Every unsupported option, missing
+         * argument, missing required option and invalid typed argument is
+         * reported as a {@link Diagnostic}; options that were parsed
+         * successfully are available from the result as usual.
+         * @param strings e.g., the arguments on the command line
+         * @return the values of all valid options found, and diagnostics
+         * describing any problems
+         * @throws OptionException if an argument file can't be read
+         * @see Result#getDiagnostics()
+         */
+        public Result validate(String... strings) {
+            return run(new java.util.ArrayList<Diagnostic>(), null, strings,
+                    0); }
+
+        /**
+         * Parses tokens, timing the parse only if a listener is installed.
+         * @param problems where to collect problems, or null to throw
+         * @param file the path of an argument file to parse first, or null
+         * @param strings the tokens
+         * @param i the index of the first token to parse
+         * @return the result of the parse
+         */
+        private Result run(java.util.List<Diagnostic> problems, String file,
+                String[] strings, int i) {
+            Parser parser = new Parser(problems);
+            if (listener == null) return parser.run(file, strings, i);
+            listener.parseStarted();
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Result r = parser.run(file, strings, i);
+                failed = false;
+                return r;
+            } finally {
+                listener.parseFinished(parser.tokens,
+                        System.nanoTime() - start, failed);
+            }
+        }
+
+        /**
+         * Parses many command lines against this schema in parallel, using
+         * one thread per available processor.
+         * @param lines the command lines to parse
+         * @return the result or error for each command line, in input order
+         * @see #parseAll(Iterable, int)
+         */
+        public Batch parseAll(Iterable<String[]> lines) {
+            return parseAll(lines, Runtime.getRuntime().availableProcessors());
+        }
+
+        /**
+         * Parses many command lines against this schema in parallel. The
+         * calling thread and up to threads - 1 helper threads repeatedly
+         * claim the next chunk of unparsed lines until none are left, so
+         * that no thread sits idle while another has a backlog. Each line
+         * is parsed exactly as by {@link #parse(String...)}; the only state
+         * that workers share is the position of the next unclaimed chunk.
+         * @param lines the command lines to parse
+         * @param threads the maximum number of threads to use
+         * @return the result or error for each command line, in input order
+         */
+        public Batch parseAll(Iterable<String[]> lines, int threads) {
+            java.util.Collection<String[]> all;
+            if (lines instanceof java.util.Collection) {
+                all = (java.util.Collection<String[]>) lines;
+            } else {
+                all = new java.util.ArrayList<String[]>();
+                for (String[] line : lines) all.add(line);
+            }
+            String[][] in = all.toArray(new String[all.size()][]);
+            Result[] results = new Result[in.length];
+            OptionException[] errors = new OptionException[in.length];
+            java.util.concurrent.atomic.AtomicInteger next =
+                    new java.util.concurrent.atomic.AtomicInteger();
+            Worker[] workers = new Worker[Math.max(1,
+                    Math.min(threads, (in.length + CHUNK - 1) / CHUNK))];
+            Thread[] helpers = new Thread[workers.length - 1];
+            for (int x = 0; x < workers.length; x++)
+                workers[x] = new Worker(in, results, errors, next);
+            for (int x = 0; x < helpers.length; x++) {
+                helpers[x] = new Thread(workers[x + 1], "parseAll-" + x);
+                helpers[x].setDaemon(true);
+                helpers[x].start();
+            }
+            workers[0].run();
+            boolean interrupted = false;
+            for (Thread helper : helpers) {
+                while (true) {
+                    try { helper.join(); break; }
+                    catch (InterruptedException e) { interrupted = true; }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            for (Worker worker : workers) {
+                Throwable t = worker.failure;
+                if (t instanceof RuntimeException) throw (RuntimeException) t;
+                if (t instanceof Error) throw (Error) t;
+            }
+            return new Batch(results, errors);
+        }
+
+        /**
+         * The state of a single parse, which consumes one token at a time so
+         * that tokens can be streamed in from argument files.
+         */
+        private final class Parser {
+            private final int[] counts = new int[n.length]; // occurrences
+            private final String[] values = new String[n.length]; // latest
+            private String[][] lists; // all values of repeatable options
+            private byte[] sources; // Source ordinals, if not COMMAND_LINE
+            private final long[] converted = typed ? new long[n.length] : null;
+            private int pending = -1; // option awaiting its argument, if any
+            private int tokens; // number consumed, for the listener
+            private int cmd = -1; // index of the command given, if any
+            private boolean stop; // whether a command name ended the options
+            private boolean rest; // whether "--" ended the options
+            private boolean inFile; // whether tokens come from an argfile
+            private String[] argv; // the tokens given to run
+            private int at; // the index in argv of the token being accepted
+            private Positionals positionals; // or null if there are none
+            // Problems found so far, or null to throw at the first problem.
+            private final java.util.List<Diagnostic> problems;
+
+            private Parser(java.util.List<Diagnostic> problems) {
+                this.problems = problems; }
+
+            /**
+             * Throws the exception for a problem or, if collecting problems,
+             * records it as a diagnostic.
+             */
+            private void fail(Diagnostic.Kind k, String o, String v, String t) {
+                Diagnostic d = new Diagnostic(k, o, v, t,
+                        k == Diagnostic.Kind.UNSUPPORTED_OPTION ? Schema.this
+                        : null);
+                if (listener != null) listener.problemFound(d);
+                if (problems == null) throw d.toException();
+                problems.add(d);
+            }
+
+            /**
+             * Consumes the next token of the command line.
+             * @param k the token
+             */
+            private void accept(String k) {
+                tokens++;
+                if (rest) { positional(k); return; }
+                if (pending >= 0) { // k is the argument to the pending option
+                    int x = pending;
+                    pending = -1;
+                    argument(x, k);
+                    return;
+                }
+                if (argFiles && !inFile && k.length() > 1
+                        && k.charAt(0) == '@') {
+                    expand(k.substring(1));
+                    return;
+                }
+                if (pos && k.equals("--")) { rest = true; return; }
+                int from = nameStart(k); // 1 for "-x", 2 for "--xx", else -1
+                int x = from < 0 ? -1
+                        : abbrev && from == 2 ? match(k, from) : find(k, from);
+                // command names can't start with a hyphen, so "--" and "-"
+                // are left to be positional or unsupported as usual
+                if (x < 0 && from < 0 && cn.length > 0 && !inFile
+                        && !k.startsWith("-")) {
+                    stop = true; // the rest of the tokens are the command's
+                    cmd = java.util.Arrays.binarySearch(cn, k);
+                    if (cmd < 0) fail(Diagnostic.Kind.UNSUPPORTED_COMMAND, k,
+                            null, null);
+                    return;
+                }
+                if (x < 0 && from < 0 && pos) { positional(k); return; }
+                if (x < 0) {
+                    fail(Diagnostic.Kind.UNSUPPORTED_OPTION,
+                            from < 0 ? k : k.substring(from), null, null);
+                    return;
+                }
+                if ((f[x] & UNARY) == 0) pending = x; else counts[x]++;
+            }
+
+            /**
+             * Records a positional argument: as a reference to the token in
+             * argv, or as a copy if it came from an argument file.
+             * @param k the token
+             */
+            private void positional(String k) {
+                if (positionals == null) positionals = new Positionals();
+                if (inFile) positionals.copy(k);
+                else positionals.add(argv, at, at + 1);
+            }
+
+            /**
+             * Records an argument of an option.
+             * @param x the index of the option
+             * @param k the argument
+             */
+            private void argument(int x, String k) {
+                if (f[x] >> 3 != STRING) {
+                    try { converted[x] = convert(x, k); }
+                    catch (NumberFormatException e) {
+                        fail(Diagnostic.Kind.CONVERSION, n[x], k,
+                                TYPES[f[x] >> 3]);
+                        return;
+                    }
+                }
+                if ((f[x] & REPEATABLE) != 0) append(x, k);
+                values[x] = k;
+                counts[x]++;
+            }
+
+            /**
+             * Appends a value to the list for a repeatable option, doubling
+             * the capacity of the list whenever it is full.
+             */
+            private void append(int x, String k) {
+                if (lists == null) lists = new String[n.length][];
+                String[] list = lists[x];
+                if (list == null) {
+                    list = lists[x] = new String[8];
+                } else if (counts[x] == list.length) {
+                    list = new String[list.length * 2];
+                    System.arraycopy(lists[x], 0, list, 0, counts[x]);
+                    lists[x] = list;
+                }
+                list[counts[x]] = k;
+            }
+
+            /**
+             * Consumes tokens up to the name of a command or "--", if any,
+             * then parses the rest of the tokens against the command's
+             * schema, or takes them all at once as positional arguments.
+             * @param file the path of an argument file to consume first, or
+             * null
+             * @param strings the tokens
+             * @param i the index of the first token to consume
+             * @return the result of the parse
+             */
+            private Result run(String file, String[] strings, int i) {
+                argv = strings;
+                if (file != null) expand(file);
+                while (i < strings.length && !stop && !rest) {
+                    at = i; accept(strings[i++]); }
+                if (rest && i < strings.length) {
+                    if (positionals == null) positionals = new Positionals();
+                    positionals.add(strings, i, strings.length);
+                    tokens += strings.length - i;
+                }
+                return finish(strings, cmd >= 0 ? i : -1);
+            }
+
+            /**
+             * @param strings the tokens
+             * @param i the index of the token following the name of a
+             * command, or -1 if no command was given
+             * @return the result of parsing all tokens consumed so far
+             */
+            private Result finish(String[] strings, int i) {
+                if (pending >= 0) {
+                    fail(Diagnostic.Kind.MISSING_ARG, n[pending], null, null);
+                    pending = -1;
+                }
+                for (int x : lay) if (counts[x] == 0) resolve(x);
+                for (int x : req) // ensure required opts are present
+                    if (counts[x] == 0) fail(Diagnostic.Kind.REQUIRED_OPTION,
+                            n[x], null, null);
+                Result sub = null;
+                if (i >= 0) {
+                    sub = command(cmd).run(problems == null ? null
+                            : new java.util.ArrayList<Diagnostic>(), null,
+                            strings, i);
+                    if (problems != null) problems.addAll(sub.getDiagnostics());
+                }
+                return new Result(Schema.this, counts, values, converted,
+                        lists, sources, positionals,
+                        problems == null || problems.isEmpty() ? null
+                        : problems.toArray(new Diagnostic[problems.size()]),
+                        sub == null ? null : cn[cmd], sub);
+            }
+
+            /**
+             * Fills in the value of an option that was not on the command
+             * line from its environment variable, system property or
+             * default, whichever is found first, as if it had been given on
+             * the command line.
+             * @param x the index of the option
+             */
+            private void resolve(int x) {
+                String v = null;
+                int from = 0;
+                while (v == null && ++from <= 3) {
+                    String name = src[x][from - 1];
+                    if (name == null) continue;
+                    v = from == 1 ? System.getenv(name)
+                            : from == 2 ? System.getProperty(name) : name;
+                }
+                if (v == null) return;
+                if ((f[x] & UNARY) == 0) {
+                    argument(x, v);
+                } else try {
+                    counts[x] = bool(v) ? 1 : 0;
+                } catch (NumberFormatException e) {
+                    fail(Diagnostic.Kind.CONVERSION, n[x], v, TYPES[BOOLEAN]);
+                }
+                if (counts[x] == 0) return;
+                if (sources == null) sources = new byte[n.length];
+                sources[x] = (byte) from;
+            }
+
+            /**
+             * Consumes the tokens of an argument file: whitespace-separated
+             * strings, in which single or double quotes may be used to
+             * include whitespace. The file is assumed to be UTF-8, is mapped
+             * into memory a window at a time and is never held in the heap.
+             * Argument files can't refer to other argument files.
+             * @param path the path of the file
+             */
+            private void expand(String path) {
+                try {
+                    java.io.FileInputStream in =
+                            new java.io.FileInputStream(path);
+                    try {
+                        inFile = true;
+                        tokenize(in.getChannel());
+                    } finally {
+                        inFile = false;
+                        in.close();
+                    }
+                } catch (java.io.IOException e) {
+                    throw new OptionException("Unable to read argument file '"
+                            + path + "': " + e.getMessage());
+                }
+            }
+
+            private void tokenize(java.nio.channels.FileChannel channel)
+                    throws java.io.IOException {
+                byte[] token = new byte[64];
+                int len = 0;
+                byte quote = 0; // the quote character of a quoted section
+                boolean inToken = false; // true even for an empty "" token
+                long size = channel.size();
+                for (long pos = 0; pos < size; pos += WINDOW) {
+                    java.nio.MappedByteBuffer window = channel.map(
+                            java.nio.channels.FileChannel.MapMode.READ_ONLY,
+                            pos, Math.min(WINDOW, size - pos));
+                    while (window.hasRemaining()) {
+                        byte b = window.get();
+                        if (quote == 0) {
+                            if (b == '"' || b == '\'') {
+                                quote = b;
+                                inToken = true;
+                                continue;
+                            }
+                            if (b == ' ' || b == '\t' || b == '\n'
+                                    || b == '\r' || b == '\f') {
+                                if (inToken) accept(decode(token, len));
+                                len = 0;
+                                inToken = false;
+                                continue;
+                            }
+                        } else if (b == quote) {
+                            quote = 0;
+                            continue;
+                        }
+                        if (len == token.length) {
+                            byte[] bigger = new byte[len * 2];
+                            System.arraycopy(token, 0, bigger, 0, len);
+                            token = bigger;
+                        }
+                        token[len++] = b;
+                        inToken = true;
+                    }
+                }
+                if (quote != 0)
+                    throw new java.io.IOException("unterminated quote");
+                if (inToken) accept(decode(token, len));
+            }
+
+            private String decode(byte[] bytes, int len)
+                    throws java.io.UnsupportedEncodingException {
+                return new String(bytes, 0, len, "UTF-8");
+            }
+        }
+
+        /**
+         * One of the threads of {@link #parseAll(Iterable, int)}. Workers
+         * write to disjoint elements of the output arrays, and each records
+         * its own failure, if any, to be rethrown after all have finished.
+         */
+        private final class Worker implements Runnable {
+            private final String[][] in;
+            private final Result[] results;
+            private final OptionException[] errors;
+            private final java.util.concurrent.atomic.AtomicInteger next;
+            private Throwable failure; // a bug rather than a bad line
+
+            private Worker(String[][] in, Result[] results,
+                    OptionException[] errors,
+                    java.util.concurrent.atomic.AtomicInteger next) {
+                this.in = in; this.results = results; this.errors = errors;
+                this.next = next;
+            }
+
+            public void run() {
+                try {
+                    int start;
+                    while ((start = next.getAndAdd(CHUNK)) < in.length) {
+                        int end = Math.min(start + CHUNK, in.length);
+                        for (int i = start; i < end; i++) {
+                            try { results[i] = parse(in[i]); }
+                            catch (OptionException e) { errors[i] = e; }
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                    next.set(in.length); // stop the other workers early
+                }
+            }
+        }
+
+        /**
+         * Converts the argument of a typed option into the long that holds
+         * it: a double's raw bits, a boolean as 0 or 1, an enum's ordinal, a
+         * byte size in bytes or a duration in nanoseconds.
+         * Malformed and out of range numbers are rejected before calling into
+         * the JDK, so that validating many bad arguments doesn't build many
+         * stack traces.
+         * @param x the index of the option
+         * @param v the argument
+         * @return the converted value
+         * @throws NumberFormatException if the argument isn't valid
+         */
+        private long convert(int x, String v) {
+            switch (f[x] >> 3) {
+            case INT:
+                return Integer.parseInt(integer(v, v.length(), MAX_INT));
+            case LONG:
+                return Long.parseLong(integer(v, v.length(), MAX_LONG));
+            case DOUBLE:
+                double d = Double.parseDouble(decimal(v));
+                if (Double.isInfinite(d)) break; // too large for a double
+                return Double.doubleToRawLongBits(d);
+            case BOOLEAN: return bool(v) ? 1 : 0;
+            case ENUM:
+                for (Enum<?> c : e[x]) if (c.name().equals(v))
+                    return c.ordinal();
+                for (Enum<?> c : e[x]) if (c.name().equalsIgnoreCase(v))
+                    return c.ordinal();
+                break;
+            case BYTES: return scaled(v, BYTE_UNITS, BYTE_SCALES);
+            case DURATION: return scaled(v, TIME_UNITS, TIME_SCALES);
+            }
+            throw INVALID;
+        }
+
+        /**
+         * @param v a boolean: true, false, yes, no, on, off, 1 or 0
+         * @return the value of the boolean
+         * @throws NumberFormatException if the string is anything else
+         */
+        private static boolean bool(String v) {
+            if (v.equalsIgnoreCase("true") || v.equalsIgnoreCase("yes")
+                    || v.equalsIgnoreCase("on") || v.equals("1"))
+                return true;
+            if (v.equalsIgnoreCase("false") || v.equalsIgnoreCase("no")
+                    || v.equalsIgnoreCase("off") || v.equals("0"))
+                return false;
+            throw INVALID;
+        }
+
+        /**
+         * @param v a string
+         * @param end the length of the prefix of v to check
+         * @param max the largest value allowed, in decimal; negative values
+         * may be one further from zero, as for Java's integer types
+         * @return the prefix, iff it is an optionally signed run of digits
+         * in range
+         * @throws NumberFormatException if the prefix is anything else
+         */
+        private static String integer(String v, int end, String max) {
+            boolean negative = end > 0 && v.charAt(0) == '-';
+            int x = negative || end > 0 && v.charAt(0) == '+' ? 1 : 0;
+            if (x == end) throw INVALID;
+            for (int y = x; y < end; y++)
+                if (!isDigit(v.charAt(y))) throw INVALID;
+            while (x < end - 1 && v.charAt(x) == '0') x++;
+            int len = end - x; // significant digits, compared by length first
+            if (len > max.length()) throw INVALID;
+            if (len == max.length()) for (int y = 0; y < len; y++) {
+                int c = v.charAt(x + y) - max.charAt(y);
+                // max is 2^n - 1, so its last digit is never 9
+                if (negative && y == len - 1) c--;
+                if (c < 0) break;
+                if (c > 0) throw INVALID;
+            }
+            return end == v.length() ? v : v.substring(0, end);
+        }
+
+        /**
+         * @param v a string
+         * @return the string, iff it is a decimal number: an optional sign,
+         * digits with at most one decimal point and an optional exponent.
+         * NaN, Infinity, hexadecimal, type suffixes such as "d" and
+         * surrounding whitespace, all accepted by Double.parseDouble, are not
+         * @throws NumberFormatException if the string is anything else
+         */
+        private static String decimal(String v) {
+            int end = v.length(), x = 0, digits = 0;
+            if (x < end && (v.charAt(x) == '-' || v.charAt(x) == '+')) x++;
+            for (; x < end && isDigit(v.charAt(x)); x++) digits++;
+            if (x < end && v.charAt(x) == '.')
+                for (x++; x < end && isDigit(v.charAt(x)); x++) digits++;
+            if (digits == 0) throw INVALID;
+            if (x < end && (v.charAt(x) == 'e' || v.charAt(x) == 'E')) {
+                x++;
+                if (x < end && (v.charAt(x) == '-' || v.charAt(x) == '+')) x++;
+                int from = x;
+                while (x < end && isDigit(v.charAt(x))) x++;
+                if (x == from) throw INVALID;
+            }
+            if (x != end) throw INVALID;
+            return v;
+        }
+
+        private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+
+        /**
+         * Parses a non-negative integer with an optional unit suffix.
+         * @param v the string to parse
+         * @param units the allowed suffixes, in lower case; "" for none
+         * @param scales the multiplier for each suffix
+         * @return the integer multiplied by the scale of its suffix
+         * @throws NumberFormatException if the string is invalid
+         */
+        private static long scaled(String v, String[] units, long[] scales) {
+            int end = v.length();
+            while (end > 0 && Character.isLetter(v.charAt(end - 1))) end--;
+            for (int x = 0; x < units.length; x++) {
+                if (!units[x].equalsIgnoreCase(v.substring(end))) continue;
+                long value = Long.parseLong(integer(v, end, MAX_LONG));
+                if (value < 0 || value > Long.MAX_VALUE / scales[x]) break;
+                return value * scales[x];
+            }
+            throw INVALID;
+        }
+
+        /**
+         * Finds the option named by the characters of k from the specified
+         * index onwards, without allocating a substring.
+         * @param k the string containing the name
+         * @param from the index at which the name starts
+         * @return the index of the option, or -1 if there is no such option
+         */
+        private int find(String k, int from) {
+            int len = k.length() - from, hash = 0;
+            for (int x = from; x < k.length(); x++)
+                hash = 31 * hash + k.charAt(x);
+            for (int slot = hash & (h.length - 1); h[slot] != 0;
+                    slot = (slot + 1) & (h.length - 1)) {
+                String s = n[h[slot] - 1];
+                if (s.length() == len && s.regionMatches(0, k, from, len))
+                    return h[slot] - 1;
+            }
+            return -1;
+        }
+
+        /**
+         * Finds the option named by, or uniquely abbreviated by, the
+         * characters of k from the specified index onwards. Both cases are
+         * resolved by a single binary search of the sorted names, since an
+         * exact match sorts ahead of every longer name sharing its prefix.
+         * @param k the string containing the name or abbreviation
+         * @param from the index at which the name starts
+         * @return the index of the option, or -1 if there is no such option
+         * or the abbreviation is ambiguous
+         */
+        private int match(String k, int from) {
+            int len = k.length() - from, lo = 0, hi = n.length;
+            while (lo < hi) { // find the first name >= the prefix
+                int mid = (lo + hi) >>> 1;
+                if (compare(n[mid], k, from) < 0) lo = mid + 1; else hi = mid;
+            }
+            if (lo == n.length || !n[lo].regionMatches(0, k, from, len))
+                return -1; // no name starts with the prefix
+            if (n[lo].length() == len || lo + 1 == n.length
+                    || !n[lo + 1].regionMatches(0, k, from, len))
+                return lo; // exact, or the only name with this prefix
+            return -1;
+        }
+
+        /**
+         * Compares a name to the characters of k from the specified index
+         * onwards, in the same order as {@link String#compareTo(String)}.
+         */
+        private static int compare(String name, String k, int from) {
+            int len = Math.min(name.length(), k.length() - from);
+            for (int x = 0; x < len; x++) {
+                int c = name.charAt(x) - k.charAt(from + x);
+                if (c != 0) return c;
+            }
+            return name.length() - (k.length() - from);
+        }
+
+        /**
+         * @param option the name of an option
+         * @return the index of the option
+         * @throws UnsupportedOptionException if the option is not in this
+         * schema or the name is illegal
+         */
+        private int indexOf(String option) {
+            checkName(option);
+            int x = find(option, 0);
+            if (x < 0) throw new UnsupportedOptionException(option, null,
+                    this);
+            return x;
+        }
+
+        /**
+         * Finds the names of the options nearest to an unsupported one, by
+         * edit distance: at most 1 edit away for names of 3 or 4 chars, and
+         * 2 for longer names. Shorter names have no suggestions, as almost
+         * anything is within an edit of them. The index is only built the
+         * first time it's needed. A supported name that was only written
+         * with the wrong hyphens, e.g. "verbose" or "-verbose", gets the
+         * right form, "--verbose", as its one suggestion instead.
+         * @param k the unsupported name
+         * @return the nearest names, at most 3, equally near and sorted by
+         * name; empty if none are near enough
+         */
+        private java.util.List<String> suggest(String k) {
+            int from = 0;
+            while (from < k.length() && k.charAt(from) == '-') from++;
+            int x = find(k, from);
+            if (x >= 0) return Diagnostic.list(new String[] {
+                    (n[x].length() == 1 ? "-" : "--") + n[x] });
+            int t = Math.min(2, (k.length() - 1) / 2);
+            if (t <= 0 || n.length == 0) return Diagnostic.list(null);
+            Grams index = grams;
+            if (index == null) grams = index = new Grams(n);
+            return Diagnostic.list(index.nearest(k, t));
+        }
+
+        /**
+         * @param option the name of an option that takes an argument
+         * @return the index of the option
+         * @throws UnsupportedOptionException if the option is not in this
+         * schema or the name is illegal
+         * @throws OptionException if the option is unary
+         */
+        private int argIndexOf(String option) {
+            int x = indexOf(option);
+            if ((f[x] & UNARY) != 0)
+                throw new OptionException(
+                        "Option takes no arguments: " + option);
+            return x;
+        }
+
+        /**
+         * @param option the name of an option with a typed argument
+         * @param type the type that the option must have
+         * @return the index of the option
+         * @throws UnsupportedOptionException if the option is not in this
+         * schema or the name is illegal
+         * @throws OptionException if the option is unary or of another type
+         */
+        private int typedIndexOf(String option, byte type) {
+            int x = argIndexOf(option);
+            if (f[x] >> 3 != type) throw new OptionException(
+                    "Option is not of type " + TYPES[type] + ": " + option);
+            return x;
+        }
+
+        /**
+         * @return a result in which no option is present
+         */
+        private Result empty() {
+            return new Result(this, new int[n.length], null, null, null,
+                    null, null, null, null, null);
+        }
+    }
 
     /**
-     * Thrown when the parser can't find the argument for a non-unary option.
+     * An index of the bigrams in the names of a schema's options, for
+     * finding the names nearest to a misspelled one without measuring the
+     * distance to every name. Names are padded with a '\0' at each end, so
+     * a name of length m has m + 1 bigrams and even short names have some.
+     * One edit changes at most two bigrams, so a name within t edits of a
+     * token must share all but 2t of the token's distinct bigrams. A search
+     * counts the bigrams that each name shares with the token by walking
+     * the token's posting lists, and only measures the distance to names
+     * that share enough. The index is built once, in a few flat arrays,
+     * and all its fields are final, so it can be shared between threads
+     * without locking.
      */
-    public static class MissingArgException extends OptionException {
-        public MissingArgException(String o) {
-            super("Missing argument for option '" + o + "'"); } }
+    private static final class Grams {
+        private static final int MAX = 3; // suggestions to return
+        private final String[] n; // names
+        private final int[] keys; // distinct bigrams, sorted
+        private final int[] from; // start of each bigram's postings in ids
+        private final int[] ids; // indices of the names having each bigram
+
+        private Grams(String[] n) {
+            this.n = n;
+            int total = 0;
+            for (String name : n) total += name.length() + 1;
+            long[] pairs = new long[total]; // bigram << 32 | index
+            int p = 0;
+            for (int x = 0; x < n.length; x++)
+                for (int i = 0; i <= n[x].length(); i++)
+                    pairs[p++] = (long) gram(n[x], i) << 32 | x;
+            java.util.Arrays.sort(pairs);
+            int[] keys = new int[p], from = new int[p + 1], ids = new int[p];
+            int k = -1, count = 0;
+            for (int i = 0; i < p; i++) {
+                if (i > 0 && pairs[i] == pairs[i - 1]) continue; // repeated
+                int key = (int) (pairs[i] >> 32);
+                if (k < 0 || keys[k] != key) {
+                    keys[++k] = key;
+                    from[k] = count;
+                }
+                ids[count++] = (int) pairs[i];
+            }
+            from[++k] = count;
+            this.keys = trim(keys, k);
+            this.from = trim(from, k + 1);
+            this.ids = trim(ids, count);
+        }
+
+        /**
+         * @return the first length elements of a, in a new array (without
+         * Arrays.copyOf, which needs Java 6)
+         */
+        private static int[] trim(int[] a, int length) {
+            int[] b = new int[length];
+            System.arraycopy(a, 0, b, 0, length);
+            return b;
+        }
+
+        /**
+         * @return the i-th bigram of s padded with '\0' at both ends, for
+         * i from 0 to s.length()
+         */
+        private static int gram(String s, int i) {
+            return (i == 0 ? 0 : s.charAt(i - 1)) << 16
+                    | (i == s.length() ? 0 : s.charAt(i));
+        }
+
+        /**
+         * @param k the token
+         * @param t the maximum edit distance of any name returned
+         * @return the names nearest to the token, at most MAX and sorted
+         * by name, or null if none are within t edits
+         */
+        private String[] nearest(String k, int t) {
+            int len = k.length(), distinct = 0;
+            int[] grams = new int[len + 1];
+            for (int i = 0; i <= len; i++) grams[i] = gram(k, i);
+            java.util.Arrays.sort(grams);
+            int[] shared = new int[n.length];
+            int[] candidates = new int[n.length];
+            int count = 0;
+            for (int i = 0; i <= len; i++) {
+                if (i > 0 && grams[i] == grams[i - 1]) continue;
+                distinct++;
+                int g = java.util.Arrays.binarySearch(keys, grams[i]);
+                if (g < 0) continue;
+                for (int j = from[g]; j < from[g + 1]; j++)
+                    if (shared[ids[j]]++ == 0) candidates[count++] = ids[j];
+            }
+            int need = Math.max(1, distinct - 2 * t), best = t, found = 0;
+            int[] nearest = new int[MAX];
+            int[] row = new int[len + 1], prev = new int[len + 1];
+            java.util.Arrays.sort(candidates, 0, count); // by name
+            for (int i = 0; i < count; i++) {
+                int x = candidates[i];
+                if (shared[x] < need
+                        || Math.abs(n[x].length() - len) > best) continue;
+                int d = distance(k, n[x], row, prev);
+                if (d < best) { best = d; found = 0; } // nearer than all so far
+                if (d == best && found < MAX) nearest[found++] = x;
+            }
+            if (found == 0) return null;
+            String[] names = new String[found];
+            for (int x = 0; x < found; x++) names[x] = n[nearest[x]];
+            return names;
+        }
+
+        /**
+         * @return the Levenshtein distance between a and b, computed a row
+         * at a time in the given arrays, each a.length() + 1 long
+         */
+        private static int distance(String a, String b, int[] row,
+                int[] prev) {
+            int len = a.length();
+            for (int x = 0; x <= len; x++) row[x] = x;
+            for (int y = 1; y <= b.length(); y++) {
+                int[] swap = prev; prev = row; row = swap;
+                row[0] = y;
+                char c = b.charAt(y - 1);
+                for (int x = 1; x <= len; x++) {
+                    row[x] = Math.min(Math.min(row[x - 1], prev[x]) + 1,
+                            prev[x - 1] + (a.charAt(x - 1) == c ? 0 : 1));
+                }
+            }
+            return row[len];
+        }
+    }
 
     /**
-     * Thrown when the parser can't find a required option.
+     * The immutable outcome of parsing one command line against a
+     * {@link Schema}. Results are safe to read from any thread.
      */
-    public static class RequiredOptionException extends OptionException {
-        public RequiredOptionException(String o) {
-            super("Missing required option '" + o + "'"); } }
+    public static final class Result {
+        private final Schema s;
+        private final int[] c; // occurrence counts; 0 iff not present
+        private final String[] v; // latest values
+        private final long[] l; // converted latest values of typed options
+        private final String[][] m; // all values of repeatable options
+        private final byte[] o; // Source ordinals, or null if all are 0
+        private final Positionals p; // positional arguments, or null
+        private final Diagnostic[] e; // problems found by validate, or null
+        private final String cmd; // the command given, or null
+        private final Result sub; // the result for the command, or null
+        private static final Source[] SOURCES = Source.values();
+
+        private Result(Schema s, int[] c, String[] v, long[] l, String[][] m,
+                byte[] o, Positionals p, Diagnostic[] e, String cmd,
+                Result sub) {
+            this.s = s; this.c = c; this.v = v; this.l = l; this.m = m;
+            this.o = o; this.p = p; this.e = e; this.cmd = cmd;
+            this.sub = sub;
+        }
+
+        /**
+         * @return the name of the command given, or null if none was
+         * @see MicroOptions#getCommand()
+         */
+        public String getCommand() { return cmd; }
+
+        /**
+         * @return the result of parsing the tokens after the name of the
+         * command against the command's options, or null if no command was
+         * given
+         * @see MicroOptions#getCommandResult()
+         */
+        public Result getCommandResult() { return sub; }
+
+        /**
+         * @return a read-only view of the positional arguments, in order;
+         * empty if there are none
+         * @see MicroOptions#getPositionals()
+         */
+        public java.util.List<String> getPositionals() {
+            if (p == null) return java.util.Collections.emptyList();
+            return p;
+        }
+
+        /**
+         * @param option the option to look for
+         * @return where the option's value came from, or null if it has none
+         * @throws UnsupportedOptionException if the option isn't in the schema
+         * @see Option#fromEnv(String)
+         * @see Option#fromProperty(String)
+         * @see Option#defaultsTo(String)
+         */
+        public Source getSource(String option) {
+            int x = s.indexOf(option);
+            return c[x] == 0 ? null : SOURCES[o == null ? 0 : o[x]];
+        }
+
+        /**
+         * @return the problems found by {@link Schema#validate(String...)}, in
+         * the order found; always empty for the result of a normal parse
+         */
+        public java.util.List<Diagnostic> getDiagnostics() {
+            if (e == null) return java.util.Collections.emptyList();
+            return java.util.Collections.unmodifiableList(
+                    java.util.Arrays.asList(e));
+        }
+
+        /**
+         * @param option the option to look for
+         * @return true iff the specified option was encountered during parsing
+         * @throws UnsupportedOptionException if the option isn't in the schema
+         * @see MicroOptions#has(String)
+         */
+        public boolean has(String option) {
+            return found(option, s.indexOf(option)); }
+
+        /**
+         * @param option the option to look for
+         * @return the number of times the option was encountered
+         * @throws UnsupportedOptionException if the option isn't in the schema
+         * @see MicroOptions#getCount(String)
+         */
+        public int getCount(String option) {
+            int x = s.indexOf(option);
+            return found(option, x) ? c[x] : 0;
+        }
+
+        /**
+         * @param option the option to look up the arguments for
+         * @return a read-only view of all arguments of the option, in order
+         * @throws UnsupportedOptionException if the option isn't in the
+         * schema or is unary
+         * @see MicroOptions#getArgs(String)
+         */
+        public java.util.List<String> getArgs(String option) {
+            int x = s.argIndexOf(option);
+            if (!found(option, x)) return java.util.Collections.emptyList();
+            if ((s.f[x] & Schema.REPEATABLE) == 0)
+                return java.util.Collections.singletonList(v[x]);
+            return new Values(m[x], c[x]);
+        }
+
+        /**
+         * @param option the option to look up the argument for
+         * @return the argument, or null if the option was not encountered
+         * @throws UnsupportedOptionException if the option isn't in the
+         * schema or is unary
+         * @see MicroOptions#getArg(String)
+         */
+        public String getArg(String option) { return getArg(option, null); }
+
+        /**
+         * @param option the option to look up the argument for
+         * @param defaultValue the value to return if the option was not
+         * encountered during parsing
+         * @return the argument, or the specified default value
+         * @throws UnsupportedOptionException if the option isn't in the
+         * schema or is unary
+         * @see MicroOptions#getArg(String, String)
+         */
+        public String getArg(String option, String defaultValue) {
+            int x = s.argIndexOf(option);
+            return found(option, x) ? v[x] : defaultValue;
+        }
+
+        /** @see MicroOptions#getInt(String, int) */
+        public int getInt(String option, int defaultValue) {
+            int x = s.typedIndexOf(option, Schema.INT);
+            return found(option, x) ? (int) l[x] : defaultValue;
+        }
+
+        /** @see MicroOptions#getLong(String, long) */
+        public long getLong(String option, long defaultValue) {
+            int x = s.typedIndexOf(option, Schema.LONG);
+            return found(option, x) ? l[x] : defaultValue;
+        }
+
+        /** @see MicroOptions#getDouble(String, double) */
+        public double getDouble(String option, double defaultValue) {
+            int x = s.typedIndexOf(option, Schema.DOUBLE);
+            return found(option, x) ? Double.longBitsToDouble(l[x])
+                    : defaultValue;
+        }
+
+        /** @see MicroOptions#getBoolean(String, boolean) */
+        public boolean getBoolean(String option, boolean defaultValue) {
+            int x = s.typedIndexOf(option, Schema.BOOLEAN);
+            return found(option, x) ? l[x] != 0 : defaultValue;
+        }
+
+        /** @see MicroOptions#getEnum(String, Enum) */
+        @SuppressWarnings("unchecked")
+        public <E extends Enum<E>> E getEnum(String option, E defaultValue) {
+            int x = s.typedIndexOf(option, Schema.ENUM);
+            return found(option, x) ? (E) s.e[x][(int) l[x]] : defaultValue;
+        }
+
+        /** @see MicroOptions#getByteSize(String, long) */
+        public long getByteSize(String option, long defaultValue) {
+            int x = s.typedIndexOf(option, Schema.BYTES);
+            return found(option, x) ? l[x] : defaultValue;
+        }
+
+        /**
+         * @see MicroOptions#getDuration(String, java.util.concurrent.TimeUnit,
+         * long)
+         */
+        public long getDuration(String option,
+                java.util.concurrent.TimeUnit unit, long defaultValue) {
+            int x = s.typedIndexOf(option, Schema.DURATION);
+            return found(option, x) ? unit.convert(l[x],
+                    java.util.concurrent.TimeUnit.NANOSECONDS) : defaultValue;
+        }
+
+        /**
+         * @return whether the option at index x is present, telling the
+         * schema's listener, if any, about the lookup
+         */
+        private boolean found(String option, int x) {
+            if (s.listener != null) s.listener.lookedUp(option, c[x] > 0);
+            return c[x] > 0;
+        }
+    }
 
     /**
-     * Core class for defining options using builder-style methods.
+     * A read-only list view of the first values in an array, used to expose
+     * the arguments of repeatable options without copying them.
      */
-    public class Option{
-        private String n,d; // name, description
-        private boolean u,r; // unary, required
-        private Option(String n) { this.n = n; }
+    private static final class Values extends java.util.AbstractList<String>
+            implements java.util.RandomAccess {
+        private final String[] a;
+        private final int size;
+        private Values(String[] a, int size) { this.a = a; this.size = size; }
+        public int size() { return size; }
+        public String get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            return a[index];
+        }
+    }
+
+    /**
+     * A read-only list view of positional arguments, made of runs of
+     * consecutive elements of the arrays they were given in. Runs are
+     * extended in place as a parse goes, so "tool -v f1 ... fN" is one run
+     * over the caller's argv however large N is, and "--" adds the rest of
+     * argv as one run without touching its elements. Only tokens read from
+     * argument files, which aren't in argv, are copied (into an array of
+     * the view's own).
+     */
+    private static final class Positionals
+            extends java.util.AbstractList<String>
+            implements java.util.RandomAccess {
+        private String[][] a = new String[2][]; // the array of each run
+        private int[] from = new int[2]; // the first index of each run in a
+        private int[] at = new int[2]; // the first index of each run in this
+        private int runs, size;
+        private String[] own; // tokens from argument files
+        private int owned;
 
         /**
-         * Provides a human-readable description for this option.
-         * @param d the description
-         * @return this option
+         * Adds elements [start, end) of an array, extending the last run if
+         * they follow on from it.
          */
-        public Option describedAs(String d) { this.d = d; return this; }
+        private void add(String[] array, int start, int end) {
+            int r = runs - 1;
+            if (r >= 0 && a[r] == array && from[r] + size - at[r] == start) {
+                size += end - start;
+                return;
+            }
+            if (runs == a.length) {
+                String[][] a2 = new String[runs * 2][];
+                int[] from2 = new int[runs * 2], at2 = new int[runs * 2];
+                System.arraycopy(a, 0, a2, 0, runs);
+                System.arraycopy(from, 0, from2, 0, runs);
+                System.arraycopy(at, 0, at2, 0, runs);
+                a = a2; from = from2; at = at2;
+            }
+            a[runs] = array; from[runs] = start; at[runs++] = size;
+            size += end - start;
+        }
 
         /**
-         * Specifies that this option is required.
-         * @return this option
+         * Adds a copy of a token that isn't in argv.
+         */
+        private void copy(String k) {
+            if (own == null || owned == own.length) {
+                String[] bigger = new String[own == null ? 8 : owned * 2];
+                if (own != null) System.arraycopy(own, 0, bigger, 0, owned);
+                own = bigger;
+            }
+            own[owned] = k;
+            add(own, owned, ++owned);
+        }
+
+        public int size() { return size; }
+
+        public String get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            int low = 0, high = runs - 1; // find the last run at <= index
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (at[mid] <= index) low = mid; else high = mid - 1;
+            }
+            return a[low][from[low] + index - at[low]];
+        }
+    }
+
+    /**
+     * The immutable outcome of parsing many command lines with
+     * {@link Schema#parseAll(Iterable)}. Each line has either a result or
+     * the exception that parsing it threw.
+     */
+    public static final class Batch {
+        private final Result[] r;
+        private final OptionException[] e;
+        private final int errors;
+
+        private Batch(Result[] r, OptionException[] e) {
+            int count = 0;
+            for (OptionException x : e) if (x != null) count++;
+            this.r = r; this.e = e; this.errors = count;
+        }
+
+        /**
+         * @return the number of command lines parsed
          */
-        public Option isRequired() { this.r = true; return this; }
+        public int size() { return r.length; }
 
         /**
-         * Specifies that this option takes no arguments.
-         * @return this option
+         * @return the number of command lines that failed to parse
+         */
+        public int errorCount() { return errors; }
+
+        /**
+         * @param line the index of a command line in the input
+         * @return the result of parsing the line, or null if it failed
          */
-        public Option isUnary() { this.u = true; return this; }
+        public Result result(int line) { return r[line]; }
+
+        /**
+         * @param line the index of a command line in the input
+         * @return the exception thrown by parsing the line, or null if it
+         * succeeded
+         */
+        public OptionException error(int line) { return e[line]; }
     }
 
     // All option metadata, sorted by option name.
     private final java.util.Map<String,Option> opts =
             new java.util.TreeMap<String,Option>();
-    // All option values that have been parsed.
-    private final java.util.Map<String,String> args =
-            new java.util.HashMap<String, String>();
+    // Compiled form of opts; discarded whenever an option changes.
+    private Schema schema;
+    // All commands, sorted by name.
+    private final java.util.Map<String,Command> cmds =
+            new java.util.TreeMap<String,Command>();
+    // Whether long options may be abbreviated to any unambiguous prefix.
+    private boolean abbrev;
+    // Whether "@file" tokens are replaced by the arguments in the file.
+    private boolean argFiles;
+    // Whether bare tokens and those after "--" are positional arguments.
+    private boolean positionals;
+    // Notified of parses and lookups, or null.
+    private Listener listener;
+    // All option values from the most recent successful parse.
+    private Result result;
 
     /**
      * Creates an initially-empty set of options.
@@ -88,45 +1961,138 @@ public class MicroOptions {
     /**
      * @return a human-readable usage string
      */
-    public String usageString() {
-        int max = 0; // max length of any option name, for alignment.
-        for (String s : opts.keySet()) max = Math.max(s.length(), max);
-        StringBuilder b = new StringBuilder();
-        java.util.Iterator<Option> i = opts.values().iterator();
-        while (i.hasNext()) {
-            Option o = i.next();
-            b.append(o.n.length() == 1 ? " -" : "--");
-            b.append(String.format("%1$-" + max + "s", o.n));
-            b.append(o.u ? "          " : " [ARG]    ");
-            b.append(o.d == null ? "" : o.d + " ");
-            b.append(o.r ? "(required)" : "(optional)");
-            if (i.hasNext()) b.append('\n');
-        }
-        return b.toString();
+    public String usageString() { return compile().usageString(); }
+
+    /**
+     * @param command the name of a command
+     * @return a human-readable usage string for the options of the command
+     * @throws UnsupportedCommandException if the command hasn't been
+     * defined via {@link #command(String)}
+     */
+    public String usageString(String command) {
+        return compile().command(command).usageString(); }
+
+    /**
+     * Writes the usage string to the specified destination, without first
+     * building it in memory.
+     * @param out the destination, e.g. a Writer or System.err
+     * @throws java.io.IOException if the destination throws it
+     */
+    public void appendUsage(Appendable out) throws java.io.IOException {
+        compile().appendUsage(out, 0); }
+
+    /**
+     * Writes the usage string to the specified destination, wrapping
+     * descriptions to fit lines within the specified width where possible.
+     * @param out the destination, e.g. a Writer or System.err
+     * @param width the maximum line length, or 0 for no wrapping
+     * @throws java.io.IOException if the destination throws it
+     */
+    public void appendUsage(Appendable out, int width)
+            throws java.io.IOException {
+        compile().appendUsage(out, width); }
+
+    /**
+     * Freezes the options configured so far into an immutable schema that
+     * can be shared between threads and used for any number of parses.
+     * Later changes to the options do not affect schemas already returned.
+     * @return the compiled schema
+     */
+    public Schema compile() {
+        Schema s = schema;
+        if (s != null) return s;
+        s = new Schema(this);
+        int x = 0; // the schema's options are in the same order
+        for (Option o : opts.values()) o.slot = new Slot(s, x++);
+        return schema = s;
     }
 
+    /**
+     * Allows long options to be abbreviated on the command line to any
+     * prefix that identifies exactly one option; for example, "--verb" is
+     * accepted for "--verbose" unless another option also starts with "verb".
+     * An option whose full name is itself a prefix of others (e.g., "verb"
+     * alongside "verbose") always wins. Abbreviations only apply to parsing;
+     * queries such as {@link #has(String)} always use the full name.
+     * @return this object
+     */
+    public MicroOptions allowAbbreviations() {
+        abbrev = true; schema = null; return this; }
+
+    /**
+     * Allows arguments to be read from files: wherever an option may
+     * appear, a token of the form "@path" is replaced by the arguments in
+     * the file at that path. Arguments in the file are separated by
+     * whitespace and may be quoted with single or double quotes. Files are
+     * memory-mapped and streamed into the parser, so even very large files
+     * don't need to fit in the heap. An error reading a file is reported as
+     * an {@link OptionException}.
+     * @return this object
+     */
+    public MicroOptions allowArgFiles() {
+        argFiles = true; schema = null; return this; }
+
+    /**
+     * Allows positional arguments: tokens that aren't options or the
+     * arguments of options, such as the file names in "tool -v a.txt
+     * b.txt", and every token after a "--" token, even those that look like
+     * options. Unless this is called, such tokens are unsupported options.
+     * If commands are configured, the first token that isn't an option is
+     * still taken to be the name of a command. The positional arguments
+     * are a view over the array given to {@link #parse(String...)}, which
+     * must not be changed afterwards; they aren't copied.
+     * @return this object
+     * @see #getPositionals()
+     */
+    public MicroOptions allowPositionals() {
+        positionals = true; schema = null; return this; }
+
+    /**
+     * Installs a listener to be notified of every parse and of every lookup
+     * in the results of those parses, e.g. to keep metrics or to record
+     * events for a profiler.
+     * @param listener the listener, or null to remove any listener
+     * @return this object
+     */
+    public MicroOptions withListener(Listener listener) {
+        this.listener = listener; schema = null; return this; }
+
     /**
      * Parses the specified array of Strings and populates values for all
-     * configured options.
+     * configured options. Subsequent queries refer to the options as they
+     * were configured at the time of the most recent successful parse; see
+     * the class documentation.
      * @param strings e.g., the arguments on the command line
      */
-    public void parse(String... strings) {
-        for (int i = 0; i < strings.length; i++) {
-            String k = strings[i]; String value = null;
-            if (k.matches("-[[^\\s]&&[^-]]")) { k = k.substring(1); }
-            else if (k.matches("--[\\S]{2,}")) { k = k.substring(2); }
-            else throw new UnsupportedOptionException(k);
-            if (!opts.containsKey(k)) throw new UnsupportedOptionException(k);
-            Option o = opts.get(k);
-            if (!o.u) {
-                if (i + 1 >= strings.length) throw new MissingArgException(k);
-                value = strings[++i];
-            }
-            args.put(k, value);
-        }
-        for (Option o : opts.values()) // ensure required opts are present
-            if (o.r && !args.containsKey(o.n))
-                throw new RequiredOptionException(o.n);
+    public void parse(String... strings) { result = compile().parse(strings); }
+
+    /**
+     * Classifies a token in a single pass: "-x" is a short option (any one
+     * non-whitespace char except a hyphen), "--xx" is a long option (two or
+     * more non-whitespace chars). Whitespace is as per the regex class \s.
+     * @param k the token to classify
+     * @return the index at which the option name starts, or -1 if the token
+     * is not syntactically an option
+     */
+    private static int nameStart(String k) {
+        int len = k.length();
+        if (len < 2 || k.charAt(0) != '-') return -1;
+        if (len == 2) { char c = k.charAt(1);
+            return c == '-' || isSpace(c) ? -1 : 1; }
+        if (len == 3) return isPair(k, 1) ? 1 : -1; // one supplementary char
+        if (k.charAt(1) != '-' || len == 4 && isPair(k, 2)) return -1;
+        for (int x = 2; x < len; x++) if (isSpace(k.charAt(x))) return -1;
+        return 2;
+    }
+
+    private static boolean isPair(String k, int x) {
+        return Character.isHighSurrogate(k.charAt(x))
+                && Character.isLowSurrogate(k.charAt(x + 1));
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\013'
+                || c == '\f' || c == '\r';
     }
 
     /**
@@ -144,7 +2110,57 @@ public class MicroOptions {
      */
     public Option option(String name) {
         checkName(name);
-        Option o = new Option(name); opts.put(name, o); return o; }
+        Option o = new Option(name); opts.put(name, o); schema = null;
+        return o; }
+
+    /**
+     * Configure a command having the specified name. Once any command is
+     * configured, the first token that isn't an option, an argument or
+     * hyphenated, as "--" is, is taken to be the name of a command, and
+     * every token after it is
+     * parsed against that command's options rather than these. Options
+     * before the command, e.g. "-v" in "tool -v commit -a", are parsed as
+     * usual. Commands can't be given in argument files.
+     * @param name the name to assign to the command
+     * @return the command object, which can be used for further
+     * configuration
+     * @throws UnsupportedOperationException if the name is null, the empty
+     * string, or starts with a hyphen or "@"
+     * @see MicroOptions.Command#configuredBy(Configurer)
+     * @see MicroOptions.Command#configuredBy(String)
+     */
+    public Command command(String name) {
+        checkName(name);
+        if (name.charAt(0) == '@')
+            throw new UnsupportedOptionException("illegal name: " + name);
+        Command c = new Command(name); cmds.put(name, c); schema = null;
+        return c; }
+
+    /**
+     * @return the name of the command given, or null if none was
+     * @see #command(String)
+     */
+    public String getCommand() { return current().getCommand(); }
+
+    /**
+     * Returns the values of the options of the command given. The result
+     * supports the same queries as this object, e.g.
+     * {@link Result#getArg(String)}.
+     * @return the result for the command, or null if no command was given
+     * @see #command(String)
+     */
+    public Result getCommandResult() { return current().getCommandResult(); }
+
+    /**
+     * Returns the positional arguments given, in order. Retrieving or
+     * iterating over the list costs no more than reading the array that was
+     * parsed, however many there are.
+     * @return a read-only view of the positional arguments; empty if there
+     * are none
+     * @see #allowPositionals()
+     */
+    public java.util.List<String> getPositionals() {
+        return current().getPositionals(); }
 
     /**
      * Checks a name for validity and throws an UnsupportedOptionException
@@ -153,13 +2169,14 @@ public class MicroOptions {
      * @throws UnsupportedOperationException if the name is null, the empty
      * string, or starts with a hyphen 
      */
-    private void checkName(String name) {
+    private static void checkName(String name) {
         if (name == null || name.length() == 0 || name.charAt(0) == '-')
             throw new UnsupportedOptionException("illegal name: " + name);
     }
 
     /**
-     * Returns true iff the specified option was encountered during parsing.
+     * Returns true iff the specified option was encountered during parsing,
+     * or was given a value by one of its other sources.
      * @param option the option to look for
      * @return true if so, otherwise false
      * @throws UnsupportedOptionException if the option hasn't been defined
@@ -167,12 +2184,7 @@ public class MicroOptions {
      * also thrown if the name passed to the method is null, the empty string,
      * or starts with a hyphen
      */
-    public boolean has(String option) {
-        checkName(option);
-        if (!opts.containsKey(option))
-            throw new UnsupportedOptionException(option);
-        return args.containsKey(option);
-    }
+    public boolean has(String option) { return current().has(option); }
 
     /**
      * Returns the argument that was associated with the specified option.
@@ -200,11 +2212,158 @@ public class MicroOptions {
      * or starts with a hyphen
      */
     public String getArg(String option, String defaultValue) {
-        checkName(option);
-        if (!opts.containsKey(option))
-            throw new UnsupportedOptionException(option);
-        if (opts.get(option).u)
-            throw new OptionException("Option takes no arguments: " + option);
-        return args.containsKey(option) ? args.get(option) : defaultValue;
+        return current().getArg(option, defaultValue);
+    }
+
+    /**
+     * Returns the number of times that the specified option was encountered
+     * during parsing; e.g., 3 for a unary option "-v" given as "-v -v -v".
+     * @param option the option to look for
+     * @return the number of occurrences, or 0 if the option wasn't found
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     */
+    public int getCount(String option) { return current().getCount(option); }
+
+    /**
+     * Returns where the value of the specified option came from: the
+     * command line or, for options declared with
+     * {@link Option#fromEnv(String)}, {@link Option#fromProperty(String)} or
+     * {@link Option#defaultsTo(String)}, the first of those that was found.
+     * @param option the option to look for
+     * @return the source of the option's value, or null if it has none
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     */
+    public Source getSource(String option) {
+        return current().getSource(option);
     }
+
+    /**
+     * Returns all arguments given for the specified option, in order. For
+     * an option that is not {@link Option#isRepeatable() repeatable} this is
+     * at most the last argument given.
+     * @param option the option to look up the arguments for
+     * @return a read-only view of the arguments; empty if there are none
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or is unary, or the name is illegal
+     */
+    public java.util.List<String> getArgs(String option) {
+        return current().getArgs(option);
+    }
+
+    /**
+     * Returns the argument of an option declared with
+     * {@link Option#isInt()}, as converted during parsing.
+     * @param option the option to look up the argument for
+     * @param defaultValue the value to return if the specified option was
+     * not encountered during parsing
+     * @return the argument, or the specified default value
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     * @throws OptionException if the option is not of type int
+     */
+    public int getInt(String option, int defaultValue) {
+        return current().getInt(option, defaultValue);
+    }
+
+    /**
+     * Returns the argument of an option declared with
+     * {@link Option#isLong()}, as converted during parsing.
+     * @param option the option to look up the argument for
+     * @param defaultValue the value to return if the specified option was
+     * not encountered during parsing
+     * @return the argument, or the specified default value
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     * @throws OptionException if the option is not of type long
+     */
+    public long getLong(String option, long defaultValue) {
+        return current().getLong(option, defaultValue);
+    }
+
+    /**
+     * Returns the argument of an option declared with
+     * {@link Option#isDouble()}, as converted during parsing.
+     * @param option the option to look up the argument for
+     * @param defaultValue the value to return if the specified option was
+     * not encountered during parsing
+     * @return the argument, or the specified default value
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     * @throws OptionException if the option is not of type double
+     */
+    public double getDouble(String option, double defaultValue) {
+        return current().getDouble(option, defaultValue);
+    }
+
+    /**
+     * Returns the argument of an option declared with
+     * {@link Option#isBoolean()}, as converted during parsing.
+     * @param option the option to look up the argument for
+     * @param defaultValue the value to return if the specified option was
+     * not encountered during parsing
+     * @return the argument, or the specified default value
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     * @throws OptionException if the option is not of type boolean
+     */
+    public boolean getBoolean(String option, boolean defaultValue) {
+        return current().getBoolean(option, defaultValue);
+    }
+
+    /**
+     * Returns the argument of an option declared with
+     * {@link Option#isEnum(Class)}, as converted during parsing.
+     * @param <E> the enum type given when the option was declared
+     * @param option the option to look up the argument for
+     * @param defaultValue the value to return if the specified option was
+     * not encountered during parsing
+     * @return the argument, or the specified default value
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     * @throws OptionException if the option is not of an enum type
+     */
+    public <E extends Enum<E>> E getEnum(String option, E defaultValue) {
+        return current().getEnum(option, defaultValue);
+    }
+
+    /**
+     * Returns the argument of an option declared with
+     * {@link Option#isByteSize()}, as converted during parsing.
+     * @param option the option to look up the argument for
+     * @param defaultValue the value to return if the specified option was
+     * not encountered during parsing
+     * @return the argument in bytes, or the specified default value
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     * @throws OptionException if the option is not a byte size
+     */
+    public long getByteSize(String option, long defaultValue) {
+        return current().getByteSize(option, defaultValue);
+    }
+
+    /**
+     * Returns the argument of an option declared with
+     * {@link Option#isDuration()}, as converted during parsing.
+     * @param option the option to look up the argument for
+     * @param unit the unit to return the duration in, truncating if needed
+     * @param defaultValue the value to return if the specified option was
+     * not encountered during parsing
+     * @return the argument in the specified unit, or the default value
+     * @throws UnsupportedOptionException if the option hasn't been defined
+     * via {@link #option(String)} or the name is illegal
+     * @throws OptionException if the option is not a duration
+     */
+    public long getDuration(String option,
+            java.util.concurrent.TimeUnit unit, long defaultValue) {
+        return current().getDuration(option, unit, defaultValue);
+    }
+
+    /**
+     * @return the result of the most recent successful parse, or a result
+     * with no options present if there hasn't been one
+     */
+    private Result current() {
+        return result != null ? result : compile().empty(); }
 }
@@ -0,0 +1,185 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompletionGeneratorTest {
+    public static class Push implements MicroOptions.Configurer {
+        static int configured;
+        public void configure(MicroOptions options) {
+            configured++;
+            options.option("f").describedAs("force").isUnary();
+            options.option("remote");
+        }
+    }
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    private MicroOptions tool;
+    private Path dir;
+
+    @Before public void setup() {
+        tool = new MicroOptions();
+        tool.option("v").describedAs("be\tvery\nverbose").isUnary();
+        tool.option("output").describedAs("where to write");
+        tool.option("level");
+        tool.command("push").configuredBy(Push.class.getName());
+        dir = folder.getRoot().toPath();
+        Push.configured = 0;
+    }
+
+    @Test public void testCache() throws Exception {
+        assertTrue(CompletionGenerator.update("my-tool", tool.compile(), dir));
+        assertEquals(Arrays.asList(
+                "# uopt4j completions " + fingerprint(),
+                "-\ta\t--level\t",
+                "-\ta\t--output\twhere to write",
+                "-\tf\t-v\tbe very verbose",
+                "-\tc\tpush\t",
+                "push\tf\t-f\tforce",
+                "push\ta\t--remote\t"),
+                Files.readAllLines(dir.resolve("my-tool.completions")));
+        assertEquals(1, Push.configured);
+    }
+
+    @Test public void testFingerprint() {
+        String fingerprint = fingerprint();
+        assertTrue(fingerprint.matches("[0-9a-f]{32}"));
+        assertEquals(fingerprint, fingerprint());
+        assertEquals(0, Push.configured); // commands aren't configured
+        tool.option("level").describedAs("how hard to try");
+        String described = fingerprint();
+        assertNotEquals(fingerprint, described);
+        tool.option("level").isUnary();
+        assertNotEquals(described, fingerprint());
+        // a configurer without a class file is hashed by its options
+        tool.command("pull").configuredBy(options -> options.option("a"));
+        String pull = fingerprint();
+        tool.command("pull").configuredBy(options -> options.option("b"));
+        assertNotEquals(pull, fingerprint());
+        assertEquals(0, Push.configured);
+    }
+
+    @Test public void testUpdate() throws Exception {
+        assertTrue(CompletionGenerator.update("my-tool", tool.compile(), dir));
+        Path bash = dir.resolve("my-tool.bash");
+        Path zsh = dir.resolve("my-tool.zsh");
+        Path cache = dir.resolve("my-tool.completions");
+        String script = read(bash);
+        assertTrue(script.contains("complete -o bashdefault -o default"
+                + " -F _uopt4j_my_tool my-tool"));
+        assertTrue(read(zsh).contains("compdef _uopt4j_my_tool my-tool"));
+        Push.configured = 0;
+        assertFalse(CompletionGenerator.update("my-tool", tool.compile(), dir));
+        assertEquals(0, Push.configured);
+        // a changed script is put back, and nothing else is written
+        Files.write(bash, "edited".getBytes(StandardCharsets.UTF_8));
+        Files.write(cache, Arrays.asList(Files.readAllLines(cache).get(0)));
+        assertTrue(CompletionGenerator.update("my-tool", tool.compile(), dir));
+        assertEquals(script, read(bash));
+        assertEquals(1, Files.readAllLines(cache).size());
+        // a changed option rewrites the cache, but not the scripts
+        tool.option("level").describedAs("how hard to try");
+        assertTrue(CompletionGenerator.update("my-tool", tool.compile(), dir));
+        assertTrue(read(cache).contains("--level\thow hard to try"));
+        assertEquals(script, read(bash));
+        String[] files = dir.toFile().list();
+        Arrays.sort(files); // and no temporary files are left behind
+        assertEquals(Arrays.asList("my-tool.bash", "my-tool.completions",
+                "my-tool.zsh"), Arrays.asList(files));
+    }
+
+    @Test public void testBash() throws Exception {
+        CompletionGenerator.update("my-tool", tool.compile(), dir);
+        Path cache = dir.resolve("my-tool.completions");
+        Path old = dir.resolve("old");
+        Files.copy(cache, old);
+        tool.option("verbose").isUnary();
+        CompletionGenerator.update("my-tool", tool.compile(), dir);
+        String complete = "source " + dir.resolve("my-tool.bash") + "\n"
+                + "c() { COMP_WORDS=(\"$@\"); COMP_CWORD=$(($# - 1));"
+                + " COMPREPLY=(); _uopt4j_my_tool;"
+                + " echo \"${COMPREPLY[*]}\"; }\n";
+        assertEquals(Arrays.asList(
+                "--level --output -v --verbose",
+                "--verbose",
+                "push",
+                "", // the argument of --output: files
+                "push",
+                "-f --remote",
+                "-f --remote",
+                "", // after --: files
+                "--level --output -v", // the old cache is reloaded
+                "-f --remote"),
+                bash(complete
+                        + "c my-tool -\n"
+                        + "c my-tool --verb\n"
+                        + "c my-tool ''\n"
+                        + "c my-tool --output ''\n"
+                        + "c my-tool --output push ''\n"
+                        + "c my-tool -v push -\n"
+                        + "c my-tool push --remote x -\n"
+                        + "c my-tool -- -\n"
+                        + "cp " + old + " " + cache + "\n"
+                        + "c my-tool -\n"
+                        + "c my-tool push -\n"));
+    }
+
+    private String fingerprint() {
+        return new CompletionGenerator("my-tool", tool.compile())
+                .getFingerprint();
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs a script with bash, skipping the test if there is no bash.
+     * @return the lines that the script printed
+     */
+    private static java.util.List<String> bash(String script)
+            throws Exception {
+        Process process;
+        try {
+            process = new ProcessBuilder("bash", "-c", script)
+                    .redirectErrorStream(true).start();
+        } catch (IOException e) {
+            Assume.assumeNoException(e);
+            throw e;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+        }
+        assertEquals(0, process.waitFor());
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text, text.endsWith("\n"));
+        return Arrays.asList(
+                text.substring(0, text.length() - 1).split("\n", -1));
+    }
+}
@@ -0,0 +1,356 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JavaMinifyToolTest {
+    // Comment markers in literals, shadowed fields, reused local names and
+    // operators that mustn't run together.
+    private static final String SAMPLE = "public class Sample {\n"
+            + "    private int count = 1; // a field\n"
+            + "    private static String slashes = \"/* no */ // nor this\";\n"
+            + "    private final char[] quotes =\n"
+            + "            { '\"', '\\'', '/', '\\\\' };\n"
+            + "\n"
+            + "    /** Shadows a field, and reuses names in nested blocks. */\n"
+            + "    public String run(int count) {\n"
+            + "        StringBuilder b = new StringBuilder(slashes);\n"
+            + "        b.append(count).append(this.count);\n"
+            + "        for (int i = 0; i < 2; i++) {\n"
+            + "            int x = i; b.append(x);\n"
+            + "        }\n"
+            + "        for (int x = 5; x > 3; x--) b.append(x);\n"
+            + "        int a = 7, c = 2;\n"
+            + "        b.append(a - -c).append(a / c).append(a/ c);\n"
+            + "        b.append(a++ + ++c).append(quotes).append(\"\\\"//\");\n"
+            + "        Runnable r = new Runnable() {\n"
+            + "            private int count = 9;\n"
+            + "            public void run() {\n"
+            + "                int count = this.count * 2;\n"
+            + "                slashes += count;\n"
+            + "            }\n"
+            + "        };\n"
+            + "        r.run();\n"
+            + "        return b.append(slashes).toString();\n"
+            + "    }\n"
+            + "}\n";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void testCompact() throws Exception {
+        assertEquals("// header\n"
+                + "a = b;\n"
+                + "   s = \"/* no */ // no\";\n"
+                + "c = '\\'' + '/'; d = e  / f;\n"
+                + "g = h / i;\n",
+                minify("compact", 80, "a = b; // comment \"x\"\r\n\r\n"
+                        + "  /* block\n * star */ s = \"/* no */ // no\";\t \n"
+                        + "c = '\\'' + '/'; d = e /**/ / f;\n"
+                        + "g = h / i; /* unterminated"));
+    }
+
+    @Test public void testMin() throws Exception {
+        assertEquals("// header\n"
+                + "int a=b- -c,d=e+ +f,g=h/ /x/i,j=k/l;"
+                + "String s=\"a  /* b */  c\";\n",
+                minify("min", 80, "int a = b - -c, d = e + +f,\n"
+                        + "    g = h / /*x*/ /x/ i, j = k /**/ / l;\n"
+                        + "String s = \"a  /* b */  c\"; // end"));
+    }
+
+    @Test public void testMin_Wrapped() throws Exception {
+        assertEquals("// header\n"
+                + "int alpha=\n"
+                + "beta+gamma\n"
+                + "*delta;\n",
+                minify("min", 10, "int alpha = beta + gamma * delta;"));
+    }
+
+    @Test public void testMin_SameTokens() throws Exception {
+        File sample = write("src/Sample.java", SAMPLE);
+        File compact = file("compact.java"), min = file("min.java");
+        JavaMinifyTool.minify(sample.getPath(), compact.getPath(),
+                min.getPath(), 80, "", null, null);
+        List<String> tokens = tokens(SAMPLE);
+        assertEquals(tokens, tokens(read(compact)));
+        assertEquals(tokens, tokens(read(min)));
+    }
+
+    @Test public void testRename() throws Exception {
+        File sample = write("src/Sample.java", SAMPLE);
+        File compact = file("compact/Sample.java");
+        File min = file("min/Sample.java"), plain = file("plain.java");
+        compact.getParentFile().mkdirs();
+        min.getParentFile().mkdirs();
+        JavaMinifyTool.minify(sample.getPath(), compact.getPath(),
+                min.getPath(), 80, "", sample.getParent(), null);
+        JavaMinifyTool.minify(sample.getPath(), null, plain.getPath(), 80, "",
+                null, null);
+        assertEquals(tokens(SAMPLE), tokens(read(compact))); // not renamed
+        String renamed = read(min);
+        assertTrue(renamed, renamed.length() < read(plain).length());
+        // only identifiers change, and those that aren't private stay
+        List<String> before = tokens(SAMPLE), after = tokens(renamed);
+        assertEquals(before.size(), after.size());
+        int changed = 0;
+        for (int x = 0; x < before.size(); x++) {
+            if (before.get(x).equals(after.get(x))) continue;
+            changed++;
+            assertTrue(before.get(x), isIdentifier(before.get(x)));
+            assertTrue(after.get(x), isIdentifier(after.get(x)));
+        }
+        assertTrue(changed > 0);
+        for (String kept : new String[] { "Sample", "run", "append",
+                "toString", "StringBuilder", "Runnable" }) {
+            assertTrue(kept, after.contains(kept));
+        }
+        // and it still compiles, and does the same
+        assertEquals(run(sample), run(min));
+    }
+
+    @Test public void testTree() throws Exception {
+        write("src/a/A.java", "class A { /* a */ }");
+        write("src/a/b/B.java", "class B { // b\n}");
+        write("src/a/notes.txt", "not java");
+        File out = file("compact"), min = file("min");
+        JavaMinifyTool.minifyTree(file("src").getPath(), out.getPath(),
+                min.getPath(), 80, "// header", null, null);
+        assertEquals("// header\nclass A {  }\n",
+                read(file("compact/a/A.java")));
+        assertEquals("// header\nclass B {\n}\n",
+                read(file("compact/a/b/B.java")));
+        assertEquals("// header\nclass B{}\n", read(file("min/a/b/B.java")));
+        assertFalse(file("compact/a/notes.txt").exists());
+        // a file where a directory should be
+        write("blocked/a", "");
+        try {
+            JavaMinifyTool.minifyTree(file("src").getPath(),
+                    file("blocked").getPath(), null, 80, "", null, null);
+            fail("wrote into a file");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("can't"));
+        }
+    }
+
+    @Test public void testManifest() throws Exception {
+        write("src/A.java", "class A {}");
+        write("src/b/B.java", "class B {}");
+        File list = file("manifest");
+        JavaMinifyTool.Manifest manifest = new JavaMinifyTool.Manifest(list);
+        tree(manifest, "");
+        assertEquals(4, manifest.written.get());
+        manifest.save();
+        manifest = new JavaMinifyTool.Manifest(list);
+        tree(manifest, "");
+        assertEquals(0, manifest.written.get());
+        assertEquals(4, manifest.skipped.get());
+        write("src/A.java", "class A { int changed; }");
+        assertTrue(file("min/b/B.java").setLastModified(0)); // edited by hand
+        manifest = new JavaMinifyTool.Manifest(list);
+        tree(manifest, "");
+        assertEquals(3, manifest.written.get());
+        assertEquals("class A{int changed;}\n",
+                read(file("min/A.java")).substring(1));
+        manifest = new JavaMinifyTool.Manifest(list);
+        tree(manifest, "// new header");
+        assertEquals(4, manifest.written.get());
+    }
+
+    @Test public void testManifest_RemovedInput() throws Exception {
+        write("src/A.java", "class A {}");
+        write("src/b/B.java", "class B {}");
+        write("src/b/C.java", "class C {}");
+        File list = file("manifest");
+        JavaMinifyTool.Manifest manifest = new JavaMinifyTool.Manifest(list);
+        tree(manifest, "");
+        manifest.save();
+        assertTrue(file("src/b/B.java").delete());
+        assertTrue(file("src/b/C.java").delete());
+        write("min/b/C.java", "// edited by hand");
+        manifest = new JavaMinifyTool.Manifest(list);
+        tree(manifest, "");
+        manifest.save();
+        assertEquals(2, manifest.skipped.get());
+        assertEquals(Arrays.asList(file("compact/b/B.java").getPath(),
+                file("compact/b/C.java").getPath(),
+                file("min/b/B.java").getPath(),
+                file("min/b/C.java").getPath()), manifest.removed);
+        assertFalse(file("compact/b/B.java").exists());
+        assertFalse(file("min/b/B.java").exists());
+        assertFalse(file("compact/b/C.java").exists());
+        assertEquals("// edited by hand", read(file("min/b/C.java")));
+        assertTrue(file("min/A.java").exists());
+        manifest = new JavaMinifyTool.Manifest(list);
+        tree(manifest, "");
+        assertEquals(2, manifest.skipped.get());
+        assertTrue(manifest.removed.isEmpty()); // their entries are gone
+    }
+
+    @Test public void testVerify() throws Exception {
+        File sample = write("src/Sample.java", SAMPLE);
+        File min = file("min/Sample.java");
+        min.getParentFile().mkdirs();
+        JavaMinifyTool.minify(sample.getPath(), null, min.getPath(), 80, "",
+                sample.getParent(), null);
+        String summary = JavaMinifyTool.Verifier.verify(
+                min.getParentFile(), null);
+        assertTrue(summary, summary.contains("1 file(s) compiled"));
+        String test = "import org.junit.Test;\n"
+                + "public class SampleTest {\n"
+                + "    @Test public void test() {\n"
+                + "        org.junit.Assert.assertEquals(%s,\n"
+                + "                new Sample().run(3).length());\n"
+                + "    }\n"
+                + "}\n";
+        int length = ((String) run(sample)).length();
+        summary = JavaMinifyTool.Verifier.verify(min.getParentFile(),
+                write("SampleTest.java", String.format(test, length)));
+        assertTrue(summary, summary.contains("1 test(s) passed"));
+        try {
+            JavaMinifyTool.Verifier.verify(min.getParentFile(),
+                    write("SampleTest.java", String.format(test, -1)));
+            fail("passed a failing test");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("failed"));
+        }
+        write("broken/Broken.java", "class Broken { int }");
+        try {
+            JavaMinifyTool.Verifier.verify(file("broken"), null);
+            fail("verified code that doesn't compile");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("compilation failed"));
+        }
+    }
+
+    private void tree(JavaMinifyTool.Manifest manifest, String header)
+            throws IOException {
+        JavaMinifyTool.minifyTree(file("src").getPath(),
+                file("compact").getPath(), file("min").getPath(), 80, header,
+                null, manifest);
+    }
+
+    /** Minifies source, with a header, into one mode. */
+    private String minify(String mode, int wrapAt, String source)
+            throws IOException {
+        File in = write("In.java", source), out = file("Out.java");
+        JavaMinifyTool.run(in.getPath(), out.getPath(), mode, wrapAt,
+                "// header");
+        return read(out);
+    }
+
+    /**
+     * Compiles a copy of Sample on its own, in a class loader of its own.
+     * @return what Sample.run(3) returns
+     */
+    private Object run(File source) throws Exception {
+        File classes = folder.newFolder();
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager files =
+                javac.getStandardFileManager(null, null, null);
+        try {
+            assertTrue(javac.getTask(null, files, null,
+                    Arrays.asList("-d", classes.getPath()), null,
+                    files.getJavaFileObjects(source)).call());
+        } finally {
+            files.close();
+        }
+        Class<?> sample = new URLClassLoader(
+                new URL[] { classes.toURI().toURL() }).loadClass("Sample");
+        return sample.getMethod("run", int.class).invoke(
+                sample.getConstructor().newInstance(), 3);
+    }
+
+    /**
+     * Splits Java source into tokens, without comments or whitespace. Every
+     * literal is one token, as is every operator.
+     */
+    private static List<String> tokens(String source) {
+        String[] operators = { ">>>=", "<<=", ">>=", ">>>", "...", "->",
+                "::", "++", "--", "&&", "||", "==", "!=", "<=", ">=", "+=",
+                "-=", "*=", "/=", "&=", "|=", "^=", "%=", "<<", ">>" };
+        List<String> tokens = new ArrayList<String>();
+        int x = 0;
+        while (x < source.length()) {
+            char c = source.charAt(x);
+            int start = x;
+            if (Character.isWhitespace(c)) {
+                x++;
+                continue;
+            } else if (source.startsWith("//", x)) {
+                x = source.indexOf('\n', x);
+                if (x < 0) x = source.length();
+                continue;
+            } else if (source.startsWith("/*", x)) {
+                x = source.indexOf("*/", x + 2) + 2;
+                continue;
+            } else if (c == '"' || c == '\'') {
+                for (x++; source.charAt(x) != c; x++) {
+                    if (source.charAt(x) == '\\') x++;
+                }
+                x++;
+            } else if (Character.isJavaIdentifierPart(c)) {
+                while (x < source.length()
+                        && Character.isJavaIdentifierPart(source.charAt(x))) {
+                    x++;
+                }
+            } else {
+                x++;
+                for (String operator : operators) {
+                    if (source.startsWith(operator, start)) {
+                        x = start + operator.length();
+                        break;
+                    }
+                }
+            }
+            tokens.add(source.substring(start, x));
+        }
+        return tokens;
+    }
+
+    private static boolean isIdentifier(String token) {
+        return Character.isJavaIdentifierStart(token.charAt(0));
+    }
+
+    private File file(String path) { return new File(folder.getRoot(), path); }
+
+    private File write(String path, String text) throws IOException {
+        File file = file(path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsListenerTest {
+    private MicroOptions opts;
+
+    @Before public void setup() {
+        opts = new MicroOptions();
+        opts.option("a").isUnary();
+        opts.option("b");
+        opts.option("n").isInt();
+    }
+
+    @Test public void testCounts() {
+        MetricsListener metrics = new MetricsListener();
+        opts.withListener(metrics);
+        opts.parse("-a", "-b", "x");
+        assertTrue(opts.has("a"));
+        assertEquals(5, opts.getInt("n", 5));
+        try {
+            opts.parse("-q", "-n", "many");
+            fail("parsed an unsupported option");
+        } catch (MicroOptions.UnsupportedOptionException expected) {}
+        opts.compile().validate("-q", "-n", "many", "-b");
+        assertEquals(3, metrics.getParses());
+        assertEquals(1, metrics.getFailures());
+        assertEquals(8, metrics.getTokens()); // the failed parse stops early
+        assertEquals(2, metrics.getLookups());
+        assertEquals(1, metrics.getFallbacks());
+        assertEquals(2, metrics.getProblems(
+                MicroOptions.Diagnostic.Kind.UNSUPPORTED_OPTION));
+        assertEquals(1, metrics.getProblems(
+                MicroOptions.Diagnostic.Kind.CONVERSION));
+        assertEquals(1, metrics.getProblems(
+                MicroOptions.Diagnostic.Kind.MISSING_ARG));
+        assertEquals(0, metrics.getProblems(
+                MicroOptions.Diagnostic.Kind.REQUIRED_OPTION));
+        assertTrue(metrics.getMaxNanos() <= metrics.getTotalNanos());
+        assertTrue(metrics.toString(), metrics.toString().startsWith(
+                "parses=3 failures=1 tokens=8 lookups=2 fallbacks=1 "));
+    }
+
+    @Test public void testMaxNanos() throws Exception {
+        final MetricsListener metrics = new MetricsListener();
+        assertEquals(0, metrics.getMaxNanos());
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override public void run() {
+                    for (int x = offset; x < 4000; x += 4) {
+                        metrics.parseFinished(1, x, false);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(4000, metrics.getParses());
+        assertEquals(3999, metrics.getMaxNanos());
+        assertEquals(3999L * 4000 / 2, metrics.getTotalNanos());
+        metrics.parseFinished(1, 5, true); // a fast parse keeps the maximum
+        assertEquals(3999, metrics.getMaxNanos());
+        assertEquals(1, metrics.getFailures());
+    }
+
+    @Test public void testJfr() {
+        // with no recording the events are disabled, but the counts go on
+        JfrListener metrics = new JfrListener();
+        opts.withListener(metrics);
+        opts.parse("-b", "x");
+        assertEquals("x", opts.getArg("b"));
+        assertEquals(1, metrics.getParses());
+        assertEquals(2, metrics.getTokens());
+        assertEquals(1, metrics.getLookups());
+        assertEquals(0, metrics.getFallbacks());
+    }
+}
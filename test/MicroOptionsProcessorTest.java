@@ -0,0 +1,175 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MicroOptionsProcessorTest {
+    private static final String TOOL = "public class Tool {\n"
+            + "    public enum Mode { FAST, SAFE }\n"
+            + "    @MicroOption(name = \"v\", description = \"be verbose\")\n"
+            + "    public boolean verbose;\n"
+            + "    @MicroOption public boolean color = true;\n"
+            + "    @MicroOption(required = true) public String in;\n"
+            + "    @MicroOption public String out = \"/tmp/out\";\n"
+            + "    @MicroOption(env = \"UOPT4J_TEST_UNSET\")\n"
+            + "    public int level = 3;\n"
+            + "    @MicroOption public Mode mode = Mode.SAFE;\n"
+            + "    @MicroOption(duration = true) public long timeout = 30000;\n"
+            + "    @MicroOption(byteSize = true) public long cache = 1;\n"
+            + "    @MicroOption public java.util.List<String> include =\n"
+            + "            java.util.Collections.emptyList();\n"
+            + "}\n";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void testBind() throws Exception {
+        Class<?> binder = compile("Tool.java", TOOL).loadClass(
+                "ToolOptions");
+        Object tool = parse(binder, "--in", "a", "-v", "--level", "5",
+                "--mode", "FAST", "--timeout", "2s", "--cache", "1k",
+                "--include", "x", "--include", "y");
+        assertEquals(true, get(tool, "verbose"));
+        assertEquals(true, get(tool, "color"));
+        assertEquals("a", get(tool, "in"));
+        assertEquals("/tmp/out", get(tool, "out"));
+        assertEquals(5, get(tool, "level"));
+        assertEquals("FAST", get(tool, "mode").toString());
+        assertEquals(2000L, get(tool, "timeout"));
+        assertEquals(1024L, get(tool, "cache"));
+        assertEquals(Arrays.asList("x", "y"), get(tool, "include"));
+    }
+
+    @Test public void testBind_InitialValuesKept() throws Exception {
+        Class<?> binder = compile("Tool.java", TOOL).loadClass(
+                "ToolOptions");
+        Object tool = parse(binder, "--in", "a");
+        assertEquals(false, get(tool, "verbose"));
+        assertEquals(true, get(tool, "color"));
+        assertEquals("/tmp/out", get(tool, "out"));
+        assertEquals(3, get(tool, "level"));
+        assertEquals("SAFE", get(tool, "mode").toString());
+        assertEquals(30000L, get(tool, "timeout"));
+        assertEquals(1L, get(tool, "cache"));
+        assertEquals(Arrays.asList(), get(tool, "include"));
+        try {
+            parse(binder);
+            fail("parsed without a required option");
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            assertTrue(e.getCause()
+                    instanceof MicroOptions.RequiredOptionException);
+        }
+    }
+
+    @Test public void testDeclare() throws Exception {
+        Class<?> binder = compile("Tool.java", TOOL).loadClass(
+                "ToolOptions");
+        MicroOptions options =
+                (MicroOptions) binder.getMethod("declare").invoke(null);
+        String usage = options.usageString();
+        assertTrue(usage, usage.contains("be verbose"));
+        MicroOptions.Schema schema = options.compile();
+        assertTrue(schema.isUnary("v"));
+        assertTrue(schema.isUnary("color"));
+        assertFalse(schema.isUnary("in"));
+    }
+
+    @Test public void testErrors() throws Exception {
+        String[] bad = {
+                "@MicroOption private boolean f;",
+                "@MicroOption static boolean f;",
+                "@MicroOption final boolean f = false;",
+                "@MicroOption Object f;",
+                "@MicroOption java.util.List<Integer> f;",
+                "@MicroOption(duration = true) int f;",
+        };
+        for (String field : bad) {
+            DiagnosticCollector<JavaFileObject> diagnostics =
+                    new DiagnosticCollector<JavaFileObject>();
+            assertFalse(field, run(diagnostics, "Bad.java",
+                    "class Bad { " + field + " }"));
+            assertTrue(field, diagnostics.getDiagnostics().toString()
+                    .contains("@MicroOption")
+                    || diagnostics.getDiagnostics().toString()
+                            .contains("must be long"));
+        }
+    }
+
+    private static Object parse(Class<?> binder, String... args)
+            throws Exception {
+        Class<?> type = binder.getClassLoader().loadClass("Tool");
+        Object tool = type.getConstructor().newInstance();
+        binder.getMethod("parse", type, String[].class)
+                .invoke(null, tool, args);
+        return tool;
+    }
+
+    private static Object get(Object tool, String field) throws Exception {
+        return tool.getClass().getField(field).get(tool);
+    }
+
+    /**
+     * Compiles a source file with the processor.
+     * @return a class loader for the compiled and generated classes
+     */
+    private ClassLoader compile(String path, String source) throws Exception {
+        DiagnosticCollector<JavaFileObject> diagnostics =
+                new DiagnosticCollector<JavaFileObject>();
+        assertTrue(diagnostics.getDiagnostics().toString(),
+                run(diagnostics, path, source));
+        return new URLClassLoader(new URL[] {
+                new File(folder.getRoot(), "classes").toURI().toURL() },
+                getClass().getClassLoader());
+    }
+
+    private boolean run(DiagnosticCollector<JavaFileObject> diagnostics,
+            String path, String source) throws Exception {
+        File file = new File(folder.getRoot(), "src/" + path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        File classes = new File(folder.getRoot(), "classes");
+        classes.mkdirs();
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager files =
+                javac.getStandardFileManager(null, null, null);
+        List<String> options = Arrays.asList("-d", classes.getPath(),
+                "-s", classes.getPath(),
+                "-cp", System.getProperty("java.class.path"));
+        JavaCompiler.CompilationTask task = javac.getTask(null, files,
+                diagnostics, options, null,
+                files.getJavaFileObjects(file));
+        task.setProcessors(Arrays.asList(new MicroOptionsProcessor()));
+        try {
+            return task.call();
+        } finally {
+            files.close();
+        }
+    }
+}
@@ -17,6 +17,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 public class MicroOptionsTest {
+    private enum Color { RED, GREEN, BLUE }
     private MicroOptions opts;
     @Before public void setup() { opts = new MicroOptions(); }
 
@@ -37,6 +38,47 @@ public class MicroOptionsTest {
         assertEquals(expected, opts.usageString());
     }
 
+    @Test public void testUsageString_Cached() {
+        opts.option("aa").describedAs("A");
+        String usage = opts.usageString();
+        assertSame(usage, opts.usageString());
+        MicroOptions.Option b = opts.option("bb").describedAs("B").isUnary();
+        assertEquals("--aa [ARG]    A (optional)\n" +
+                     "--bb          B (optional)", opts.usageString());
+        b.describedAs("Bee");
+        assertEquals("--aa [ARG]    A (optional)\n" +
+                     "--bb          Bee (optional)", opts.usageString());
+    }
+
+    @Test public void testAppendUsage() throws Exception {
+        opts.option("cc").describedAs("C");
+        opts.option("a").describedAs("A").isUnary();
+        opts.option("d").isUnary().isRequired();
+        StringBuilder b = new StringBuilder();
+        opts.appendUsage(b);
+        assertEquals(opts.usageString(), b.toString());
+        java.io.StringWriter writer = new java.io.StringWriter();
+        opts.appendUsage(writer, 0);
+        assertEquals(opts.usageString(), writer.toString());
+    }
+
+    @Test public void testAppendUsage_Wrapped() throws Exception {
+        opts.option("in").describedAs("path of the  input file to read");
+        opts.option("v").describedAs("be verbose").isUnary();
+        opts.option("x").describedAs("an-extremely-long-unbreakable-word");
+        StringBuilder b = new StringBuilder();
+        opts.appendUsage(b, 30);
+        String expected =
+                "--in [ARG]    path of the\n" +
+                "              input file to\n" +
+                "              read (optional)\n" +
+                " -v           be verbose\n" +
+                "              (optional)\n" +
+                " -x  [ARG]    an-extremely-long-unbreakable-word\n" +
+                "              (optional)";
+        assertEquals(expected, b.toString());
+    }
+
     @Test public void testParse_Empty() {
         opts.parse(new String[]{});
     }
@@ -57,6 +99,22 @@ public class MicroOptionsTest {
         }
     }
 
+    @Test public void testParse_OptionAddedAfterParse() {
+        opts.option("x").isUnary();
+        opts.parse("-x");
+        opts.option("late");
+        assertTrue(opts.has("x")); // still the most recent parse
+        try {
+            opts.has("late");
+            fail("queried an option added after the parse");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            // Expected
+        }
+        opts.parse("-x");
+        assertFalse(opts.has("late"));
+        assertNull(opts.getArg("late"));
+    }
+
     @Test public void testParse_BadSyntax() {
         opts.option("x").isUnary();
         try {
@@ -87,6 +145,28 @@ public class MicroOptionsTest {
         }
     }
 
+    @Test public void testParse_MalformedTokens() {
+        opts.option("x").isUnary();
+        opts.option("long").isUnary();
+        String[] malformed = { "-", "--", "---", "- ", "-\t", "--lo ng",
+                "--l", "-x ", " -x", "" };
+        for (String token : malformed) {
+            try {
+                opts.parse(token);
+                fail("parsed malformed token '" + token + "'");
+            } catch (MicroOptions.UnsupportedOptionException e) {
+                assertEquals("Unsupported option '" + token + "'",
+                        e.getMessage());
+            }
+        }
+        try {
+            opts.parse("--lon");
+            fail("parsed a prefix of a long option");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            assertEquals("Unsupported option 'lon'", e.getMessage());
+        }
+    }
+
     @Test public void testParse_RequiredOption() {
         opts.option("x").isRequired().isUnary();
         opts.option("y").isUnary();
@@ -251,4 +331,979 @@ public class MicroOptionsTest {
             // Expected
         }
     }
+
+    @Test public void testCompile_IndependentResults() {
+        opts.option("x").isUnary();
+        opts.option("y");
+        MicroOptions.Schema schema = opts.compile();
+        MicroOptions.Result first = schema.parse("-x");
+        MicroOptions.Result second = schema.parse("-y", "y-value");
+        assertTrue(first.has("x"));
+        assertFalse(first.has("y"));
+        assertNull(first.getArg("y"));
+        assertFalse(second.has("x"));
+        assertEquals("y-value", second.getArg("y", "fallback"));
+        try {
+            second.getArg("x");
+            fail("Queried for an arg to a unary option");
+        } catch (MicroOptions.OptionException e) {
+            // Expected
+        }
+    }
+
+    @Test public void testCompile_FrozenSnapshot() {
+        opts.option("x").isUnary();
+        MicroOptions.Schema schema = opts.compile();
+        assertSame(schema, opts.compile());
+        opts.option("y").isRequired();
+        assertNotSame(schema, opts.compile());
+        schema.parse("-x"); // y is not part of the frozen schema
+        try {
+            schema.parse("-y", "y-value");
+            fail("parsed an option added after compiling");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            // Expected
+        }
+        try {
+            opts.parse("-x");
+            fail("avoided passing required option");
+        } catch (MicroOptions.RequiredOptionException e) {
+            // Expected
+        }
+    }
+
+    @Test public void testCompile_ConcurrentParses() throws Exception {
+        opts.option("n");
+        final MicroOptions.Schema schema = opts.compile();
+        final java.util.concurrent.atomic.AtomicInteger failures =
+                new java.util.concurrent.atomic.AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override public void run() {
+                    for (int x = 0; x < 10000; x++) {
+                        String value = getName() + x;
+                        MicroOptions.Result result = schema.parse("-n", value);
+                        if (!value.equals(result.getArg("n")))
+                            failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(0, failures.get());
+    }
+
+    @Test public void testParse_Abbreviations() {
+        opts.allowAbbreviations();
+        opts.option("verbose").isUnary();
+        opts.option("version").isUnary();
+        opts.option("out");
+        opts.option("output-format");
+        opts.option("z").isUnary();
+        opts.parse("--verb", "--out", "o", "--output", "f");
+        assertTrue(opts.has("verbose"));
+        assertFalse(opts.has("version"));
+        assertEquals("o", opts.getArg("out"));
+        assertEquals("f", opts.getArg("output-format"));
+        String[] rejected = { "--ver", "--xyz", "--verbosely", "--z" };
+        for (String token : rejected) {
+            try {
+                opts.parse(token);
+                fail("resolved ambiguous or unknown abbreviation " + token);
+            } catch (MicroOptions.UnsupportedOptionException e) {
+                // Expected
+            }
+        }
+        try {
+            opts.has("verb");
+            fail("abbreviation accepted outside of parsing");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            // Expected
+        }
+    }
+
+    @Test public void testParse_AbbreviationsLargeSchema() {
+        opts.allowAbbreviations();
+        for (int x = 0; x < 20000; x++) opts.option("switch-" + x).isUnary();
+        opts.parse("--switch-12345", "--switch-1999", "--switch-19999");
+        assertTrue(opts.has("switch-12345"));
+        assertTrue(opts.has("switch-1999"));
+        assertTrue(opts.has("switch-19999"));
+        assertFalse(opts.has("switch-1"));
+        opts.parse("--switch-1234"); // exact, though a prefix of switch-12345
+        assertTrue(opts.has("switch-1234"));
+        assertFalse(opts.has("switch-12345"));
+        try {
+            opts.parse("--switch-");
+            fail("resolved an ambiguous abbreviation");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            // Expected
+        }
+    }
+
+    @Test public void testParse_NoAbbreviationsByDefault() {
+        opts.option("verbose").isUnary();
+        try {
+            opts.parse("--verb");
+            fail("resolved an abbreviation without allowAbbreviations()");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            // Expected
+        }
+    }
+
+    @Test public void testTyped_Conversions() {
+        opts.option("i").isInt();
+        opts.option("l").isLong();
+        opts.option("d").isDouble();
+        opts.option("b").isBoolean();
+        opts.option("e").isEnum(Color.class);
+        opts.option("size").isByteSize();
+        opts.option("timeout").isDuration();
+        opts.option("absent").isInt();
+        opts.parse("-i", "-42", "-l", "9000000000", "-d", "2.5", "-b", "yes",
+                "-e", "green", "--size", "512m", "--timeout", "250ms");
+        assertEquals(-42, opts.getInt("i", 0));
+        assertEquals(9000000000L, opts.getLong("l", 0));
+        assertEquals(2.5, opts.getDouble("d", 0), 0);
+        assertTrue(opts.getBoolean("b", false));
+        assertEquals(Color.GREEN, opts.getEnum("e", Color.RED));
+        assertEquals(512L << 20, opts.getByteSize("size", 0));
+        assertEquals(250, opts.getDuration("timeout",
+                java.util.concurrent.TimeUnit.MILLISECONDS, 0));
+        assertEquals(7, opts.getInt("absent", 7));
+        assertEquals("512m", opts.getArg("size")); // raw value still there
+    }
+
+    @Test public void testTyped_Units() {
+        opts.option("size").isByteSize();
+        opts.option("time").isDuration();
+        MicroOptions.Schema schema = opts.compile();
+        String[] sizes = { "4096", "4096b", "4k", "4KB", "1g", "2T", "1p" };
+        long[] bytes = { 4096, 4096, 4096, 4096, 1L << 30, 2L << 40, 1L << 50 };
+        for (int x = 0; x < sizes.length; x++) assertEquals(bytes[x],
+                schema.parse("--size", sizes[x]).getByteSize("size", -1));
+        String[] times = { "5", "5ns", "5us", "5ms", "5s", "5m", "5h", "5d" };
+        long[] nanos = { 5000000L, 5L, 5000L, 5000000L, 5000000000L,
+                300000000000L, 18000000000000L, 432000000000000L };
+        for (int x = 0; x < times.length; x++) assertEquals(nanos[x],
+                schema.parse("--time", times[x]).getDuration("time",
+                        java.util.concurrent.TimeUnit.NANOSECONDS, -1));
+    }
+
+    @Test public void testTyped_ConversionErrors() {
+        opts.option("i").isInt();
+        opts.option("b").isBoolean();
+        opts.option("e").isEnum(Color.class);
+        opts.option("size").isByteSize();
+        opts.option("time").isDuration();
+        String[][] bad = { {"-i", "4x"}, {"-i", "3000000000"}, {"-b", "maybe"},
+                {"-e", "PURPLE"}, {"--size", "-1k"}, {"--size", "10q"},
+                {"--size", "99999999p"}, {"--time", "5 s"}, {"--time", "ms"} };
+        for (String[] args : bad) {
+            try {
+                opts.parse(args);
+                fail("converted invalid value " + args[1]);
+            } catch (MicroOptions.ConversionException e) {
+                assertTrue(e.getMessage().contains(
+                        "'" + args[0].replaceAll("^-+", "") + "'"));
+            }
+        }
+    }
+
+    @Test public void testTyped_Ranges() {
+        opts.option("i").isInt();
+        opts.option("l").isLong();
+        opts.option("d").isDouble();
+        opts.option("size").isByteSize();
+        MicroOptions.Schema schema = opts.compile();
+        assertEquals(Integer.MAX_VALUE, schema.parse("-i", "2147483647")
+                .getInt("i", 0));
+        assertEquals(Integer.MIN_VALUE, schema.parse("-i", "-2147483648")
+                .getInt("i", 0));
+        assertEquals(5, schema.parse("-i", "+0000000000005").getInt("i", 0));
+        assertEquals(Long.MAX_VALUE, schema.parse("-l",
+                "9223372036854775807").getLong("l", 0));
+        assertEquals(Long.MIN_VALUE, schema.parse("-l",
+                "-9223372036854775808").getLong("l", 0));
+        assertEquals(1e300, schema.parse("-d", "1e300")
+                .getDouble("d", 0), 0);
+        assertEquals(0.5, schema.parse("-d", ".5").getDouble("d", 0), 0);
+        assertEquals(-2.0, schema.parse("-d", "-2.").getDouble("d", 0), 0);
+        String[][] bad = { {"-i", "2147483648"}, {"-i", "-2147483649"},
+                {"-i", "99999999999"}, {"-i", "2147483650"},
+                {"-l", "9223372036854775808"}, {"-l", "-9223372036854775809"},
+                {"-l", "99999999999999999999"}, {"-d", "1e400"},
+                {"-d", "-1e400"}, {"-d", "1e"}, {"-d", "1e+"}, {"-d", "."},
+                {"-d", "-"}, {"-d", "1.5d"}, {"-d", "0x1p3"}, {"-d", "1..5"},
+                {"--size", "99999999999999999999"} };
+        for (String[] args : bad) {
+            java.util.List<MicroOptions.Diagnostic> problems =
+                    schema.validate(args).getDiagnostics();
+            assertEquals(args[1], 1, problems.size());
+            assertEquals(args[1], MicroOptions.Diagnostic.Kind.CONVERSION,
+                    problems.get(0).getKind());
+        }
+    }
+
+    @Test public void testTyped_DoubleNotFinite() {
+        opts.option("d").isDouble();
+        MicroOptions.Schema schema = opts.compile();
+        String[] bad = { "NaN", "-NaN", "Infinity", "-Infinity", "+Infinity",
+                " 1.5 ", " 1.5", "1.5\n", "\t2" };
+        for (String arg : bad) {
+            try {
+                schema.parse("-d", arg);
+                fail("converted invalid value '" + arg + "'");
+            } catch (MicroOptions.ConversionException e) {
+                assertTrue(e.getMessage().contains("'d'"));
+            }
+        }
+    }
+
+    @Test public void testTyped_WrongAccessor() {
+        opts.option("i").isInt();
+        opts.option("s");
+        opts.option("u").isUnary();
+        opts.parse("-i", "1", "-s", "2");
+        String[] names = { "s", "u" };
+        for (String name : names) {
+            try {
+                opts.getInt(name, 0);
+                fail("read " + name + " as an int");
+            } catch (MicroOptions.OptionException e) {
+                // Expected
+            }
+        }
+        try {
+            opts.getLong("i", 0);
+            fail("read an int option as a long");
+        } catch (MicroOptions.OptionException e) {
+            // Expected
+        }
+        opts.option("u").isUnary().isInt();
+        try {
+            opts.compile();
+            fail("compiled a unary option with a type");
+        } catch (MicroOptions.OptionException e) {
+            // Expected
+        }
+    }
+
+    @Test public void testParseAll_InputOrder() {
+        opts.option("n").isInt().isRequired();
+        java.util.List<String[]> lines = new java.util.ArrayList<String[]>();
+        for (int x = 0; x < 10000; x++) {
+            if (x % 100 == 7) lines.add(new String[] {"-n", "bogus"});
+            else if (x % 100 == 8) lines.add(new String[] {});
+            else lines.add(new String[] {"-n", Integer.toString(x)});
+        }
+        MicroOptions.Batch batch = opts.compile().parseAll(lines, 4);
+        assertEquals(lines.size(), batch.size());
+        assertEquals(200, batch.errorCount());
+        for (int x = 0; x < lines.size(); x++) {
+            if (x % 100 == 7) {
+                assertNull(batch.result(x));
+                assertTrue(batch.error(x)
+                        instanceof MicroOptions.ConversionException);
+            } else if (x % 100 == 8) {
+                assertTrue(batch.error(x)
+                        instanceof MicroOptions.RequiredOptionException);
+            } else {
+                assertNull(batch.error(x));
+                assertEquals(x, batch.result(x).getInt("n", -1));
+            }
+        }
+    }
+
+    @Test public void testParseAll_Iterable() {
+        opts.option("x").isUnary();
+        final java.util.List<String[]> lines = java.util.Arrays.asList(
+                new String[] {"-x"}, new String[] {"-y"}, new String[] {});
+        Iterable<String[]> iterable = new Iterable<String[]>() {
+            public java.util.Iterator<String[]> iterator() {
+                return lines.iterator();
+            }
+        };
+        MicroOptions.Batch batch = opts.compile().parseAll(iterable);
+        assertEquals(3, batch.size());
+        assertTrue(batch.result(0).has("x"));
+        assertTrue(batch.error(1)
+                instanceof MicroOptions.UnsupportedOptionException);
+        assertFalse(batch.result(2).has("x"));
+        assertEquals(0, opts.compile().parseAll(
+                new java.util.ArrayList<String[]>()).size());
+    }
+
+    private static String writeTempFile(String content) throws Exception {
+        java.io.File file = java.io.File.createTempFile("uopt4j", ".args");
+        file.deleteOnExit();
+        java.io.Writer writer = new java.io.OutputStreamWriter(
+                new java.io.FileOutputStream(file), "UTF-8");
+        writer.write(content);
+        writer.close();
+        return file.getPath();
+    }
+
+    @Test public void testParse_ArgFiles() throws Exception {
+        opts.allowArgFiles();
+        opts.option("v").isUnary();
+        opts.option("name");
+        opts.option("n").isInt();
+        opts.option("empty");
+        String path = writeTempFile("  --name \"hello  world\"\n-v\t"
+                + "--empty ''\r\n-n");
+        opts.parse("@" + path, "42");
+        assertTrue(opts.has("v"));
+        assertEquals("hello  world", opts.getArg("name"));
+        assertEquals("", opts.getArg("empty"));
+        assertEquals(42, opts.getInt("n", 0));
+        opts.parse("--name", "@" + path); // arguments aren't expanded
+        assertEquals("@" + path, opts.getArg("name"));
+        opts.parse("@" + writeTempFile(""), "-v");
+        assertTrue(opts.has("v"));
+    }
+
+    @Test public void testParse_ArgFileErrors() throws Exception {
+        opts.option("v").isUnary();
+        String nested = writeTempFile("-v");
+        try {
+            opts.parse("@" + nested);
+            fail("expanded an argument file without allowArgFiles()");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            // Expected
+        }
+        opts.allowArgFiles();
+        String[] bad = { writeTempFile("-v @" + nested),
+                writeTempFile("-v 'unterminated"), nested + ".missing" };
+        for (String path : bad) {
+            try {
+                opts.parse("@" + path);
+                fail("parsed bad argument file " + path);
+            } catch (MicroOptions.OptionException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test public void testParseFile() throws Exception {
+        opts.option("v").isUnary();
+        opts.option("name");
+        opts.option("n").isInt();
+        MicroOptions.Schema schema = opts.compile();
+        String path = writeTempFile("-v --name 'from file'\n-n 1");
+        MicroOptions.Result result = schema.parseFile(path, "--name", "cli");
+        assertTrue(result.has("v"));
+        assertEquals("cli", result.getArg("name"));
+        assertEquals(1, result.getInt("n", 0));
+        assertEquals("from file", schema.parseFile(path).getArg("name"));
+        try {
+            schema.parseFile(path, "@" + path);
+            fail("expanded an argument file without allowArgFiles()");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            // Expected
+        }
+        try {
+            schema.parseFile(path + ".missing");
+            fail("parsed a missing file");
+        } catch (MicroOptions.OptionException e) {
+            // Expected
+        }
+    }
+
+    @Test public void testValidate_AllDiagnostics() {
+        opts.option("v").isUnary();
+        opts.option("n").isInt();
+        opts.option("name");
+        opts.option("req").isRequired();
+        opts.option("other").isRequired();
+        MicroOptions.Result result = opts.compile().validate(
+                "bogus", "-v", "--nope", "-n", "x1", "--other", "o", "--name");
+        assertTrue(result.has("v"));
+        assertFalse(result.has("n"));
+        assertFalse(result.has("name"));
+        assertEquals("o", result.getArg("other"));
+        java.util.List<MicroOptions.Diagnostic> diagnostics =
+                result.getDiagnostics();
+        MicroOptions.Diagnostic.Kind[] kinds = {
+                MicroOptions.Diagnostic.Kind.UNSUPPORTED_OPTION,
+                MicroOptions.Diagnostic.Kind.UNSUPPORTED_OPTION,
+                MicroOptions.Diagnostic.Kind.CONVERSION,
+                MicroOptions.Diagnostic.Kind.MISSING_ARG,
+                MicroOptions.Diagnostic.Kind.REQUIRED_OPTION };
+        String[] options = { "bogus", "nope", "n", "name", "req" };
+        assertEquals(kinds.length, diagnostics.size());
+        for (int x = 0; x < kinds.length; x++) {
+            assertEquals(kinds[x], diagnostics.get(x).getKind());
+            assertEquals(options[x], diagnostics.get(x).getOption());
+        }
+        assertEquals("Invalid int 'x1' for option 'n'",
+                diagnostics.get(2).getMessage());
+    }
+
+    @Test public void testValidate_MatchesExceptions() {
+        opts.option("n").isInt();
+        opts.option("r").isRequired();
+        String[][] lines = { {"-z"}, {"-r"}, {"-r", "r", "-n", "q"}, {} };
+        for (String[] line : lines) {
+            MicroOptions.Diagnostic diagnostic =
+                    opts.compile().validate(line).getDiagnostics().get(0);
+            try {
+                opts.parse(line);
+                fail("parsed invalid command line");
+            } catch (MicroOptions.OptionException e) {
+                assertEquals(e.getClass(),
+                        diagnostic.toException().getClass());
+                assertEquals(e.getMessage(), diagnostic.getMessage());
+            }
+        }
+        assertTrue(opts.compile().validate("-r", "r", "-n", "1")
+                .getDiagnostics().isEmpty());
+        assertTrue(opts.compile().parse("-r", "r").getDiagnostics().isEmpty());
+    }
+
+    @Test public void testRepeatable() {
+        opts.option("include").isRepeatable();
+        opts.option("n").isInt().isRepeatable();
+        opts.option("last");
+        opts.option("v").isUnary();
+        java.util.List<String> argv = new java.util.ArrayList<String>();
+        for (int x = 0; x < 100000; x++) {
+            argv.add("--include");
+            argv.add("dir" + x);
+        }
+        argv.add("-n"); argv.add("1");
+        argv.add("-v"); argv.add("-n"); argv.add("2");
+        argv.add("-v"); argv.add("--last"); argv.add("a");
+        argv.add("-v"); argv.add("--last"); argv.add("b");
+        opts.parse(argv.toArray(new String[argv.size()]));
+        java.util.List<String> includes = opts.getArgs("include");
+        assertEquals(100000, includes.size());
+        assertEquals(100000, opts.getCount("include"));
+        for (int x = 0; x < includes.size(); x++)
+            assertEquals("dir" + x, includes.get(x));
+        assertEquals("dir99999", opts.getArg("include"));
+        assertEquals(java.util.Arrays.asList("1", "2"), opts.getArgs("n"));
+        assertEquals(2, opts.getInt("n", 0));
+        assertEquals(3, opts.getCount("v"));
+        assertEquals(2, opts.getCount("last"));
+        assertEquals(java.util.Arrays.asList("b"), opts.getArgs("last"));
+        try {
+            includes.add("more");
+            fail("modified a read-only view");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        try {
+            includes.get(100000);
+            fail("read past the end of the view");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    @Test public void testRepeatable_AbsentAndUnary() {
+        opts.option("include").isRepeatable();
+        opts.option("v").isUnary();
+        opts.parse();
+        assertTrue(opts.getArgs("include").isEmpty());
+        assertEquals(0, opts.getCount("include"));
+        assertEquals(0, opts.getCount("v"));
+        try {
+            opts.getArgs("v");
+            fail("Queried for args to a unary option");
+        } catch (MicroOptions.OptionException e) {
+            // Expected
+        }
+        MicroOptions.Result result =
+                opts.compile().validate("--include", "a", "--include");
+        assertEquals(java.util.Arrays.asList("a"), result.getArgs("include"));
+        assertEquals(1, result.getDiagnostics().size());
+    }
+
+    @Test public void testLayers_Precedence() {
+        String env = System.getenv().keySet().iterator().next();
+        System.setProperty("uopt4j.test.a", "from-property");
+        System.setProperty("uopt4j.test.n", "12");
+        System.setProperty("uopt4j.test.v", "yes");
+        try {
+            opts.option("a").fromEnv("UOPT4J_UNSET_VARIABLE")
+                    .fromProperty("uopt4j.test.a").defaultsTo("from-default");
+            opts.option("b").fromProperty("uopt4j.test.unset")
+                    .defaultsTo("from-default").isRequired();
+            opts.option("c").fromProperty("uopt4j.test.a");
+            opts.option("e").fromEnv(env).fromProperty("uopt4j.test.a");
+            opts.option("n").isInt().fromProperty("uopt4j.test.n");
+            opts.option("v").isUnary().fromProperty("uopt4j.test.v");
+            opts.option("w").isUnary().defaultsTo("false");
+            opts.option("z").fromProperty("uopt4j.test.unset");
+            opts.parse("-c", "from-command-line");
+            assertEquals("from-property", opts.getArg("a"));
+            assertEquals("from-default", opts.getArg("b"));
+            assertEquals("from-command-line", opts.getArg("c"));
+            assertEquals(System.getenv(env), opts.getArg("e"));
+            assertEquals(12, opts.getInt("n", 0));
+            assertTrue(opts.has("v"));
+            assertFalse(opts.has("w"));
+            assertFalse(opts.has("z"));
+            assertEquals("fallback", opts.getArg("z", "fallback"));
+            assertEquals(MicroOptions.Source.SYSTEM_PROPERTY,
+                    opts.getSource("a"));
+            assertEquals(MicroOptions.Source.DEFAULT, opts.getSource("b"));
+            assertEquals(MicroOptions.Source.COMMAND_LINE,
+                    opts.getSource("c"));
+            assertEquals(MicroOptions.Source.ENVIRONMENT, opts.getSource("e"));
+            assertNull(opts.getSource("z"));
+        } finally {
+            System.clearProperty("uopt4j.test.a");
+            System.clearProperty("uopt4j.test.n");
+            System.clearProperty("uopt4j.test.v");
+        }
+    }
+
+    @Test public void testLayers_ConversionErrors() {
+        System.setProperty("uopt4j.test.n", "twelve");
+        try {
+            opts.option("n").isInt().fromProperty("uopt4j.test.n");
+            try {
+                opts.parse();
+                fail("converted an invalid property");
+            } catch (MicroOptions.ConversionException e) {
+                assertTrue(e.getMessage().contains("'n'"));
+            }
+            opts.parse("-n", "3"); // the command line takes precedence
+            assertEquals(3, opts.getInt("n", 0));
+        } finally {
+            System.clearProperty("uopt4j.test.n");
+        }
+    }
+
+    /** Records every notification as a line of text. */
+    private static class RecordingListener extends MicroOptions.Listener {
+        final StringBuilder log = new StringBuilder();
+        int tokens;
+        long nanos;
+        public void parseStarted() { log.append("started\n"); }
+        public void problemFound(MicroOptions.Diagnostic problem) {
+            log.append(problem.getKind()).append('\n'); }
+        public void parseFinished(int tokens, long nanos, boolean failed) {
+            this.tokens = tokens; this.nanos = nanos;
+            log.append(failed ? "failed\n" : "finished\n"); }
+        public void lookedUp(String option, boolean found) {
+            log.append(option).append(found ? " found\n" : " missing\n"); }
+    }
+
+    @Test public void testListener() {
+        RecordingListener listener = new RecordingListener();
+        opts.withListener(listener);
+        opts.option("a").isUnary();
+        opts.option("b");
+        opts.option("c");
+        opts.option("n").isInt().defaultsTo("3");
+        opts.parse("-a", "-b", "x", "-a");
+        assertEquals(4, listener.tokens);
+        assertTrue(listener.nanos >= 0);
+        assertTrue(opts.has("a"));
+        assertEquals("x", opts.getArg("b", "y"));
+        assertEquals("z", opts.getArg("c", "z"));
+        assertEquals(3, opts.getInt("n", 0));
+        assertEquals("started\nfinished\na found\nb found\nc missing\n"
+                + "n found\n", listener.log.toString());
+    }
+
+    @Test public void testListener_Problems() {
+        RecordingListener listener = new RecordingListener();
+        opts.option("a");
+        opts.withListener(listener);
+        try {
+            opts.parse("-a", "x", "-q");
+            fail("parsed an unsupported option");
+        } catch (MicroOptions.UnsupportedOptionException expected) {}
+        assertEquals(3, listener.tokens);
+        assertEquals("started\nUNSUPPORTED_OPTION\nfailed\n",
+                listener.log.toString());
+        listener.log.setLength(0);
+        opts.compile().validate("-q", "-a");
+        assertEquals("started\nUNSUPPORTED_OPTION\nMISSING_ARG\nfinished\n",
+                listener.log.toString());
+        listener.log.setLength(0);
+        opts.withListener(null).parse("-a", "x");
+        opts.getArg("a");
+        assertEquals("", listener.log.toString());
+    }
+
+    /** Declares the options of a "commit" command, counting its uses. */
+    public static class CommitCommand implements MicroOptions.Configurer {
+        static int configured;
+        public void configure(MicroOptions options) {
+            configured++;
+            options.option("a").describedAs("all").isUnary();
+            options.option("m").describedAs("message").isRequired();
+        }
+    }
+
+    @Test public void testCommands() {
+        CommitCommand.configured = 0;
+        opts.option("v").isUnary();
+        opts.command("commit").describedAs("record changes")
+                .configuredBy(CommitCommand.class.getName());
+        opts.command("nonexistent").configuredBy("NoSuchClass");
+        opts.parse("-v", "commit", "-a", "-m", "fix");
+        assertEquals(1, CommitCommand.configured);
+        assertTrue(opts.has("v"));
+        assertEquals("commit", opts.getCommand());
+        MicroOptions.Result commit = opts.getCommandResult();
+        assertTrue(commit.has("a"));
+        assertEquals("fix", commit.getArg("m"));
+        opts.parse("commit", "-m", "again"); // built only once per schema
+        assertEquals(1, CommitCommand.configured);
+        assertFalse(opts.getCommandResult().has("a"));
+        opts.parse("-v");
+        assertNull(opts.getCommand());
+        assertNull(opts.getCommandResult());
+        try {
+            opts.parse("commit", "-v");
+            fail("parsed an option of the tool as one of the command");
+        } catch (MicroOptions.UnsupportedOptionException expected) {}
+        try {
+            opts.parse("push");
+            fail("parsed an unsupported command");
+        } catch (MicroOptions.UnsupportedCommandException expected) {}
+        try {
+            opts.parse("nonexistent");
+            fail("parsed a command that can't be configured");
+        } catch (MicroOptions.OptionException expected) {
+            assertTrue(expected.getMessage().contains("NoSuchClass"));
+        }
+    }
+
+    @Test public void testCommands_Hyphens() {
+        opts.option("v").isUnary();
+        opts.command("commit").configuredBy(CommitCommand.class.getName());
+        for (String token : new String[] { "--", "-" }) {
+            try {
+                opts.parse("-v", token, "commit");
+                fail("parsed " + token + " without positionals");
+            } catch (MicroOptions.UnsupportedOptionException e) {
+                assertEquals("Unsupported option '" + token + "'",
+                        e.getMessage());
+            }
+        }
+        opts.allowPositionals();
+        opts.parse("-v", "--", "commit", "-m");
+        assertNull(opts.getCommand());
+        assertEquals(java.util.Arrays.asList("commit", "-m"),
+                opts.getPositionals());
+        opts.parse("-", "commit", "-m", "msg");
+        assertEquals(java.util.Arrays.asList("-"), opts.getPositionals());
+        assertEquals("msg", opts.getCommandResult().getArg("m"));
+    }
+
+    @Test public void testCommands_Configurer() {
+        final int[] configured = new int[1];
+        opts.command("add").configuredBy(new MicroOptions.Configurer() {
+            public void configure(MicroOptions options) {
+                configured[0]++;
+                options.option("n").isInt();
+            }
+        });
+        opts.command("rm").configuredBy(new MicroOptions.Configurer() {
+            public void configure(MicroOptions options) {
+                fail("configured a command that wasn't used"); }
+        });
+        MicroOptions.Result result = opts.compile().validate(
+                "add", "-n", "two", "-x");
+        assertEquals("add", result.getCommand());
+        assertEquals(2, result.getDiagnostics().size());
+        assertEquals(2, result.getCommandResult().getDiagnostics().size());
+        assertEquals(1, configured[0]);
+    }
+
+    @Test public void testCommands_ConfiguredOnce() throws Exception {
+        final java.util.concurrent.atomic.AtomicInteger configured =
+                new java.util.concurrent.atomic.AtomicInteger();
+        opts.command("add").configuredBy(new MicroOptions.Configurer() {
+            public void configure(MicroOptions options) {
+                configured.incrementAndGet();
+                try {
+                    Thread.sleep(50); // let the other threads catch up
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                options.option("n").isInt();
+            }
+        });
+        final MicroOptions.Schema schema = opts.compile();
+        final java.util.concurrent.CountDownLatch start =
+                new java.util.concurrent.CountDownLatch(1);
+        final MicroOptions.Schema[] built = new MicroOptions.Schema[4];
+        Thread[] threads = new Thread[built.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int t = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    built[t] = schema.command("add");
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        assertEquals(1, configured.get());
+        for (MicroOptions.Schema s : built) assertSame(built[0], s);
+    }
+
+    @Test public void testCommands_Usage() {
+        opts.option("v").describedAs("be verbose").isUnary();
+        opts.command("commit").describedAs("record changes")
+                .configuredBy(CommitCommand.class.getName());
+        opts.command("status");
+        assertEquals(" -v               be verbose (optional)\n"
+                + "  commit          record changes (command)\n"
+                + "  status          (command)", opts.usageString());
+        assertEquals(" -a          all (optional)\n"
+                + " -m [ARG]    message (required)",
+                opts.usageString("commit"));
+        try {
+            opts.usageString("push");
+            fail("rendered usage for an unsupported command");
+        } catch (MicroOptions.UnsupportedCommandException expected) {}
+    }
+
+    @Test public void testHandles() {
+        MicroOptions.Option v = opts.option("v").isUnary();
+        MicroOptions.Option out = opts.option("out");
+        assertFalse(v.isPresent()); // nothing parsed yet
+        assertNull(out.value());
+        opts.parse("-v", "--out", "file");
+        assertTrue(v.isPresent());
+        assertTrue(out.isPresent());
+        assertEquals("file", out.value());
+        try {
+            v.value();
+            fail("got the value of a unary option");
+        } catch (MicroOptions.OptionException expected) {}
+        MicroOptions.Result result = opts.compile().parse("--out", "x");
+        assertFalse(v.isPresent(result));
+        assertEquals("x", out.value(result));
+        assertEquals("file", out.value()); // unaffected by Schema.parse
+        // options added after the parse change every index; the handles
+        // still read the result they're given
+        opts.option("a");
+        MicroOptions.Option z = opts.option("z");
+        assertTrue(v.isPresent());
+        assertEquals("file", out.value());
+        try {
+            z.isPresent();
+            fail("read an option that wasn't in the parsed schema");
+        } catch (MicroOptions.UnsupportedOptionException expected) {}
+        opts.parse("-z", "last");
+        assertEquals("last", z.value());
+        assertNull(out.value());
+    }
+
+    @Test public void testHandles_TwoSchemas() {
+        MicroOptions.Option a = opts.option("a");
+        MicroOptions.Option b = opts.option("b");
+        MicroOptions.Schema first = opts.compile();
+        opts.option("0"); // sorts first, so a and b move up a slot
+        MicroOptions.Schema second = opts.compile();
+        assertNotSame(first, second);
+        MicroOptions.Result one = first.parse("-a", "a1", "-b", "b1");
+        MicroOptions.Result two = second.parse("-0", "z", "-a", "a2",
+                "-b", "b2");
+        assertEquals("a1", a.value(one));
+        assertEquals("b1", b.value(one));
+        assertEquals("a2", a.value(two));
+        assertEquals("b2", b.value(two));
+        opts.option("c");
+        opts.compile(); // neither schema is the latest now
+        assertEquals("b1", b.value(one));
+        assertEquals("b2", b.value(two));
+    }
+
+    @Test public void testHandles_Listener() {
+        RecordingListener listener = new RecordingListener();
+        MicroOptions.Option v = opts.withListener(listener)
+                .option("v").isUnary();
+        opts.parse("-v");
+        assertTrue(v.isPresent());
+        assertEquals("started\nfinished\nv found\n", listener.log.toString());
+    }
+
+    @Test public void testPositionals() {
+        opts.option("v").isUnary();
+        opts.option("out");
+        try {
+            opts.parse("-v", "a");
+            fail("parsed a positional argument without allowPositionals()");
+        } catch (MicroOptions.UnsupportedOptionException expected) {}
+        opts.allowPositionals();
+        String[] argv = { "a", "-v", "b", "c", "--out", "x", "-", "--", "-v",
+                "--out", "@file" };
+        opts.parse(argv);
+        assertTrue(opts.has("v"));
+        assertEquals("x", opts.getArg("out"));
+        java.util.List<String> positionals = opts.getPositionals();
+        assertEquals(java.util.Arrays.asList("a", "b", "c", "-", "-v",
+                "--out", "@file"), positionals);
+        argv[2] = "changed"; // a view of argv, not a copy
+        assertEquals("changed", positionals.get(1));
+        try {
+            positionals.get(7);
+            fail("read past the end of the positional arguments");
+        } catch (IndexOutOfBoundsException expected) {}
+        try {
+            positionals.add("d");
+            fail("modified the positional arguments");
+        } catch (UnsupportedOperationException expected) {}
+        opts.parse("--out", "--"); // an argument, not the terminator
+        assertEquals("--", opts.getArg("out"));
+        assertTrue(opts.getPositionals().isEmpty());
+        opts.parse("--", "a", "--bad");
+        assertEquals(java.util.Arrays.asList("a", "--bad"),
+                opts.getPositionals());
+        try {
+            opts.parse("--bad", "--", "a");
+            fail("parsed an unsupported option before --");
+        } catch (MicroOptions.UnsupportedOptionException expected) {}
+    }
+
+    @Test public void testPositionals_Large() {
+        opts.option("v").isUnary();
+        opts.allowPositionals();
+        String[] argv = new String[1000002];
+        argv[0] = "-v";
+        argv[1] = "--";
+        for (int x = 2; x < argv.length; x++) argv[x] = "file" + x;
+        MicroOptions.Result result = opts.compile().parse(argv);
+        assertEquals(1000000, result.getPositionals().size());
+        assertEquals("file2", result.getPositionals().get(0));
+        assertEquals("file1000001", result.getPositionals().get(999999));
+    }
+
+    @Test public void testPositionals_ArgFilesAndCommands() throws Exception {
+        opts.allowPositionals().allowArgFiles();
+        opts.option("v").isUnary();
+        opts.parse("a", "@" + writeTempFile("b -v \"c d\" -- -v"), "e");
+        assertEquals(java.util.Arrays.asList("a", "b", "c d", "-v", "e"),
+                opts.getPositionals());
+        opts.command("commit").configuredBy(CommitCommand.class.getName());
+        opts.parse("-v", "commit", "-m", "msg", "f1", "--", "-a");
+        assertTrue(opts.getPositionals().isEmpty());
+        assertEquals(java.util.Arrays.asList("f1", "-a"),
+                opts.getCommandResult().getPositionals());
+        assertFalse(opts.getCommandResult().has("a"));
+    }
+
+    @Test public void testSuggestions() {
+        opts.option("verbose").isUnary();
+        opts.option("version").isUnary();
+        opts.option("output");
+        opts.option("v").isUnary();
+        assertEquals(java.util.Arrays.asList("verbose"),
+                suggestionsFor("--verbos"));
+        assertEquals(java.util.Arrays.asList("version"),
+                suggestionsFor("--versoin"));
+        assertEquals(java.util.Arrays.asList("output"),
+                suggestionsFor("--ouptut"));
+        assertTrue(suggestionsFor("--xyzzy").isEmpty());
+        assertTrue(suggestionsFor("-w").isEmpty()); // too short to guess
+        opts.option("color");
+        opts.option("colon"); // declared later, but sorted first
+        assertEquals(java.util.Arrays.asList("colon", "color"),
+                suggestionsFor("--colox"));
+        try {
+            opts.has("outptu");
+            fail("found an unsupported option");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            assertEquals(java.util.Arrays.asList("output"), e.getSuggestions());
+        }
+        MicroOptions.Result result = opts.compile().validate("--vrebose",
+                "--output", "x");
+        MicroOptions.Diagnostic problem = result.getDiagnostics().get(0);
+        assertEquals(java.util.Arrays.asList("verbose"),
+                problem.getSuggestions());
+        assertEquals(java.util.Arrays.asList("verbose"),
+                ((MicroOptions.UnsupportedOptionException)
+                        problem.toException()).getSuggestions());
+        assertEquals("Unsupported option 'vrebose'", problem.getMessage());
+    }
+
+    @Test public void testSuggestions_WrongForm() {
+        opts.option("verbose").isUnary();
+        opts.option("verbosity");
+        opts.option("v").isUnary();
+        assertEquals(java.util.Arrays.asList("--verbose"),
+                suggestionsFor("verbose"));
+        assertEquals(java.util.Arrays.asList("--verbose"),
+                suggestionsFor("-verbose"));
+        assertEquals(java.util.Arrays.asList("-v"), suggestionsFor("v"));
+        assertEquals(java.util.Arrays.asList("-v"), suggestionsFor("--v"));
+        assertEquals(java.util.Arrays.asList("verbosity"),
+                suggestionsFor("--verbosit")); // near, but not exact
+        MicroOptions.Diagnostic problem = opts.compile().validate("verbosity")
+                .getDiagnostics().get(0);
+        assertEquals(java.util.Arrays.asList("--verbosity"),
+                problem.getSuggestions());
+    }
+
+    @Test public void testSuggestions_Large() {
+        for (int x = 0; x < 20000; x++) opts.option("option-number-" + x);
+        assertEquals(java.util.Arrays.asList("option-number-12345"),
+                suggestionsFor("--option-numbr-12345"));
+        assertEquals(java.util.Arrays.asList("option-number-0",
+                "option-number-1", "option-number-2"), // ties, sorted by name
+                suggestionsFor("--option-number-"));
+    }
+
+    private java.util.List<String> suggestionsFor(String token) {
+        try {
+            opts.parse(token);
+            fail("parsed unsupported option " + token);
+            return null;
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            return e.getSuggestions();
+        }
+    }
+
+    @Test public void testSchemaIntrospection() {
+        opts.option("verbose").describedAs("be verbose").isUnary();
+        opts.option("o");
+        opts.command("commit").configuredBy(new CommitCommand());
+        MicroOptions.Schema schema = opts.compile();
+        assertEquals(java.util.Arrays.asList("o", "verbose"),
+                schema.getOptions());
+        assertEquals(java.util.Arrays.asList("commit"), schema.getCommands());
+        assertTrue(schema.isUnary("verbose"));
+        assertFalse(schema.isUnary("o"));
+        assertEquals("be verbose", schema.getDescription("verbose"));
+        assertNull(schema.getDescription("o"));
+        assertEquals("message",
+                schema.command("commit").getDescription("m"));
+        assertEquals(CommitCommand.class.getName(),
+                schema.getConfigurerName("commit"));
+        opts.command("push").configuredBy("NoSuchClass");
+        opts.command("pull");
+        schema = opts.compile();
+        assertEquals("NoSuchClass", schema.getConfigurerName("push"));
+        assertNull(schema.getConfigurerName("pull"));
+        try {
+            schema.isUnary("verbos");
+            fail("found an unsupported option");
+        } catch (MicroOptions.UnsupportedOptionException e) {
+            assertEquals(java.util.Arrays.asList("verbose"),
+                    e.getSuggestions());
+        }
+        try {
+            schema.getOptions().add("x");
+            fail("modified the schema's options");
+        } catch (UnsupportedOperationException expected) {}
+    }
 }
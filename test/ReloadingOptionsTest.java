@@ -0,0 +1,193 @@
+// Copyright 2014 Google Inc. All rights reserved.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReloadingOptionsTest {
+    private static final String PROPERTY = "uopt4j.test.limit";
+
+    /** Records what happens to it, for the watching thread to report. */
+    private static class Recording extends ReloadingOptions {
+        final LinkedBlockingQueue<MicroOptions.Result> reloads =
+                new LinkedBlockingQueue<>();
+        final List<Exception> rejections = new CopyOnWriteArrayList<>();
+
+        Recording(MicroOptions.Schema schema, Path file, String... fixed)
+                throws Exception {
+            super(schema, file, fixed);
+        }
+
+        @Override protected void reloaded(MicroOptions.Result result) {
+            reloads.add(result);
+        }
+
+        @Override protected void rejected(Exception e) { rejections.add(e); }
+
+        MicroOptions.Result next() throws InterruptedException {
+            MicroOptions.Result result = reloads.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no reload", result);
+            return result;
+        }
+    }
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    private MicroOptions.Schema schema;
+    private Path file;
+
+    @Before public void setup() throws Exception {
+        MicroOptions options = new MicroOptions();
+        options.option("level").isInt();
+        options.option("name");
+        options.option("limit").isInt().fromProperty(PROPERTY);
+        schema = options.compile();
+        file = folder.getRoot().toPath().resolve("options");
+        write(file, "--level 1 --name 'from file'");
+    }
+
+    @Test public void testReload() throws Exception {
+        Recording options = new Recording(schema, file, "--name", "fixed");
+        MicroOptions.Result first = options.get();
+        assertEquals(1, first.getInt("level", 0));
+        assertEquals("fixed", first.getArg("name")); // fixed tokens win
+        write(file, "--level 2\n--name \"also from file\"");
+        assertTrue(options.reload());
+        assertSame(options.get(), options.next());
+        assertEquals(2, options.get().getInt("level", 0));
+        assertEquals("fixed", options.get().getArg("name"));
+        assertEquals(1, first.getInt("level", 0)); // snapshots don't change
+        assertTrue(options.rejections.isEmpty());
+    }
+
+    @Test public void testReload_Rejected() throws Exception {
+        Recording options = new Recording(schema, file);
+        MicroOptions.Result first = options.get();
+        write(file, "--level many");
+        assertFalse(options.reload());
+        write(file, "--levle 3");
+        assertFalse(options.reload());
+        write(file, "--level 'unterminated");
+        assertFalse(options.reload());
+        Files.delete(file);
+        assertFalse(options.reload());
+        assertSame(first, options.get());
+        assertTrue(options.reloads.isEmpty());
+        assertEquals(4, options.rejections.size());
+        assertTrue(options.rejections.get(0)
+                instanceof MicroOptions.ConversionException);
+        assertEquals(java.util.Arrays.asList("level"),
+                ((MicroOptions.UnsupportedOptionException)
+                        options.rejections.get(1)).getSuggestions());
+        assertTrue(options.rejections.get(2).getMessage(),
+                options.rejections.get(2).getMessage().contains("quote"));
+        assertTrue(options.rejections.get(3) instanceof NoSuchFileException);
+    }
+
+    @Test public void testReload_SystemProperty() throws Exception {
+        try {
+            System.setProperty(PROPERTY, "10");
+            ReloadingOptions options = new ReloadingOptions(schema, file);
+            assertEquals(10, options.get().getInt("limit", 0));
+            System.setProperty(PROPERTY, "20"); // the file is the same
+            assertTrue(options.reload());
+            assertEquals(20, options.get().getInt("limit", 0));
+            assertEquals(MicroOptions.Source.SYSTEM_PROPERTY,
+                    options.get().getSource("limit"));
+        } finally {
+            System.clearProperty(PROPERTY);
+        }
+    }
+
+    @Test public void testWatch() throws Exception {
+        try (Recording options = new Recording(schema, file)) {
+            options.start();
+            replace(file, "--level 2");
+            assertEquals(2, options.next().getInt("level", 0));
+            write(file, "--level 3"); // in place
+            assertEquals(3, options.next().getInt("level", 0));
+            replace(file, "--level bad");
+            replace(file.resolveSibling("unrelated"), "x");
+            replace(file, "--level 4");
+            MicroOptions.Result result = options.next();
+            assertEquals(4, result.getInt("level", 0));
+            assertSame(result, options.get());
+            assertTrue(options.reloads.isEmpty());
+            // the bad version may have been replaced before it was read
+            assertTrue(options.rejections.size() <= 1);
+        }
+    }
+
+    @Test public void testWatch_SwappedLinks() throws Exception {
+        // the layout of a Kubernetes ConfigMap volume
+        Path dir = folder.newFolder("config").toPath();
+        Path v1 = Files.createDirectory(dir.resolve("..v1"));
+        write(v1.resolve("options"), "--level 1");
+        Files.createSymbolicLink(dir.resolve("..data"), v1.getFileName());
+        Path link = dir.resolve("options");
+        Files.createSymbolicLink(link, dir.getFileSystem().getPath(
+                "..data", "options"));
+        try (Recording options = new Recording(schema, link)) {
+            options.start();
+            Path v2 = Files.createDirectory(dir.resolve("..v2"));
+            write(v2.resolve("options"), "--level 2");
+            Path temp = Files.createSymbolicLink(dir.resolve("..data_tmp"),
+                    v2.getFileName());
+            Files.move(temp, dir.resolve("..data"),
+                    StandardCopyOption.ATOMIC_MOVE);
+            assertEquals(2, options.next().getInt("level", 0));
+            // an edit of the current version, through the link
+            write(v2.resolve("options"), "--level 3");
+            assertEquals(3, options.next().getInt("level", 0));
+            assertTrue(options.rejections.isEmpty());
+        }
+    }
+
+    @Test public void testWatch_RejectedOnce() throws Exception {
+        try (Recording options = new Recording(schema, file)) {
+            MicroOptions.Result first = options.get();
+            options.start();
+            replace(file, "--level bad");
+            replace(file.resolveSibling("unrelated"), "x");
+            replace(file.resolveSibling("unrelated"), "y");
+            Thread.sleep(500);
+            assertEquals(1, options.rejections.size());
+            assertSame(first, options.get());
+            assertTrue(options.reloads.isEmpty());
+        }
+    }
+
+    private static void write(Path file, String text) throws Exception {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Writes a new version of a file and renames it over the old one. */
+    private static void replace(Path file, String text) throws Exception {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        write(temp, text);
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+}